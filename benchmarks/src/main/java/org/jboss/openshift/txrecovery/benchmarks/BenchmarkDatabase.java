@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery.benchmarks;
+
+import org.jboss.openshift.txrecovery.DBH2Connector;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAO;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAOFactory;
+import org.jboss.openshift.txrecovery.cliargs.ArgumentParserException;
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * Setup of the in-memory H2 database the benchmarks run against.
+ */
+final class BenchmarkDatabase {
+    private BenchmarkDatabase() {
+        // utility class
+    }
+
+    /**
+     * Arguments to connect to the in-memory H2 database of the {@link DBH2Connector}.
+     */
+    static ParsedArguments h2Arguments(String... additionalArgs) throws ArgumentParserException {
+        return h2UrlArguments(DBH2Connector.DB_H2_CONNECTION, additionalArgs);
+    }
+
+    /**
+     * Arguments to connect to the H2 database of the jdbc url, e.g. of the H2 server.
+     */
+    static ParsedArguments h2UrlArguments(String jdbcUrl, String... additionalArgs) throws ArgumentParserException {
+        String[] baseArgs = new String[] {
+            "-y", "h2",
+            "-l", jdbcUrl,
+            "-u", "",
+            "-s", "",
+            "-t", DBH2Connector.DB_TABLE_NAME};
+        String[] args = new String[baseArgs.length + additionalArgs.length];
+        System.arraycopy(baseArgs, 0, args, 0, baseArgs.length);
+        System.arraycopy(additionalArgs, 0, args, baseArgs.length, additionalArgs.length);
+        return ParsedArguments.parse(args);
+    }
+
+    /**
+     * Re-creating the marker table filled with the provided number of records,
+     * see {@link DBH2Connector#populate(int)}.
+     */
+    static void recreateTable(int numberOfRecords) throws ArgumentParserException {
+        DBH2Connector h2Connector = new DBH2Connector();
+        try {
+            h2Connector.dropTable();
+        } catch (IllegalStateException ignore) {
+            // table does not exist
+        }
+        RecoveryMarkerDAOFactory daoFactory = RecoveryMarkerDAOFactory.create(h2Arguments("-e", "jdbc"));
+        try {
+            RecoveryMarkerDAO dao = daoFactory.openDAO();
+            try {
+                dao.createTable();
+            } finally {
+                dao.close();
+            }
+        } finally {
+            daoFactory.close();
+        }
+        h2Connector.populate(numberOfRecords);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.jboss.openshift.txrecovery.HibernateSetup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the Hibernate bootstrap which every Hibernate based command pays,
+ * i.e. building registry, metadata and session factory and tearing them down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HibernateBootstrapBenchmark {
+    private Properties setupProperties;
+
+    @Setup
+    public void setUp() throws Exception {
+        setupProperties = HibernateSetup.getConfigurationProperties(BenchmarkDatabase.h2Arguments());
+    }
+
+    @Benchmark
+    public Metadata startupMetadata() {
+        StandardServiceRegistry standardRegistry = HibernateSetup.getStandardRegistry(setupProperties);
+        try {
+            return HibernateSetup.getHibernateStartupMetadata(setupProperties, standardRegistry);
+        } finally {
+            StandardServiceRegistryBuilder.destroy(standardRegistry);
+        }
+    }
+
+    @Benchmark
+    public SessionFactory startupMetadataAndSessionFactory() {
+        StandardServiceRegistry standardRegistry = HibernateSetup.getStandardRegistry(setupProperties);
+        try {
+            Metadata metadata = HibernateSetup.getHibernateStartupMetadata(setupProperties, standardRegistry);
+            SessionFactory sessionFactory = metadata.buildSessionFactory();
+            sessionFactory.close();
+            return sessionFactory;
+        } finally {
+            StandardServiceRegistryBuilder.destroy(standardRegistry);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.openshift.txrecovery.ApplicationRecoveryPod;
+import org.jboss.openshift.txrecovery.DBH2Connector;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAO;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAOFactory;
+import org.jboss.openshift.txrecovery.types.ProjectionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>
+ * Cost of the DAO operations at marker tables of different sizes.
+ * <p>
+ * Every operation opens its own DAO from the shared factory as a command does in the server mode,
+ * so the Hibernate engine includes opening of the session and the jdbc engine opening of the connection.
+ * The table is filled by {@link DBH2Connector#populate(int)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryMarkerDAOBenchmark {
+    static final String BENCHMARK_RECOVERY_POD = "benchmark-recovery-pod";
+
+    @Param({"10", "10000", "1000000"})
+    public int tableSize;
+
+    @Param({"jdbc", "hibernate"})
+    public String engine;
+
+    private RecoveryMarkerDAOFactory daoFactory;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.recreateTable(tableSize);
+        daoFactory = RecoveryMarkerDAOFactory.create(BenchmarkDatabase.h2Arguments("-e", engine));
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeBenchmarkRecords() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            dao.delete(null, BENCHMARK_RECOVERY_POD);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        daoFactory.close();
+    }
+
+    /**
+     * Record inserted before every invocation of the delete benchmark.
+     */
+    @State(Scope.Thread)
+    public static class RecordToDelete {
+        String applicationPodName;
+
+        @Setup(Level.Invocation)
+        public void insert(RecoveryMarkerDAOBenchmark benchmark) {
+            applicationPodName = "deleted-app-pod-" + benchmark.counter.incrementAndGet();
+            RecoveryMarkerDAO dao = benchmark.daoFactory.openDAO();
+            try {
+                dao.saveRecord(applicationPodName, BENCHMARK_RECOVERY_POD);
+            } finally {
+                dao.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean saveRecord() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.saveRecord("saved-app-pod-" + counter.incrementAndGet(), BENCHMARK_RECOVERY_POD);
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Repeated insert of the marker which exists in the table, see {@link RecoveryMarkerDAO#saveRecordIfNotExists(String, String)}.
+     */
+    @Benchmark
+    public boolean saveExistingRecordIfNotExists() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.saveRecordIfNotExists("app-pod-0", "recovery-pod-0");
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Benchmark
+    public int delete(RecordToDelete record) {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.delete(record.applicationPodName, BENCHMARK_RECOVERY_POD);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Benchmark
+    public Collection<ApplicationRecoveryPod> getRecordsByApplicationPod() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.getRecords("app-pod-" + ThreadLocalRandom.current().nextInt(tableSize), null);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Benchmark
+    public Collection<ApplicationRecoveryPod> getRecordsByRecoveryPod() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.getRecords(null, "recovery-pod-" + ThreadLocalRandom.current().nextInt(Math.max(1, tableSize / 10)));
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Listing the whole table as the <code>select_pairs</code> command does,
+     * compare with the allocations of {@link #getAllRecords()}.
+     */
+    @Benchmark
+    public long streamAllRecords(final Blackhole blackhole) {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.streamRecords(null, null, ProjectionType.PAIRS, false, (appPod, recPod) -> {
+                blackhole.consume(appPod);
+                blackhole.consume(recPod);
+            });
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Benchmark
+    public Collection<ApplicationRecoveryPod> getAllRecords() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.getRecords(null, null);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Benchmark
+    public boolean tableExists() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.tableExists(DBH2Connector.DB_TABLE_NAME);
+        } finally {
+            dao.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.openshift.txrecovery.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.openshift.txrecovery.ApplicationRecoveryPod;
+import org.jboss.openshift.txrecovery.DBH2Connector;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAO;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAOFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Lookups filtered only by the recovery pod name at the table of million records
+ * with and without the index on the recovery pod name column.
+ * <p>
+ * The primary key starts with the application pod name and without the index
+ * every lookup scans the whole table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryPodIndexBenchmark {
+    @Param({"1000000"})
+    public int tableSize;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private RecoveryMarkerDAOFactory daoFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.recreateTable(tableSize);
+        if(!indexed) new DBH2Connector().dropIndex(DBH2Connector.DB_TABLE_NAME + "_REC_IDX");
+        daoFactory = RecoveryMarkerDAOFactory.create(BenchmarkDatabase.h2Arguments("-e", "jdbc"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        daoFactory.close();
+    }
+
+    @Benchmark
+    public Collection<ApplicationRecoveryPod> getRecordsByRecoveryPod() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.getRecords(null, "recovery-pod-" + ThreadLocalRandom.current().nextInt(tableSize / 10));
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Deleting markers of a recovery pod which owns none, the table is not changed by the benchmark.
+     */
+    @Benchmark
+    public int deleteByRecoveryPod() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.delete(null, "missing-recovery-pod-" + ThreadLocalRandom.current().nextInt(tableSize / 10));
+        } finally {
+            dao.close();
+        }
+    }
+}
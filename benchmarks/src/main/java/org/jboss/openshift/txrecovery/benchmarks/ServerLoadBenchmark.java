@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.tools.Server;
+import org.jboss.openshift.txrecovery.DBH2Connector;
+import org.jboss.openshift.txrecovery.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Load of the marker server at 8 and 64 concurrent clients, every client sends its single marker insert
+ * over its own socket connection as the forwarding command line does. The marker server is started
+ * in the benchmark process with the H2 server as the database.
+ * <p>
+ * With the zero group commit window every insert commits its own transaction, otherwise the inserts arriving
+ * within the window are committed together. The group holds as many inserts as there are concurrently
+ * served connections, see the limit of the server workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerLoadBenchmark {
+    private static final long SERVER_START_TIMEOUT_MILLIS = 30000;
+
+    @Param({"0", "5"})
+    public int groupCommitWindow;
+
+    @Param({"64"})
+    public int poolMaxSize;
+
+    private Server h2Server;
+    private int serverPort;
+    private final AtomicInteger clientNumber = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Client {
+        int number;
+        long insertNumber;
+
+        @Setup(Level.Trial)
+        public void setUp(ServerLoadBenchmark benchmark) {
+            number = benchmark.clientNumber.incrementAndGet();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int h2Port = freePort();
+        h2Server = Server.createTcpServer("-tcpPort", String.valueOf(h2Port)).start();
+        serverPort = freePort();
+
+        List<String> serverArgs = new ArrayList<String>(Arrays.asList(
+            "-y", "h2",
+            "-l", "jdbc:h2:tcp://localhost:" + h2Port + "/mem:server-load-benchmark;DB_CLOSE_DELAY=-1",
+            "-u", "",
+            "-s", "",
+            "-t", DBH2Connector.DB_TABLE_NAME,
+            "-e", "jdbc",
+            "--server", "--server_port", String.valueOf(serverPort),
+            "--pool_max_size", String.valueOf(poolMaxSize)));
+        if(groupCommitWindow > 0) serverArgs.addAll(Arrays.asList("--group_commit_window", String.valueOf(groupCommitWindow)));
+        // the server runs until the benchmark process finishes, every trial is forked
+        Thread serverThread = new Thread(() -> Main.main(serverArgs.toArray(new String[serverArgs.size()])), "marker-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+        while(true) {
+            try {
+                if(request("-c create") == 0) break;
+            } catch (IOException ioe) {
+                if(System.currentTimeMillis() > deadline) throw ioe;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        h2Server.stop();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int insert8Clients(Client client) throws IOException {
+        return insert(client);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int insert64Clients(Client client) throws IOException {
+        return insert(client);
+    }
+
+    /**
+     * Insert of the new marker, every client inserts its own markers.
+     */
+    private int insert(Client client) throws IOException {
+        int exitCode = request("-c insert -a app-pod-" + client.number + "-" + (client.insertNumber++) + " -r recovery-pod-0");
+        if(exitCode != 0) throw new IllegalStateException("Insert failed with exit code " + exitCode);
+        return exitCode;
+    }
+
+    /**
+     * Sending the request line to the marker server and reading the response until its exit code.
+     */
+    private int request(String requestLine) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverPort)) {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            writer.println(requestLine);
+            writer.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("EXIT ")) return Integer.parseInt(line.substring("EXIT ".length()).trim());
+            }
+            throw new IOException("Marker server closed the connection before the request finished");
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
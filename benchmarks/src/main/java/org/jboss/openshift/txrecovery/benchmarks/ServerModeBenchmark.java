@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery.benchmarks;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.tools.Server;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAO;
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAOFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Marker commands of the server mode at 1, 8 and 64 concurrent clients against the H2 server,
+ * every command opens its own DAO from the factory shared as in the marker server.
+ * <p>
+ * With the zero pool size every command opens a new tcp connection and prepares its statements,
+ * otherwise the connection is borrowed from the pool and the statements are taken from its cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerModeBenchmark {
+    @Param({"0", "64"})
+    public int poolMaxSize;
+
+    private Server h2Server;
+    private RecoveryMarkerDAOFactory daoFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        h2Server = Server.createTcpServer("-tcpPort", String.valueOf(port)).start();
+        String jdbcUrl = "jdbc:h2:tcp://localhost:" + port + "/mem:server-mode-benchmark;DB_CLOSE_DELAY=-1";
+        daoFactory = RecoveryMarkerDAOFactory.createShared(BenchmarkDatabase.h2UrlArguments(jdbcUrl,
+            "-e", "jdbc", "--pool_max_size", String.valueOf(poolMaxSize)));
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            dao.createTable();
+            dao.saveRecord("app-pod-0", "recovery-pod-0");
+        } finally {
+            dao.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        daoFactory.close();
+        h2Server.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean exists1Client() {
+        return exists();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean exists8Clients() {
+        return exists();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean exists64Clients() {
+        return exists();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean saveExistingRecordIfNotExists1Client() {
+        return saveExistingRecordIfNotExists();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean saveExistingRecordIfNotExists8Clients() {
+        return saveExistingRecordIfNotExists();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean saveExistingRecordIfNotExists64Clients() {
+        return saveExistingRecordIfNotExists();
+    }
+
+    private boolean exists() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.exists("app-pod-0", "recovery-pod-0");
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Repeated insert of the marker which exists in the table, the insert is idempotent.
+     */
+    private boolean saveExistingRecordIfNotExists() {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return dao.saveRecordIfNotExists("app-pod-0", "recovery-pod-0");
+        } finally {
+            dao.close();
+        }
+    }
+}
@@ -22,30 +22,45 @@
 
 package org.jboss.openshift.txrecovery;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.hibernate.Criteria;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
 import org.hibernate.resource.transaction.spi.TransactionStatus;
+import org.jboss.openshift.txrecovery.types.ProjectionType;
 
 /**
  * Data manipulation service working with the {@link ApplicationRecoveryPod}.
  */
-public class ApplicationRecoveryPodDAO {
+public class ApplicationRecoveryPodDAO implements RecoveryMarkerDAO {
     private static final Logger log = Logger.getLogger(ApplicationRecoveryPodDAO.class.getName());
 
     private Session session;
+    private MarkerTableDialect dialect;
 
     public ApplicationRecoveryPodDAO(Session session) {
+        this(session, null);
+    }
+
+    public ApplicationRecoveryPodDAO(Session session, MarkerTableDialect dialect) {
         this.session = session;
+        this.dialect = dialect;
     }
 
     /**
@@ -55,43 +70,350 @@ public class ApplicationRecoveryPodDAO {
      * @param recoveryPodName  recovery pod name to be saved
      * @return true if saved successfully, false otherwise
      */
+    @Override
     public boolean saveRecord(String applicationPodName, String recoveryPodName) {
-        session.getTransaction().begin();
+        boolean isOwnTransaction = beginIfNotActive();
         ApplicationRecoveryPod record = new ApplicationRecoveryPod(applicationPodName, recoveryPodName);
         try {
             session.persist(record);
-            session.getTransaction().commit();
+            incrementWriteCounter();
+            if(isOwnTransaction) session.getTransaction().commit();
+            else session.flush();
         } catch (Exception e) {
             if(session.getTransaction() != null && session.getTransaction().getStatus() == TransactionStatus.ACTIVE)
                 session.getTransaction().rollback();
+            if(dialect != null) ApplicationRecoveryPodJdbcDAO.forgetTableOnError(dialect, e);
             log.log(Level.SEVERE, "Cannot persist record: " + record, e);
             return false;
         }
         return true;
     }
 
-    public int delete(String applicationPodName, String recoveryPodName) {
-        String whereClause = "";
-        if(applicationPodName != null && !applicationPodName.isEmpty()) {
-            whereClause += " where id.applicationPodName = :appPod";
+    /**
+     * Save a single record with the dialect specific native statement unless it already exists,
+     * see {@link ApplicationRecoveryPodJdbcDAO#saveRecordIfNotExists(Connection, MarkerTableDialect, String, String)}.
+     *
+     * @param applicationPodName  app pod name to be saved
+     * @param recoveryPodName  recovery pod name to be saved
+     * @return true if the record was inserted, false if it already existed
+     */
+    @Override
+    public boolean saveRecordIfNotExists(final String applicationPodName, final String recoveryPodName) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, record cannot be saved");
+        try {
+            return inTransaction(
+                new ReturningWork<Boolean>() {
+                    public Boolean execute(Connection connection) throws SQLException {
+                        return ApplicationRecoveryPodJdbcDAO.saveRecordIfNotExists(connection, dialect, applicationPodName, recoveryPodName);
+                    }
+                }
+            );
+        } catch (RuntimeException e) {
+            ApplicationRecoveryPodJdbcDAO.forgetTableOnError(dialect, e);
+            throw new IllegalStateException("Cannot persist record: " + new ApplicationRecoveryPod(applicationPodName, recoveryPodName), e);
         }
-        if(recoveryPodName != null && !recoveryPodName.isEmpty()) {
-            whereClause += whereClause.isEmpty() ? " where " : " and ";
-            whereClause += "id.recoveryPodName = :recPod";
+    }
+
+    /**
+     * Save the records with JDBC batches on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#saveRecords(Connection, MarkerTableDialect, List, boolean, int)}.
+     */
+    @Override
+    public int[] saveRecords(final List<ApplicationRecoveryPod> records, final boolean isIfNotExists, final int batchSize) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be saved");
+        try {
+            return inTransaction(
+                new ReturningWork<int[]>() {
+                    public int[] execute(Connection connection) throws SQLException {
+                        return ApplicationRecoveryPodJdbcDAO.saveRecords(connection, dialect, records, isIfNotExists, batchSize);
+                    }
+                }
+            );
+        } catch (RuntimeException e) {
+            ApplicationRecoveryPodJdbcDAO.forgetTableOnError(dialect, e);
+            throw new IllegalStateException("Cannot persist " + records.size() + " records", e);
+        }
+    }
+
+    /**
+     * Delete the records with JDBC batches on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#deleteRecords(Connection, MarkerTableDialect, List, int)}.
+     */
+    @Override
+    public int[] deleteRecords(final List<ApplicationRecoveryPod> filters, final int batchSize) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be deleted");
+        return inTransaction(
+            new ReturningWork<int[]>() {
+                public int[] execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.deleteRecords(connection, dialect, filters, batchSize);
+                }
+            }
+        );
+    }
+
+    /**
+     * Refresh the heartbeat of the records on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#touchRecords(Connection, MarkerTableDialect, List, int)}.
+     * The heartbeat column is not mapped by the entity, it's maintained by the database.
+     */
+    @Override
+    public int[] touchRecords(final List<ApplicationRecoveryPod> filters, final int batchSize) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be touched");
+        return inTransaction(
+            new ReturningWork<int[]>() {
+                public int[] execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.touchRecords(connection, dialect, filters, batchSize);
+                }
+            }
+        );
+    }
+
+    /**
+     * Delete the records of not live pods on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#deleteNotLive(Connection, MarkerTableDialect, Collection, ProjectionType, int, BiConsumer)}.
+     */
+    @Override
+    public long deleteNotLive(final Collection<String> livePodNames, final ProjectionType scope, final int batchSize,
+            final BiConsumer<String, String> consumer) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be deleted");
+        return inTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.deleteNotLive(connection, dialect, livePodNames, scope, batchSize, consumer);
+                }
+            }
+        );
+    }
+
+    /**
+     * Moving the records on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#reassign(Connection, MarkerTableDialect, String, String, String)}.
+     */
+    @Override
+    public long reassign(final String applicationPodName, final String oldRecoveryPodName, final String newRecoveryPodName) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be reassigned");
+        return inTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.reassign(connection, dialect, applicationPodName,
+                        oldRecoveryPodName, newRecoveryPodName);
+                }
+            }
+        );
+    }
+
+    /**
+     * Claiming the records on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#claim(Connection, MarkerTableDialect, String, String, String, int, BiConsumer)}.
+     */
+    @Override
+    public long claim(final String applicationPodName, final String oldRecoveryPodName, final String newRecoveryPodName,
+            final int limit, final BiConsumer<String, String> consumer) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be claimed");
+        Lock localLock = session.doReturningWork(
+            new ReturningWork<Lock>() {
+                public Lock execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.localClaimLock(connection, dialect);
+                }
+            }
+        );
+        if(localLock != null) localLock.lock();
+        try {
+            return inTransaction(
+                new ReturningWork<Long>() {
+                    public Long execute(Connection connection) throws SQLException {
+                        return ApplicationRecoveryPodJdbcDAO.claim(connection, dialect, applicationPodName, oldRecoveryPodName,
+                            newRecoveryPodName, limit, consumer);
+                    }
+                }
+            );
+        } finally {
+            if(localLock != null) localLock.unlock();
+        }
+    }
+
+    /**
+     * Delete the records in chunks on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#deleteInChunks(Connection, MarkerTableDialect, String, String, Timestamp, int, long)}.
+     */
+    @Override
+    public long deleteInChunks(final String applicationPodName, final String recoveryPodName, final int chunkSize,
+            final long pauseMillis) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be deleted in chunks");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.deleteInChunks(connection, dialect, applicationPodName, recoveryPodName,
+                        null, chunkSize, pauseMillis);
+                }
+            }
+        );
+    }
+
+    /**
+     * Delete the expired records in chunks on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#expire(Connection, MarkerTableDialect, long, int, long)}.
+     */
+    @Override
+    public long expire(final long ttlSeconds, final int chunkSize, final long pauseMillis) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be expired");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.expire(connection, dialect, ttlSeconds, chunkSize, pauseMillis);
+                }
+            }
+        );
+    }
+
+    /**
+     * Acquiring the lock on the session connection, see {@link ApplicationRecoveryPodJdbcDAO#lock(Connection, MarkerTableDialect, String, long)}.
+     * Outside of a transaction the lock row is committed immediately.
+     */
+    @Override
+    public boolean lock(final String podName, final long timeoutSeconds) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, lock cannot be acquired");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Boolean>() {
+                public Boolean execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.lock(connection, dialect, podName, timeoutSeconds);
+                }
+            }
+        );
+    }
+
+    /**
+     * Releasing the lock on the session connection, see {@link ApplicationRecoveryPodJdbcDAO#unlock(Connection, MarkerTableDialect, String)}.
+     */
+    @Override
+    public boolean unlock(final String podName) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, lock cannot be released");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Boolean>() {
+                public Boolean execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.unlock(connection, dialect, podName);
+                }
+            }
+        );
+    }
+
+    /**
+     * Exporting the records to the csv file on the session connection,
+     * see {@link ApplicationRecoveryPodJdbcDAO#exportRecords(Connection, MarkerTableDialect, String, String, WritableByteChannel)}.
+     * The export runs in a transaction of the session, its own one unless a transaction was begun.
+     */
+    @Override
+    public long exportRecords(final String applicationPodName, final String recoveryPodName, final WritableByteChannel channel) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be exported");
+        return inTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.exportRecords(connection, dialect, applicationPodName, recoveryPodName, channel);
+                }
+            }
+        );
+    }
+
+    @Override
+    public long importRecords(final ReadableByteChannel channel, final boolean isIfNotExists, final int batchSize) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be imported");
+        return inTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.importRecords(connection, dialect, channel, isIfNotExists, batchSize);
+                }
+            }
+        );
+    }
+
+    /**
+     * Watching the changes on the session connection, see {@link MarkerWatch}.
+     * Outside of a transaction the connection works in the auto-commit mode to see the committed changes.
+     */
+    @Override
+    public long watch(final long pollIntervalMillis, final long durationMillis, final MarkerChangeListener listener) {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, records cannot be watched");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return MarkerWatch.watch(connection, dialect, pollIntervalMillis, durationMillis, listener);
+                }
+            }
+        );
+    }
+
+    @Override
+    public long getChangeVersion() {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, change version cannot be read");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.getChangeVersion(connection, dialect);
+                }
+            }
+        );
+    }
+
+    @Override
+    public long getWriteCounter() {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, write counter cannot be read");
+        return inAutoCommitUnlessTransaction(
+            new ReturningWork<Long>() {
+                public Long execute(Connection connection) throws SQLException {
+                    return ApplicationRecoveryPodJdbcDAO.getWriteCounter(connection, dialect);
+                }
+            }
+        );
+    }
+
+    @Override
+    public boolean createChangeLog() {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, change log cannot be created");
+        try {
+            return inAutoCommitUnlessTransaction(
+                new ReturningWork<Boolean>() {
+                    public Boolean execute(Connection connection) throws SQLException {
+                        return ApplicationRecoveryPodJdbcDAO.createChangeLog(connection, dialect);
+                    }
+                }
+            );
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Cannot create change log of table " + dialect.getQualifiedTableName(), e);
+            return false;
         }
+    }
+
+    @Override
+    public int delete(String applicationPodName, String recoveryPodName) {
+        String whereClause = whereClause(applicationPodName, recoveryPodName);
         String query = "delete from " + ApplicationRecoveryPod.class.getSimpleName() + whereClause;
         log.info("Query to be executed: " + query);
 
         // creating hql delete query
-        session.getTransaction().begin();
+        boolean isOwnTransaction = beginIfNotActive();
         Query q = session.createQuery(query);
-        if(applicationPodName != null && !applicationPodName.isEmpty())
-            q.setString("appPod", applicationPodName);
-        if(recoveryPodName != null && !recoveryPodName.isEmpty())
-            q.setString("recPod", recoveryPodName);
+        setWhereClauseParameters(q, applicationPodName, recoveryPodName);
 
         int numberDeletedRecords = q.executeUpdate();
-        session.getTransaction().commit();
+        if(numberDeletedRecords > 0) incrementWriteCounter();
+        if(isOwnTransaction) session.getTransaction().commit();
 
         return numberDeletedRecords;
     }
@@ -105,10 +427,12 @@ public class ApplicationRecoveryPodDAO {
     public boolean deleteRecord(ApplicationRecoveryPod recordDto) {
         if(recordDto == null) return false;
 
-        session.getTransaction().begin();
+        boolean isOwnTransaction = beginIfNotActive();
         try {
             session.delete(recordDto);
-            session.getTransaction().commit();
+            incrementWriteCounter();
+            if(isOwnTransaction) session.getTransaction().commit();
+            else session.flush();
         } catch (Exception e) {
             if(session.getTransaction() != null && session.getTransaction().getStatus() == TransactionStatus.ACTIVE)
                 session.getTransaction().rollback();
@@ -118,32 +442,118 @@ public class ApplicationRecoveryPodDAO {
         return true;
     }
 
+    /**
+     * Existence of the record with HQL query returning at most one row.
+     */
+    @Override
+    public boolean exists(String applicationPodName, String recoveryPodName) {
+        Query q = session.createQuery("select 1 from " + ApplicationRecoveryPod.class.getSimpleName()
+            + whereClause(applicationPodName, recoveryPodName)).setMaxResults(1);
+        setWhereClauseParameters(q, applicationPodName, recoveryPodName);
+        return !q.list().isEmpty();
+    }
+
+    @Override
+    public long count(String applicationPodName, String recoveryPodName) {
+        Query q = session.createQuery("select count(*) from " + ApplicationRecoveryPod.class.getSimpleName()
+            + whereClause(applicationPodName, recoveryPodName));
+        setWhereClauseParameters(q, applicationPodName, recoveryPodName);
+        return ((Number) q.uniqueResult()).longValue();
+    }
+
+    @Override
+    public long countGroupedBy(String applicationPodName, String recoveryPodName, ProjectionType groupBy,
+            BiConsumer<String, Long> consumer) {
+        if(groupBy == ProjectionType.PAIRS)
+            throw new IllegalArgumentException("Records can be grouped only by one of the pod names");
+        String column = groupBy == ProjectionType.APPLICATION_POD ? "id.applicationPodName" : "id.recoveryPodName";
+        Query q = session.createQuery("select " + column + ", count(*) from " + ApplicationRecoveryPod.class.getSimpleName()
+            + whereClause(applicationPodName, recoveryPodName) + " group by " + column).setReadOnly(true);
+        setWhereClauseParameters(q, applicationPodName, recoveryPodName);
+        long numberOfGroups = 0;
+        ScrollableResults results = q.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while(results.next()) {
+                consumer.accept(results.getString(0), results.getLong(1));
+                numberOfGroups++;
+            }
+        } finally {
+            results.close();
+        }
+        return numberOfGroups;
+    }
+
+    /**
+     * Streaming the projected columns with the forward only {@link ScrollableResults},
+     * no entity is loaded to the session.
+     */
+    @Override
+    public long streamRecords(String applicationPodName, String recoveryPodName, ProjectionType projection, boolean isDistinct,
+            BiConsumer<String, String> consumer) {
+        String columns;
+        switch(projection) {
+            case APPLICATION_POD:
+                columns = "id.applicationPodName";
+                break;
+            case RECOVERY_POD:
+                columns = "id.recoveryPodName";
+                break;
+            default:
+                columns = "id.applicationPodName, id.recoveryPodName";
+        }
+        String whereClause = whereClause(applicationPodName, recoveryPodName);
+        String query = "select " + (isDistinct ? "distinct " : "") + columns
+            + " from " + ApplicationRecoveryPod.class.getSimpleName() + whereClause;
+
+        // PostgreSQL driver streams the rows only in a transaction
+        boolean isOwnTransaction = beginIfNotActive();
+        long numberOfRows = 0;
+        try {
+            Query q = session.createQuery(query)
+                .setReadOnly(true)
+                .setFetchSize(dialect == null ? MarkerTableDialect.STREAMING_FETCH_SIZE : dialect.getStreamingFetchSize());
+            setWhereClauseParameters(q, applicationPodName, recoveryPodName);
+
+            ScrollableResults results = q.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while(results.next()) {
+                    switch(projection) {
+                        case APPLICATION_POD:
+                            consumer.accept(results.getString(0), null);
+                            break;
+                        case RECOVERY_POD:
+                            consumer.accept(null, results.getString(0));
+                            break;
+                        default:
+                            consumer.accept(results.getString(0), results.getString(1));
+                    }
+                    numberOfRows++;
+                }
+            } finally {
+                results.close();
+            }
+            if(isOwnTransaction) session.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if(isOwnTransaction) rollbackTransaction();
+            throw e;
+        }
+        return numberOfRows;
+    }
+
     /**
      * Verifies if table name exists in the database.
      *
      * @param tableName  table name to be found
      * @return true if found, false otherwise
      */
+    @Override
     public boolean tableExists(final String tableName) {
         try {
             return session.doReturningWork(
                 new ReturningWork<Boolean>() {
                     public Boolean execute(Connection connection) throws SQLException {
-                        ResultSet tables = connection.getMetaData().getTables(null,null,tableName,null);
-                        boolean isCaseSensitive = connection.getMetaData().supportsMixedCaseIdentifiers();
-                        try {
-                            while(tables.next()) {
-                                String currentTableName = tables.getString("TABLE_NAME");
-                                if(isCaseSensitive) {
-                                    if(currentTableName.equals(tableName)) return true;
-                                } else {
-                                    if(currentTableName.equalsIgnoreCase(tableName)) return true;
-                                }
-                            }
-                        } finally {
-                            if(tables != null) tables.close();
-                        }
-                        return false;
+                        return ApplicationRecoveryPodJdbcDAO.tableExists(connection,
+                            dialect == null ? null : dialect.getSchema(), tableName);
                     }
                 }
             );
@@ -160,6 +570,7 @@ public class ApplicationRecoveryPodDAO {
      * @param recoveryPodName  rec pod name to filter recovery markers by
      * @return the records or null
      */
+    @Override
     @SuppressWarnings("unchecked")
     public Collection<ApplicationRecoveryPod> getRecords(String applicationPodName, String recoveryPodName) {
         // the Criteria is deprecated in Hibernate 5.2 (see https://github.com/treehouse/giflib-hibernate/commit/f97a2828a466e849d8ae84884b5dce60a66cf412)
@@ -172,4 +583,156 @@ public class ApplicationRecoveryPodDAO {
         }
         return criteria.list();
     }
+
+    /**
+     * Creating the table with the session connection, see {@link ApplicationRecoveryPodJdbcDAO#createTable(Connection, MarkerTableDialect)}.
+     *
+     * @return  true if the table exists, false otherwise
+     */
+    @Override
+    public boolean createTable() {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, table cannot be created");
+        // outside of a transaction the missing index of the existing table is built concurrently in auto-commit mode
+        try {
+            return inAutoCommitUnlessTransaction(
+                new ReturningWork<Boolean>() {
+                    public Boolean execute(Connection connection) throws SQLException {
+                        return ApplicationRecoveryPodJdbcDAO.createTable(connection, dialect);
+                    }
+                }
+            );
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Cannot create table " + dialect.getQualifiedTableName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Creating the index with the session connection, see {@link ApplicationRecoveryPodJdbcDAO#createIndex(Connection, MarkerTableDialect)}.
+     *
+     * @return  true if the index exists, false otherwise
+     */
+    @Override
+    public boolean createIndex() {
+        if(dialect == null)
+            throw new IllegalStateException("Marker table dialect was not provided, index cannot be created");
+        // outside of a transaction the index is created in auto-commit mode which permits the concurrent build
+        try {
+            return inAutoCommitUnlessTransaction(
+                new ReturningWork<Boolean>() {
+                    public Boolean execute(Connection connection) throws SQLException {
+                        return ApplicationRecoveryPodJdbcDAO.createIndex(connection, dialect);
+                    }
+                }
+            );
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Cannot create indexes " + dialect.getIndexes().keySet(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if(session.isOpen()) session.close();
+    }
+
+    @Override
+    public void beginTransaction() {
+        session.getTransaction().begin();
+    }
+
+    @Override
+    public void commitTransaction() {
+        session.getTransaction().commit();
+    }
+
+    @Override
+    public void rollbackTransaction() {
+        if(session.getTransaction() != null && session.getTransaction().getStatus().canRollback())
+            session.getTransaction().rollback();
+    }
+
+    private static String whereClause(String applicationPodName, String recoveryPodName) {
+        String whereClause = "";
+        if(applicationPodName != null && !applicationPodName.isEmpty()) {
+            whereClause += " where id.applicationPodName = :appPod";
+        }
+        if(recoveryPodName != null && !recoveryPodName.isEmpty()) {
+            whereClause += whereClause.isEmpty() ? " where " : " and ";
+            whereClause += "id.recoveryPodName = :recPod";
+        }
+        return whereClause;
+    }
+
+    private static void setWhereClauseParameters(Query query, String applicationPodName, String recoveryPodName) {
+        if(applicationPodName != null && !applicationPodName.isEmpty())
+            query.setString("appPod", applicationPodName);
+        if(recoveryPodName != null && !recoveryPodName.isEmpty())
+            query.setString("recPod", recoveryPodName);
+    }
+
+    /**
+     * Running the work with the session connection in the active transaction,
+     * when there is none the own transaction is started and finished.
+     */
+    private <T> T inTransaction(ReturningWork<T> work) {
+        boolean isOwnTransaction = beginIfNotActive();
+        try {
+            T result = session.doReturningWork(work);
+            if(isOwnTransaction) session.getTransaction().commit();
+            return result;
+        } catch (RuntimeException e) {
+            if(isOwnTransaction) rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Running the work with the session connection switched to the auto-commit mode
+     * when there is no active transaction, otherwise in the active transaction.
+     */
+    private <T> T inAutoCommitUnlessTransaction(final ReturningWork<T> work) {
+        final boolean isInTransaction = session.getTransaction().getStatus() == TransactionStatus.ACTIVE;
+        return session.doReturningWork(
+            new ReturningWork<T>() {
+                public T execute(Connection connection) throws SQLException {
+                    boolean autoCommit = connection.getAutoCommit();
+                    if(!isInTransaction && !autoCommit) connection.setAutoCommit(true);
+                    try {
+                        return work.execute(connection);
+                    } finally {
+                        if(connection.getAutoCommit() != autoCommit) connection.setAutoCommit(autoCommit);
+                    }
+                }
+            }
+        );
+    }
+
+    /**
+     * Starting a new transaction when there is none active.
+     *
+     * @return true if the transaction was started and the caller is responsible to finish it
+     */
+    private boolean beginIfNotActive() {
+        if(session.getTransaction().getStatus() == TransactionStatus.ACTIVE) return false;
+        session.getTransaction().begin();
+        return true;
+    }
+
+    /**
+     * Increasing the write counter of the table in the current transaction of the session,
+     * see {@link ApplicationRecoveryPodJdbcDAO#incrementWriteCounter(Connection, MarkerTableDialect)}.
+     * Without the dialect the counter is not known and it's not increased.
+     */
+    private void incrementWriteCounter() {
+        if(dialect == null) return;
+        session.doWork(
+            new Work() {
+                public void execute(Connection connection) throws SQLException {
+                    ApplicationRecoveryPodJdbcDAO.incrementWriteCounter(connection, dialect);
+                }
+            }
+        );
+    }
 }
@@ -0,0 +1,1601 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.APPLICATION_POD_NAME_COLUMN;
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.HEARTBEAT_COLUMN;
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.RECOVERY_POD_NAME_COLUMN;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.types.DatabaseType;
+import org.jboss.openshift.txrecovery.types.ProjectionType;
+
+/**
+ * Data manipulation service working with the {@link ApplicationRecoveryPod} table
+ * through plain JDBC prepared statements. Outside of the transaction started by
+ * {@link #beginTransaction()} the connection works in the auto-commit mode.
+ */
+public class ApplicationRecoveryPodJdbcDAO implements RecoveryMarkerDAO {
+    private static final Logger log = Logger.getLogger(ApplicationRecoveryPodJdbcDAO.class.getName());
+
+    static final long LOCK_POLL_MILLIS = 100;
+
+    /**
+     * Tables which are known to exist in this process, keyed by jdbc url, qualified table name
+     * and the heartbeat column flag.
+     */
+    private static final Set<String> EXISTING_TABLES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Locks serializing the claims in this process when the database can't skip the locked rows,
+     * keyed by qualified table name.
+     */
+    private static final ConcurrentMap<String, Lock> LOCAL_CLAIM_LOCKS = new ConcurrentHashMap<String, Lock>();
+
+    private final Connection connection;
+    private final MarkerTableDialect dialect;
+    private final String tableName;
+
+    public ApplicationRecoveryPodJdbcDAO(Connection connection, String tableName) {
+        this(connection, new MarkerTableDialect(null, null, tableName));
+    }
+
+    public ApplicationRecoveryPodJdbcDAO(Connection connection, MarkerTableDialect dialect) {
+        this.connection = connection;
+        this.dialect = dialect;
+        this.tableName = dialect.getQualifiedTableName();
+    }
+
+    @Override
+    public boolean saveRecord(final String applicationPodName, final String recoveryPodName) {
+        try {
+            inTransaction(() -> {
+                PreparedStatement statement = connection.prepareStatement(dialect.insert());
+                try {
+                    statement.setString(1, applicationPodName);
+                    statement.setString(2, recoveryPodName);
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+                incrementWriteCounter(connection, dialect);
+                return null;
+            });
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            log.log(Level.SEVERE, "Cannot persist record: " + new ApplicationRecoveryPod(applicationPodName, recoveryPodName), sqle);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean saveRecordIfNotExists(final String applicationPodName, final String recoveryPodName) {
+        try {
+            return inTransaction(() -> saveRecordIfNotExists(connection, dialect, applicationPodName, recoveryPodName));
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            throw new IllegalStateException("Cannot persist record: " + new ApplicationRecoveryPod(applicationPodName, recoveryPodName), sqle);
+        }
+    }
+
+    @Override
+    public int delete(final String applicationPodName, final String recoveryPodName) {
+        final String query = "delete from " + tableName + whereClause(applicationPodName, recoveryPodName);
+        log.info("Query to be executed: " + query);
+        try {
+            return inTransaction(() -> {
+                int numberDeleted;
+                PreparedStatement statement = connection.prepareStatement(query);
+                try {
+                    setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                    numberDeleted = statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+                if(numberDeleted > 0) incrementWriteCounter(connection, dialect);
+                return numberDeleted;
+            });
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot delete records from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public int[] saveRecords(final List<ApplicationRecoveryPod> records, final boolean isIfNotExists, final int batchSize) {
+        try {
+            return inTransaction(() -> saveRecords(connection, dialect, records, isIfNotExists, batchSize));
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            throw new IllegalStateException("Cannot persist " + records.size() + " records to table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public int[] deleteRecords(final List<ApplicationRecoveryPod> filters, final int batchSize) {
+        try {
+            return inTransaction(() -> deleteRecords(connection, dialect, filters, batchSize));
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot delete records of " + filters.size() + " filters from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long deleteNotLive(final Collection<String> livePodNames, final ProjectionType scope, final int batchSize,
+            final BiConsumer<String, String> consumer) {
+        try {
+            return inTransaction(() -> deleteNotLive(connection, dialect, livePodNames, scope, batchSize, consumer));
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot delete markers of not live pods from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public int[] touchRecords(final List<ApplicationRecoveryPod> filters, final int batchSize) {
+        try {
+            return inTransaction(() -> touchRecords(connection, dialect, filters, batchSize));
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            throw new IllegalStateException("Cannot touch records of " + filters.size() + " filters in table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long claim(final String applicationPodName, final String oldRecoveryPodName, final String newRecoveryPodName,
+            final int limit, final BiConsumer<String, String> consumer) {
+        Lock localLock = null;
+        try {
+            localLock = localClaimLock(connection, dialect);
+            if(localLock != null) localLock.lock();
+            return inTransaction(() -> claim(connection, dialect, applicationPodName, oldRecoveryPodName, newRecoveryPodName,
+                limit, consumer));
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            throw new IllegalStateException("Cannot claim records of recovery pod " + oldRecoveryPodName + " from table " + tableName, sqle);
+        } finally {
+            if(localLock != null) localLock.unlock();
+        }
+    }
+
+    @Override
+    public long deleteInChunks(String applicationPodName, String recoveryPodName, int chunkSize, long pauseMillis) {
+        try {
+            return deleteInChunks(connection, dialect, applicationPodName, recoveryPodName, null, chunkSize, pauseMillis);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot delete records from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long expire(long ttlSeconds, int chunkSize, long pauseMillis) {
+        try {
+            return expire(connection, dialect, ttlSeconds, chunkSize, pauseMillis);
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            throw new IllegalStateException("Cannot delete expired records from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long reassign(final String applicationPodName, final String oldRecoveryPodName, final String newRecoveryPodName) {
+        try {
+            return inTransaction(() -> reassign(connection, dialect, applicationPodName, oldRecoveryPodName, newRecoveryPodName));
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot reassign records of recovery pod " + oldRecoveryPodName
+                + " to " + newRecoveryPodName + " at table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public boolean lock(String podName, long timeoutSeconds) {
+        try {
+            return lock(connection, dialect, podName, timeoutSeconds);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot acquire lock " + dialect.getLockName(podName), sqle);
+        }
+    }
+
+    @Override
+    public boolean unlock(String podName) {
+        try {
+            return unlock(connection, dialect, podName);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot release lock " + dialect.getLockName(podName), sqle);
+        }
+    }
+
+    @Override
+    public Collection<ApplicationRecoveryPod> getRecords(String applicationPodName, String recoveryPodName) {
+        String query = "select " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN
+            + " from " + tableName + whereClause(applicationPodName, recoveryPodName);
+        List<ApplicationRecoveryPod> records = new ArrayList<ApplicationRecoveryPod>();
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            try {
+                setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                ResultSet rs = statement.executeQuery();
+                while(rs.next()) {
+                    records.add(new ApplicationRecoveryPod(rs.getString(1), rs.getString(2)));
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot select records from table " + tableName, sqle);
+        }
+        return records;
+    }
+
+    @Override
+    public boolean exists(String applicationPodName, String recoveryPodName) {
+        String query = "select 1 from " + tableName + whereClause(applicationPodName, recoveryPodName)
+            + (dialect.getDatabaseType() == null ? "" : " limit 1");
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            try {
+                statement.setMaxRows(1);
+                setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                return statement.executeQuery().next();
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot verify existence of records at table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long count(String applicationPodName, String recoveryPodName) {
+        String query = "select count(*) from " + tableName + whereClause(applicationPodName, recoveryPodName);
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            try {
+                setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                ResultSet rs = statement.executeQuery();
+                rs.next();
+                return rs.getLong(1);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot count records at table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long countGroupedBy(String applicationPodName, String recoveryPodName, ProjectionType groupBy,
+            BiConsumer<String, Long> consumer) {
+        if(groupBy == ProjectionType.PAIRS)
+            throw new IllegalArgumentException("Records can be grouped only by one of the pod names");
+        String column = projectedColumns(groupBy);
+        String query = "select " + column + ", count(*) from " + tableName + whereClause(applicationPodName, recoveryPodName)
+            + " group by " + column;
+        long numberOfGroups = 0;
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            try {
+                setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                ResultSet rs = statement.executeQuery();
+                while(rs.next()) {
+                    consumer.accept(rs.getString(1), rs.getLong(2));
+                    numberOfGroups++;
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot count records at table " + tableName, sqle);
+        }
+        return numberOfGroups;
+    }
+
+    @Override
+    public long streamRecords(String applicationPodName, String recoveryPodName, ProjectionType projection, boolean isDistinct,
+            BiConsumer<String, String> consumer) {
+        try {
+            return streamRecords(connection, dialect, applicationPodName, recoveryPodName, projection, isDistinct, consumer);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot select records from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long exportRecords(final String applicationPodName, final String recoveryPodName, final WritableByteChannel channel) {
+        try {
+            return inTransaction(() -> exportRecords(connection, dialect, applicationPodName, recoveryPodName, channel));
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot export records from table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long importRecords(final ReadableByteChannel channel, final boolean isIfNotExists, final int batchSize) {
+        try {
+            return inTransaction(() -> importRecords(connection, dialect, channel, isIfNotExists, batchSize));
+        } catch (SQLException sqle) {
+            forgetTableOnError(dialect, sqle);
+            throw new IllegalStateException("Cannot import records to table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long watch(long pollIntervalMillis, long durationMillis, MarkerChangeListener listener) {
+        try {
+            return MarkerWatch.watch(connection, dialect, pollIntervalMillis, durationMillis, listener);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot watch changes of table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long getChangeVersion() {
+        try {
+            return getChangeVersion(connection, dialect);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot read change version of table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public long getWriteCounter() {
+        try {
+            return getWriteCounter(connection, dialect);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot read write counter of table " + tableName, sqle);
+        }
+    }
+
+    @Override
+    public boolean createChangeLog() {
+        try {
+            return createChangeLog(connection, dialect);
+        } catch (SQLException sqle) {
+            log.log(Level.SEVERE, "Cannot create change log of table " + tableName, sqle);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tableExists(String tableName) {
+        try {
+            return tableExists(connection, dialect.getSchema(), tableName);
+        } catch (SQLException sqle) {
+            log.log(Level.SEVERE, "Error on searching existence of table " + tableName, sqle);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean createTable() {
+        try {
+            return createTable(connection, dialect);
+        } catch (SQLException sqle) {
+            log.log(Level.SEVERE, "Cannot create table " + tableName, sqle);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean createIndex() {
+        try {
+            return createIndex(connection, dialect);
+        } catch (SQLException sqle) {
+            log.log(Level.SEVERE, "Cannot create indexes " + dialect.getIndexes().keySet() + " on table " + tableName, sqle);
+            return false;
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot begin transaction at " + connection, sqle);
+        }
+    }
+
+    @Override
+    public void commitTransaction() {
+        try {
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot commit transaction at " + connection, sqle);
+        }
+    }
+
+    @Override
+    public void rollbackTransaction() {
+        try {
+            if(connection.getAutoCommit()) return;
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot roll back transaction at " + connection, sqle);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException sqle) {
+            log.log(Level.FINE, "Error on closing connection " + connection, sqle);
+        }
+    }
+
+    /**
+     * <p>
+     * Creating the marker table unless it's already known to exist in this process.
+     * The catalog is queried first, see {@link MarkerTableDialect#selectTableState()}, and the existing table
+     * with its indexes is used without any DDL. Otherwise it's a single <code>create table if not exists</code>
+     * statement which is safe to be run concurrently from several processes. When the statement fails
+     * (the clause is not supported or a concurrent creation was not handled by the database)
+     * the plain <code>create table</code> is tried and its failure is taken as success when the table exists afterwards.
+     * The indexes and the write counter are created right after the creation while the table is still empty.
+     * <p>
+     * The write counter missing at the existing table is created too. The heartbeat column is added to the existing table created without it when the dialect requires it.
+     * The index missing at the existing table is built concurrently when the connection is not in a transaction,
+     * in the transaction it's left to the command 'create_index' not to block the writers.
+     * <p>
+     * The statements are executed in the current transaction of the connection.
+     *
+     * @param connection  connection to the database
+     * @param dialect  dialect of the marker table
+     * @return true if the table exists, false otherwise
+     */
+    static boolean createTable(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        String tableKey = tableKey(connection, dialect);
+        if(EXISTING_TABLES.contains(tableKey)) return true;
+
+        Map<String, Boolean> tableState = selectTableState(connection, dialect);
+        boolean isWriteCounter = tableState != null && tableState.containsKey(dialect.getWriteCounterTableName().toUpperCase());
+        if(tableState != null && tableState.size() > (isWriteCounter ? 1 : 0)) {
+            if(dialect.isHeartbeat() && !tableState.containsKey(HEARTBEAT_COLUMN.toUpperCase())) addHeartbeatColumn(connection, dialect);
+            if(!isWriteCounter) createWriteCounter(connection, dialect);
+            for(String indexName: dialect.getIndexes().keySet()) {
+                if(Boolean.TRUE.equals(tableState.get(indexName.toUpperCase()))) continue;
+                if(connection.getAutoCommit()) {
+                    createIndex(connection, dialect, true);
+                } else {
+                    log.warning("Index " + indexName + " of table " + dialect.getQualifiedTableName()
+                        + " is missing or invalid, run command 'create_index' to build it");
+                }
+                break;
+            }
+            EXISTING_TABLES.add(tableKey);
+            return true;
+        }
+
+        try {
+            executeUpdate(connection, dialect.createTableIfNotExists());
+        } catch (SQLException ifNotExistsSqle) {
+            log.log(Level.FINE, "Cannot run '" + dialect.createTableIfNotExists() + "', trying plain create", ifNotExistsSqle);
+            try {
+                executeUpdate(connection, dialect.createTable());
+            } catch (SQLException createSqle) {
+                if(!tableExists(connection, dialect.getSchema(), dialect.getTableName())) throw createSqle;
+            }
+        }
+        // the catalog state is not known, the table could exist already without the heartbeat column
+        if(tableState == null && dialect.isHeartbeat() && !columnExists(connection, dialect, HEARTBEAT_COLUMN)) {
+            addHeartbeatColumn(connection, dialect);
+        }
+        // not concurrently, the table is new and the failed concurrent build would leave an invalid index behind the insert
+        createIndex(connection, dialect, false);
+        createWriteCounter(connection, dialect);
+        EXISTING_TABLES.add(tableKey);
+        return true;
+    }
+
+    /**
+     * Creating the write counter table with its single row unless they exist, see {@link MarkerTableDialect#getWriteCounterTableName()}.
+     */
+    private static void createWriteCounter(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        try {
+            executeUpdate(connection, dialect.createWriteCounterTableIfNotExists());
+        } catch (SQLException sqle) {
+            if(!tableExists(connection, dialect.getSchema(), dialect.getWriteCounterTableName())) throw sqle;
+        }
+        try {
+            executeUpdate(connection, dialect.insertWriteCounter());
+        } catch (SQLException sqle) {
+            // 23505 unique violation (PostgreSQL, H2), 23000 integrity constraint violation (MySQL)
+            if(!"23505".equals(sqle.getSQLState()) && !"23000".equals(sqle.getSQLState())) throw sqle;
+        }
+    }
+
+    /**
+     * Increasing the write counter of the marker table in the current transaction of the connection,
+     * it's called by every write which changed the markers. The marker table is created first
+     * unless it's known to exist in this process, the creation adds the missing write counter.
+     */
+    static void incrementWriteCounter(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        createTable(connection, dialect);
+        executeUpdate(connection, dialect.incrementWriteCounter());
+    }
+
+    /**
+     * Value of the write counter of the marker table, see {@link RecoveryMarkerDAO#getWriteCounter()}.
+     * Only when the query fails the existence of the write counter table is checked.
+     */
+    static long getWriteCounter(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(dialect.selectWriteCounter());
+            return rs.next() ? rs.getLong(1) : -1;
+        } catch (SQLException sqle) {
+            if(tableExists(connection, dialect.getSchema(), dialect.getWriteCounterTableName())) throw sqle;
+        } finally {
+            statement.close();
+        }
+        return -1;
+    }
+
+    private static void addHeartbeatColumn(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        try {
+            executeUpdate(connection, dialect.addHeartbeatColumn());
+        } catch (SQLException sqle) {
+            if(!columnExists(connection, dialect, HEARTBEAT_COLUMN)) throw sqle;
+        }
+    }
+
+    /**
+     * Reads the state of the marker table from the catalog, see {@link MarkerTableDialect#selectTableState()}.
+     *
+     * @return upper case names of the indexes and of the heartbeat column mapped to their validity,
+     *   empty if the table does not exist, null if the catalog of the database is not known
+     */
+    static Map<String, Boolean> selectTableState(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        String query = dialect.selectTableState();
+        if(query == null) return null;
+        Map<String, Boolean> tableState = new HashMap<String, Boolean>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(query);
+            while(rs.next()) {
+                tableState.merge(rs.getString(1).toUpperCase(), rs.getBoolean(2), Boolean::logicalAnd);
+            }
+        } finally {
+            statement.close();
+        }
+        return tableState;
+    }
+
+    /**
+     * Creating the indexes of the marker table, see {@link MarkerTableDialect#getIndexes()}, unless they already exist.
+     * When the database does not support the <code>if not exists</code> clause for indexes the existence
+     * is verified in the database metadata first. Failure of the creation is taken as success
+     * when the index exists afterwards, i.e. it was created concurrently.
+     * <p>
+     * Outside of a transaction the indexes are built concurrently. The index left invalid by an earlier failed
+     * concurrent build is dropped and built again, the failure of the concurrent build is not taken as success.
+     *
+     * @param connection  connection to the database
+     * @param dialect  dialect of the marker table
+     * @return true if the indexes exist
+     */
+    static boolean createIndex(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        return createIndex(connection, dialect, connection.getAutoCommit());
+    }
+
+    private static boolean createIndex(Connection connection, MarkerTableDialect dialect, boolean isConcurrent) throws SQLException {
+        for(Map.Entry<String, String> index: dialect.getIndexes().entrySet()) {
+            if(isIndexInvalid(connection, dialect, index.getKey())) {
+                if(!isConcurrent) {
+                    log.warning("Index " + index.getKey() + " is invalid after a failed concurrent build, run command 'create_index' to build it again");
+                    continue;
+                }
+                log.warning("Index " + index.getKey() + " is invalid after a failed concurrent build, it's dropped and built again");
+                executeUpdate(connection, dialect.dropIndexConcurrently(index.getKey()));
+            }
+            String ddl = dialect.createIndexIfNotExists(index.getKey(), index.getValue(), isConcurrent);
+            if(ddl == null) {
+                if(indexExists(connection, dialect, index.getKey())) continue;
+                ddl = dialect.createIndex(index.getKey(), index.getValue());
+            }
+            try {
+                executeUpdate(connection, ddl);
+            } catch (SQLException sqle) {
+                if(!indexExists(connection, dialect, index.getKey()) || isIndexInvalid(connection, dialect, index.getKey())) throw sqle;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserting the marker with the dialect specific statement which does nothing when the marker exists.
+     * The duplicate key error of a concurrent insert, which could happen when the database
+     * has no native conflict handling, is taken as the existing marker. The database without the dialect
+     * specific statement runs the plain insert and relies on the duplicate key error only.
+     *
+     * @param connection  connection to the database
+     * @param dialect  dialect of the marker table
+     * @param applicationPodName  app pod name to be saved
+     * @param recoveryPodName  recovery pod name to be saved
+     * @return true if the row was inserted, false if the marker already existed
+     */
+    static boolean saveRecordIfNotExists(Connection connection, MarkerTableDialect dialect,
+            String applicationPodName, String recoveryPodName) throws SQLException {
+        String query = dialect.insertIfNotExists();
+        if(query == null) query = dialect.insert();
+        PreparedStatement statement = connection.prepareStatement(query);
+        try {
+            int numberOfParameters = countParameters(query);
+            for(int index = 1; index <= numberOfParameters; index++) {
+                statement.setString(index, index % 2 == 1 ? applicationPodName : recoveryPodName);
+            }
+            if(statement.executeUpdate() == 0) return false;
+        } catch (SQLException sqle) {
+            // 23505 unique violation (PostgreSQL, H2), 23000 integrity constraint violation (MySQL)
+            if(dialect.getDatabaseType() != DatabaseType.POSTGRESQL
+                    && ("23505".equals(sqle.getSQLState()) || "23000".equals(sqle.getSQLState()))) return false;
+            throw sqle;
+        } finally {
+            statement.close();
+        }
+        incrementWriteCounter(connection, dialect);
+        return true;
+    }
+
+    /**
+     * Inserting the markers with JDBC batches, see {@link RecoveryMarkerDAO#saveRecords(List, boolean, int)}.
+     * The statements are executed in the current transaction of the connection. When the markers
+     * are inserted unless they exist and the dialect has no statement for it they are inserted one by one,
+     * see {@link #saveRecordIfNotExists(Connection, MarkerTableDialect, String, String)}.
+     */
+    static int[] saveRecords(Connection connection, MarkerTableDialect dialect, List<ApplicationRecoveryPod> records,
+            boolean isIfNotExists, int batchSize) throws SQLException {
+        String query = isIfNotExists ? dialect.insertIfNotExists() : dialect.insert();
+        if(query == null) {
+            int[] counts = new int[records.size()];
+            for(int i = 0; i < records.size(); i++) {
+                ApplicationRecoveryPod record = records.get(i);
+                counts[i] = saveRecordIfNotExists(connection, dialect, record.getApplicationPodName(), record.getRecoveryPodName()) ? 1 : 0;
+            }
+            return counts;
+        }
+        int numberOfParameters = countParameters(query);
+        int[] counts = new int[records.size()];
+        PreparedStatement statement = connection.prepareStatement(query);
+        try {
+            for(int from = 0; from < records.size(); from += batchSize) {
+                int to = Math.min(records.size(), from + batchSize);
+                for(int i = from; i < to; i++) {
+                    ApplicationRecoveryPod record = records.get(i);
+                    for(int index = 1; index <= numberOfParameters; index++) {
+                        statement.setString(index, index % 2 == 1 ? record.getApplicationPodName() : record.getRecoveryPodName());
+                    }
+                    statement.addBatch();
+                }
+                System.arraycopy(statement.executeBatch(), 0, counts, from, to - from);
+            }
+        } finally {
+            statement.close();
+        }
+        if(isChanged(counts)) incrementWriteCounter(connection, dialect);
+        return counts;
+    }
+
+    /**
+     * @return true if any of the batch update counts says the row was changed or the count is unknown
+     */
+    private static boolean isChanged(int[] counts) {
+        for(int count: counts) {
+            if(count != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Streaming the selected rows to the consumer, see {@link RecoveryMarkerDAO#streamRecords(String, String, ProjectionType, boolean, BiConsumer)}.
+     * When the driver streams only in a transaction the own read only transaction is used in the auto-commit mode.
+     */
+    static long streamRecords(Connection connection, MarkerTableDialect dialect, String applicationPodName, String recoveryPodName,
+            ProjectionType projection, boolean isDistinct, BiConsumer<String, String> consumer) throws SQLException {
+        String query = "select " + (isDistinct ? "distinct " : "") + projectedColumns(projection)
+            + " from " + dialect.getQualifiedTableName() + whereClause(applicationPodName, recoveryPodName);
+        long numberOfRows = 0;
+        boolean isOwnTransaction = dialect.isStreamingInTransactionOnly() && connection.getAutoCommit();
+        if(isOwnTransaction) connection.setAutoCommit(false);
+        try {
+            PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                statement.setFetchSize(dialect.getStreamingFetchSize());
+                setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                ResultSet rs = statement.executeQuery();
+                while(rs.next()) {
+                    switch(projection) {
+                        case APPLICATION_POD:
+                            consumer.accept(rs.getString(1), null);
+                            break;
+                        case RECOVERY_POD:
+                            consumer.accept(null, rs.getString(1));
+                            break;
+                        default:
+                            consumer.accept(rs.getString(1), rs.getString(2));
+                    }
+                    numberOfRows++;
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            // the read only transaction is finished by returning to the auto-commit mode
+            if(isOwnTransaction) connection.setAutoCommit(true);
+        }
+        return numberOfRows;
+    }
+
+    /**
+     * Version of the last change of the marker table, see {@link RecoveryMarkerDAO#getChangeVersion()}.
+     * Only when the query fails the existence of the change log is checked, the change log is not created here
+     * as the version is read by the read-only probes. When the database keeps the modification counter
+     * of the table it's used instead of the change log.
+     */
+    static long getChangeVersion(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        String tableModification = dialect.selectTableModification();
+        if(tableModification == null && dialect.createChangeLog() == null) return -1;
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(tableModification == null ? dialect.selectLastChangeVersion() : tableModification);
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException sqle) {
+            if(tableExists(connection, dialect.getSchema(), dialect.getChangesTableName())) throw sqle;
+        } finally {
+            statement.close();
+        }
+        return -1;
+    }
+
+    /**
+     * Creating the change log of the marker table and pruning its old changes,
+     * see {@link RecoveryMarkerDAO#createChangeLog()}.
+     */
+    static boolean createChangeLog(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        if(!MarkerWatch.createChangeLog(connection, dialect)) return false;
+        MarkerWatch.pruneChangeLog(connection, dialect);
+        return true;
+    }
+
+    /**
+     * Writing the markers to the csv file, see {@link RecoveryMarkerDAO#exportRecords(String, String, WritableByteChannel)}.
+     * The whole table is copied by the database when it supports the copy, otherwise the rows are streamed
+     * through a cursor.
+     *
+     * @throws UncheckedIOException  when the file can't be written
+     */
+    static long exportRecords(Connection connection, MarkerTableDialect dialect, String applicationPodName, String recoveryPodName,
+            WritableByteChannel channel) throws SQLException {
+        boolean isFiltered = !whereClause(applicationPodName, recoveryPodName).isEmpty();
+        Object copyManager = isFiltered || dialect.copyOut() == null ? null : copyManager(connection);
+        try {
+            if(copyManager != null) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), MarkerCsv.BUFFER_SIZE);
+                long numberOfRows = copy(copyManager, "copyOut", dialect.copyOut(), OutputStream.class, out);
+                out.flush();
+                return numberOfRows;
+            }
+
+            final MarkerCsv.Writer writer = new MarkerCsv.Writer(channel);
+            long numberOfRows = streamRecords(connection, dialect, applicationPodName, recoveryPodName, ProjectionType.PAIRS, false,
+                (applicationPodNameValue, recoveryPodNameValue) -> {
+                    try {
+                        writer.write(applicationPodNameValue, recoveryPodNameValue);
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                });
+            writer.close();
+            return numberOfRows;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * <p>
+     * Loading the markers from the csv file, see {@link RecoveryMarkerDAO#importRecords(ReadableByteChannel, boolean, int)}.
+     * The file is copied by the database when it supports the copy, the upsert copies the file to a temporary table
+     * which is then merged to the marker table. Otherwise the markers are read in chunks of the batch size
+     * and inserted with JDBC batches.
+     * <p>
+     * The statements are executed in the current transaction of the connection.
+     *
+     * @throws UncheckedIOException  when the file can't be read
+     */
+    static long importRecords(Connection connection, MarkerTableDialect dialect, ReadableByteChannel channel,
+            boolean isIfNotExists, int batchSize) throws SQLException {
+        String copyIn = dialect.copyIn(isIfNotExists);
+        Object copyManager = copyIn == null ? null : copyManager(connection);
+        try {
+            if(copyManager != null) {
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel), MarkerCsv.BUFFER_SIZE);
+                long numberImported;
+                if(isIfNotExists) {
+                    executeUpdate(connection, dialect.createImportTable());
+                    copy(copyManager, "copyIn", copyIn, InputStream.class, in);
+                    numberImported = executeUpdate(connection, dialect.insertFromImportTable());
+                } else {
+                    numberImported = copy(copyManager, "copyIn", copyIn, InputStream.class, in);
+                }
+                if(numberImported > 0) incrementWriteCounter(connection, dialect);
+                return numberImported;
+            }
+
+            MarkerCsv.Reader reader = new MarkerCsv.Reader(channel);
+            long numberOfRecords = 0;
+            List<ApplicationRecoveryPod> chunk;
+            while(!(chunk = reader.next(batchSize)).isEmpty()) {
+                for(int count: saveRecords(connection, dialect, chunk, isIfNotExists, batchSize)) {
+                    numberOfRecords += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                }
+            }
+            return numberOfRecords;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Deleting the markers with JDBC batches, see {@link RecoveryMarkerDAO#deleteRecords(List, int)}.
+     * The statements are executed in the current transaction of the connection.
+     */
+    static int[] deleteRecords(Connection connection, MarkerTableDialect dialect, List<ApplicationRecoveryPod> filters,
+            int batchSize) throws SQLException {
+        for(int i = 0; i < filters.size(); i++) {
+            if(whereClause(filters.get(i).getApplicationPodName(), filters.get(i).getRecoveryPodName()).isEmpty())
+                throw new IllegalArgumentException("Delete filter at position " + i + " does not define any pod name");
+        }
+        int[] counts = executeFilteredBatches(connection, "delete from " + dialect.getQualifiedTableName(), filters, batchSize);
+        if(isChanged(counts)) incrementWriteCounter(connection, dialect);
+        return counts;
+    }
+
+    /**
+     * Refreshing the heartbeat of the markers with JDBC batches, see {@link RecoveryMarkerDAO#touchRecords(List, int)}.
+     * The statements are executed in the current transaction of the connection.
+     */
+    static int[] touchRecords(Connection connection, MarkerTableDialect dialect, List<ApplicationRecoveryPod> filters,
+            int batchSize) throws SQLException {
+        if(!dialect.isHeartbeat())
+            throw new IllegalStateException("Table " + dialect.getQualifiedTableName() + " is not defined with the heartbeat column");
+        return executeFilteredBatches(connection, dialect.touch(), filters, batchSize);
+    }
+
+    /**
+     * Executing the statement with the where clause of every filter with JDBC batches.
+     * Filters of the same shape (which pod names are defined) share the statement.
+     *
+     * @return number of the affected rows for every filter
+     */
+    private static int[] executeFilteredBatches(Connection connection, String statementPrefix, List<ApplicationRecoveryPod> filters,
+            int batchSize) throws SQLException {
+        int[] counts = new int[filters.size()];
+        Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+        Map<String, List<Integer>> batchIndexes = new HashMap<String, List<Integer>>();
+        try {
+            for(int from = 0; from < filters.size(); from += batchSize) {
+                int to = Math.min(filters.size(), from + batchSize);
+                for(int i = from; i < to; i++) {
+                    ApplicationRecoveryPod filter = filters.get(i);
+                    String whereClause = whereClause(filter.getApplicationPodName(), filter.getRecoveryPodName());
+                    PreparedStatement statement = statements.get(whereClause);
+                    if(statement == null) {
+                        statement = connection.prepareStatement(statementPrefix + whereClause);
+                        statements.put(whereClause, statement);
+                        batchIndexes.put(whereClause, new ArrayList<Integer>());
+                    }
+                    setWhereClauseParameters(statement, filter.getApplicationPodName(), filter.getRecoveryPodName());
+                    statement.addBatch();
+                    batchIndexes.get(whereClause).add(i);
+                }
+                for(Map.Entry<String, PreparedStatement> statement: statements.entrySet()) {
+                    List<Integer> indexes = batchIndexes.get(statement.getKey());
+                    if(indexes.isEmpty()) continue;
+                    int[] batchCounts = statement.getValue().executeBatch();
+                    for(int i = 0; i < batchCounts.length; i++) counts[indexes.get(i)] = batchCounts[i];
+                    indexes.clear();
+                }
+            }
+        } finally {
+            for(PreparedStatement statement: statements.values()) statement.close();
+        }
+        return counts;
+    }
+
+    /**
+     * <p>
+     * Moving the markers to the other recovery pod, see {@link RecoveryMarkerDAO#reassign(String, String, String)}.
+     * <p>
+     * The single update skips the markers whose application pod already has a marker of the new recovery pod,
+     * the primary key would be violated otherwise. Those remaining markers are deleted afterwards
+     * as the application pod is already marked for the new recovery pod. MySQL does not permit
+     * the subquery on the updated table, the update is joined with the table then.
+     * <p>
+     * The statements are executed in the current transaction of the connection.
+     */
+    static long reassign(Connection connection, MarkerTableDialect dialect, String applicationPodName,
+            String oldRecoveryPodName, String newRecoveryPodName) throws SQLException {
+        String table = dialect.getQualifiedTableName();
+        boolean isApplicationFiltered = applicationPodName != null && !applicationPodName.isEmpty();
+        String update;
+        if(dialect.getDatabaseType() == DatabaseType.MYSQL) {
+            update = "update " + table + " t1 left join " + table + " t2 on t2." + APPLICATION_POD_NAME_COLUMN + " = t1." + APPLICATION_POD_NAME_COLUMN
+                + " and t2." + RECOVERY_POD_NAME_COLUMN + " = ? set t1." + RECOVERY_POD_NAME_COLUMN + " = ? where t1." + RECOVERY_POD_NAME_COLUMN + " = ?"
+                + (isApplicationFiltered ? " and t1." + APPLICATION_POD_NAME_COLUMN + " = ?" : "") + " and t2." + APPLICATION_POD_NAME_COLUMN + " is null";
+        } else {
+            update = "update " + table + " t1 set " + RECOVERY_POD_NAME_COLUMN + " = ? where t1." + RECOVERY_POD_NAME_COLUMN + " = ?"
+                + (isApplicationFiltered ? " and t1." + APPLICATION_POD_NAME_COLUMN + " = ?" : "")
+                + " and not exists (select 1 from " + table + " t2 where t2." + APPLICATION_POD_NAME_COLUMN + " = t1." + APPLICATION_POD_NAME_COLUMN
+                + " and t2." + RECOVERY_POD_NAME_COLUMN + " = ?)";
+        }
+        int numberMoved;
+        PreparedStatement statement = connection.prepareStatement(update);
+        try {
+            int index = 1;
+            statement.setString(index++, newRecoveryPodName);
+            if(dialect.getDatabaseType() == DatabaseType.MYSQL) statement.setString(index++, newRecoveryPodName);
+            statement.setString(index++, oldRecoveryPodName);
+            if(isApplicationFiltered) statement.setString(index++, applicationPodName);
+            if(dialect.getDatabaseType() != DatabaseType.MYSQL) statement.setString(index++, newRecoveryPodName);
+            numberMoved = statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+
+        int numberMerged;
+        PreparedStatement delete = connection.prepareStatement("delete from " + table + whereClause(applicationPodName, oldRecoveryPodName));
+        try {
+            setWhereClauseParameters(delete, applicationPodName, oldRecoveryPodName);
+            numberMerged = delete.executeUpdate();
+            if(numberMerged > 0)
+                log.info("Number [" + numberMerged + "] of records of recovery pod " + oldRecoveryPodName
+                    + " deleted as the application pods are already marked for recovery pod " + newRecoveryPodName);
+        } finally {
+            delete.close();
+        }
+        if(numberMoved > 0 || numberMerged > 0) incrementWriteCounter(connection, dialect);
+        return numberMoved;
+    }
+
+    /**
+     * <p>
+     * Claiming the markers, see {@link RecoveryMarkerDAO#claim(String, String, String, int, BiConsumer)}.
+     * <p>
+     * The markers are selected for update skipping the rows locked by the concurrent claims. Every selected marker
+     * is inserted for the new recovery pod, unless it already exists, and the marker of the old recovery pod is deleted.
+     * Only the markers deleted by this claim are reported. When the database does not support <code>skip locked</code>
+     * the concurrent claims wait for each other, the claims of this process are serialized by
+     * {@link #localClaimLock(Connection, MarkerTableDialect)} which has to be held until the transaction is finished.
+     * <p>
+     * The statements are executed in the current transaction of the connection.
+     */
+    static long claim(Connection connection, MarkerTableDialect dialect, String applicationPodName, String oldRecoveryPodName,
+            String newRecoveryPodName, int limit, BiConsumer<String, String> consumer) throws SQLException {
+        List<ApplicationRecoveryPod> claimed = new ArrayList<ApplicationRecoveryPod>();
+        boolean isSkipLocked = isSkipLockedSupported(connection, dialect);
+        PreparedStatement select = connection.prepareStatement(dialect.selectForClaim(whereClause(applicationPodName, oldRecoveryPodName),
+            isSkipLocked));
+        try {
+            int index = setWhereClauseParameters(select, applicationPodName, oldRecoveryPodName);
+            if(isSkipLocked) select.setInt(index, limit);
+            else select.setMaxRows(limit);
+            ResultSet rs = select.executeQuery();
+            while(rs.next()) claimed.add(new ApplicationRecoveryPod(rs.getString(1), rs.getString(2)));
+        } finally {
+            select.close();
+        }
+        if(claimed.isEmpty()) return 0;
+
+        List<ApplicationRecoveryPod> moved = new ArrayList<ApplicationRecoveryPod>(claimed.size());
+        for(ApplicationRecoveryPod marker: claimed) moved.add(new ApplicationRecoveryPod(marker.getApplicationPodName(), newRecoveryPodName));
+        saveRecords(connection, dialect, moved, true, limit);
+        int[] counts = deleteRecords(connection, dialect, claimed, limit);
+        long numberClaimed = 0;
+        for(int i = 0; i < claimed.size(); i++) {
+            if(counts[i] == 0) continue;
+            consumer.accept(claimed.get(i).getApplicationPodName(), newRecoveryPodName);
+            numberClaimed++;
+        }
+        return numberClaimed;
+    }
+
+    /**
+     * @return lock serializing the claims at the table in this process
+     *   or null if the database skips the rows locked by the concurrent claims
+     */
+    static Lock localClaimLock(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        if(isSkipLockedSupported(connection, dialect)) return null;
+        return LOCAL_CLAIM_LOCKS.computeIfAbsent(dialect.getQualifiedTableName(), table -> new ReentrantLock());
+    }
+
+    /**
+     * Verifies the version of the connected database supports the <code>skip locked</code> clause,
+     * see {@link MarkerTableDialect#isSkipLockedSupported(int, int)}.
+     */
+    static boolean isSkipLockedSupported(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        return dialect.isSkipLockedSupported(metaData.getDatabaseMajorVersion(), metaData.getDatabaseMinorVersion());
+    }
+
+    /**
+     * <p>
+     * Deleting the markers in chunks, see {@link RecoveryMarkerDAO#deleteInChunks(String, String, int, long)}.
+     * When the expiry time is defined only markers with older heartbeat are deleted. Every chunk is a single statement limiting the number of deleted rows, when the database
+     * does not support it the primary keys of the chunk are selected in the key order and deleted with a batch.
+     * <p>
+     * The chunks skipping the locked rows run while they are full. The first chunk which is not full is followed
+     * by the chunks which wait for the locked rows, the delete finishes when such a chunk is not full
+     * and so no row skipped before is left behind.
+     * <p>
+     * In the auto-commit mode every chunk is committed separately together with the increment of the write counter,
+     * otherwise all chunks are part of the current transaction of the connection.
+     */
+    static long deleteInChunks(Connection connection, MarkerTableDialect dialect, String applicationPodName, String recoveryPodName,
+            Timestamp expiredBefore, int chunkSize, long pauseMillis) throws SQLException {
+        String whereClause = whereClause(applicationPodName, recoveryPodName);
+        if(expiredBefore != null) whereClause += (whereClause.isEmpty() ? " where " : " and ") + HEARTBEAT_COLUMN + " < ?";
+        String deleteChunk = dialect.deleteChunk(whereClause, true);
+        boolean isChunkCommitted = connection.getAutoCommit();
+        if(!isChunkCommitted)
+            log.warning("Chunks of the delete from table " + dialect.getQualifiedTableName() + " are part of the running transaction");
+        long numberDeleted = 0;
+        int numberDeletedInChunk;
+        boolean isFinished;
+        if(isChunkCommitted) connection.setAutoCommit(false);
+        try {
+            do {
+                if(deleteChunk != null) {
+                    PreparedStatement statement = connection.prepareStatement(deleteChunk);
+                    try {
+                        int index = setWhereClauseParameters(statement, applicationPodName, recoveryPodName);
+                        if(expiredBefore != null) statement.setTimestamp(index++, expiredBefore);
+                        statement.setInt(index, chunkSize);
+                        numberDeletedInChunk = statement.executeUpdate();
+                    } finally {
+                        statement.close();
+                    }
+                    if(numberDeletedInChunk > 0) incrementWriteCounter(connection, dialect);
+                } else {
+                    List<ApplicationRecoveryPod> chunk = new ArrayList<ApplicationRecoveryPod>();
+                    PreparedStatement select = connection.prepareStatement("select " + APPLICATION_POD_NAME_COLUMN + ", "
+                        + RECOVERY_POD_NAME_COLUMN + " from " + dialect.getQualifiedTableName() + whereClause
+                        + " order by " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN);
+                    try {
+                        select.setMaxRows(chunkSize);
+                        int index = setWhereClauseParameters(select, applicationPodName, recoveryPodName);
+                        if(expiredBefore != null) select.setTimestamp(index, expiredBefore);
+                        ResultSet rs = select.executeQuery();
+                        while(rs.next()) chunk.add(new ApplicationRecoveryPod(rs.getString(1), rs.getString(2)));
+                    } finally {
+                        select.close();
+                    }
+                    numberDeletedInChunk = 0;
+                    for(int count: deleteRecords(connection, dialect, chunk, chunkSize)) {
+                        numberDeletedInChunk += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                    }
+                }
+                if(isChunkCommitted) connection.commit();
+                numberDeleted += numberDeletedInChunk;
+                log.info("Chunk of [" + numberDeletedInChunk + "] records deleted from table " + dialect.getQualifiedTableName()
+                    + ", [" + numberDeleted + "] records deleted in total");
+                isFinished = numberDeletedInChunk < chunkSize;
+                String waitingChunk = deleteChunk == null ? null : dialect.deleteChunk(whereClause, false);
+                if(isFinished && waitingChunk != null && !waitingChunk.equals(deleteChunk)) {
+                    // the rows locked by the concurrent transactions could be skipped, the chunks continue waiting for them
+                    deleteChunk = waitingChunk;
+                    isFinished = false;
+                }
+
+                if(!isFinished && pauseMillis > 0) {
+                    try {
+                        Thread.sleep(pauseMillis);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Chunked delete from table " + dialect.getQualifiedTableName()
+                            + " was interrupted after [" + numberDeleted + "] records deleted", ie);
+                    }
+                }
+            } while(!isFinished);
+        } catch (SQLException | RuntimeException e) {
+            if(isChunkCommitted) connection.rollback();
+            throw e;
+        } finally {
+            if(isChunkCommitted) connection.setAutoCommit(true);
+        }
+        return numberDeleted;
+    }
+
+    /**
+     * Deleting the markers whose heartbeat is older than the time to live, see {@link RecoveryMarkerDAO#expire(long, int, long)}.
+     * The expiry time is counted from the current time of the database, the time of the JVM is used only when the database
+     * time can't be queried.
+     */
+    static long expire(Connection connection, MarkerTableDialect dialect, long ttlSeconds, int chunkSize, long pauseMillis)
+            throws SQLException {
+        if(!dialect.isHeartbeat())
+            throw new IllegalStateException("Table " + dialect.getQualifiedTableName() + " is not defined with the heartbeat column");
+        Timestamp now = null;
+        if(dialect.currentTimestamp() != null) {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(dialect.currentTimestamp());
+                if(rs.next()) now = rs.getTimestamp(1);
+            } finally {
+                statement.close();
+            }
+        }
+        if(now == null) now = new Timestamp(System.currentTimeMillis());
+        Timestamp expiredBefore = new Timestamp(now.getTime() - ttlSeconds * 1000L);
+        return deleteInChunks(connection, dialect, null, null, expiredBefore, chunkSize, pauseMillis);
+    }
+
+    /**
+     * <p>
+     * Deleting the markers of the pods which are not live, see {@link RecoveryMarkerDAO#deleteNotLive(Collection, ProjectionType, int, BiConsumer)}.
+     * <p>
+     * On PostgreSQL it's a single <code>delete ... returning</code> statement with the live pod names bound
+     * as an array. Otherwise the live pod names are loaded with batches to a temporary table, the markers
+     * not joined to it are selected for update and exactly those markers are deleted, so a marker
+     * inserted concurrently is not removed without being reported.
+     * <p>
+     * The statements are executed in the current transaction of the connection.
+     */
+    static long deleteNotLive(Connection connection, MarkerTableDialect dialect, Collection<String> livePodNames,
+            ProjectionType scope, int batchSize, BiConsumer<String, String> consumer) throws SQLException {
+        String table = dialect.getQualifiedTableName();
+        long numberOfRows = 0;
+
+        if(dialect.isArrayAndDeleteReturningSupported()) {
+            String condition;
+            switch(scope) {
+                case APPLICATION_POD:
+                    condition = "not (" + APPLICATION_POD_NAME_COLUMN + " = any(?))";
+                    break;
+                case RECOVERY_POD:
+                    condition = "not (" + RECOVERY_POD_NAME_COLUMN + " = any(?))";
+                    break;
+                default:
+                    condition = "not (" + APPLICATION_POD_NAME_COLUMN + " = any(?)) or not (" + RECOVERY_POD_NAME_COLUMN + " = any(?))";
+            }
+            Array livePods = connection.createArrayOf("varchar", livePodNames.toArray());
+            PreparedStatement statement = connection.prepareStatement("delete from " + table + " where " + condition
+                + " returning " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN);
+            try {
+                statement.setArray(1, livePods);
+                if(scope == ProjectionType.PAIRS) statement.setArray(2, livePods);
+                ResultSet rs = statement.executeQuery();
+                while(rs.next()) {
+                    consumer.accept(rs.getString(1), rs.getString(2));
+                    numberOfRows++;
+                }
+            } finally {
+                statement.close();
+                livePods.free();
+            }
+            if(numberOfRows > 0) incrementWriteCounter(connection, dialect);
+            return numberOfRows;
+        }
+
+        String liveTable = dialect.getLivePodsTableName();
+        executeUpdate(connection, dialect.createLivePodsTableIfNotExists());
+        executeUpdate(connection, "delete from " + liveTable);
+        PreparedStatement insert = connection.prepareStatement("insert into " + liveTable + " (podName) values (?)");
+        try {
+            int batched = 0;
+            for(String podName: new LinkedHashSet<String>(livePodNames)) {
+                insert.setString(1, podName);
+                insert.addBatch();
+                if(++batched % batchSize == 0) insert.executeBatch();
+            }
+            if(batched % batchSize != 0) insert.executeBatch();
+        } finally {
+            insert.close();
+        }
+
+        // MySQL can't refer to the temporary table twice in one statement, the pairs are selected by two statements
+        List<String> conditions = new ArrayList<String>();
+        String applicationNotLive = "not exists (select 1 from " + liveTable + " l where l.podName = t." + APPLICATION_POD_NAME_COLUMN + ")";
+        String recoveryNotLive = "not exists (select 1 from " + liveTable + " l where l.podName = t." + RECOVERY_POD_NAME_COLUMN + ")";
+        if(scope != ProjectionType.RECOVERY_POD) conditions.add(applicationNotLive);
+        if(scope != ProjectionType.APPLICATION_POD) conditions.add(recoveryNotLive);
+        Set<ApplicationRecoveryPod> orphanSet = new LinkedHashSet<ApplicationRecoveryPod>();
+        Statement select = connection.createStatement();
+        try {
+            for(String condition: conditions) {
+                ResultSet rs = select.executeQuery("select " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN
+                    + " from " + table + " t where " + condition + " for update");
+                while(rs.next()) orphanSet.add(new ApplicationRecoveryPod(rs.getString(1), rs.getString(2)));
+            }
+        } finally {
+            select.close();
+        }
+        List<ApplicationRecoveryPod> orphans = new ArrayList<ApplicationRecoveryPod>(orphanSet);
+
+        int[] counts = deleteRecords(connection, dialect, orphans, batchSize);
+        for(int i = 0; i < orphans.size(); i++) {
+            if(counts[i] == 0) continue;
+            consumer.accept(orphans.get(i).getApplicationPodName(), orphans.get(i).getRecoveryPodName());
+            numberOfRows++;
+        }
+        return numberOfRows;
+    }
+
+    /**
+     * <p>
+     * Acquiring the database lock of the pod at the marker table, see {@link RecoveryMarkerDAO#lock(String, long)}.
+     * <p>
+     * PostgreSQL uses the advisory lock and MySQL the named lock, both are held by the database session.
+     * Otherwise the lock is a row of the lock table which is inserted (and committed in the auto-commit mode),
+     * the insert is repeated until the timeout when the row already exists.
+     */
+    static boolean lock(Connection connection, MarkerTableDialect dialect, String podName, long timeoutSeconds) throws SQLException {
+        String lockName = dialect.getLockName(podName);
+        String query = dialect.lock(timeoutSeconds);
+        if(query != null) {
+            PreparedStatement statement = connection.prepareStatement(query);
+            try {
+                if(dialect.getDatabaseType() == DatabaseType.POSTGRESQL && timeoutSeconds > 0) {
+                    statement.setString(1, timeoutSeconds + "s");
+                    statement.setString(2, lockName);
+                } else {
+                    statement.setString(1, lockName);
+                    if(dialect.getDatabaseType() == DatabaseType.MYSQL) statement.setLong(2, timeoutSeconds);
+                }
+                ResultSet rs = statement.executeQuery();
+                return rs.next() && rs.getBoolean(1);
+            } catch (SQLException sqle) {
+                // 55P03 PostgreSQL lock not available, the lock_timeout elapsed
+                if("55P03".equals(sqle.getSQLState())) return false;
+                throw sqle;
+            } finally {
+                statement.close();
+            }
+        }
+
+        try {
+            executeUpdate(connection, dialect.createLockTableIfNotExists());
+        } catch (SQLException sqle) {
+            if(!tableExists(connection, dialect.getSchema(), dialect.getLockTableName())) throw sqle;
+        }
+        long deadline = System.currentTimeMillis() + timeoutSeconds * 1000L;
+        PreparedStatement insert = connection.prepareStatement(dialect.insertLock());
+        try {
+            insert.setString(1, lockName);
+            while(true) {
+                try {
+                    insert.executeUpdate();
+                    return true;
+                } catch (SQLException sqle) {
+                    // 23505 unique violation (H2), 23000 integrity constraint violation
+                    if(!"23505".equals(sqle.getSQLState()) && !"23000".equals(sqle.getSQLState())) throw sqle;
+                }
+                if(System.currentTimeMillis() >= deadline) return false;
+                try {
+                    Thread.sleep(LOCK_POLL_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Waiting for lock " + lockName + " was interrupted", ie);
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Releasing the database lock of the pod at the marker table, see {@link RecoveryMarkerDAO#unlock(String)}.
+     */
+    static boolean unlock(Connection connection, MarkerTableDialect dialect, String podName) throws SQLException {
+        String lockName = dialect.getLockName(podName);
+        if(dialect.unlock() == null) {
+            if(!tableExists(connection, dialect.getSchema(), dialect.getLockTableName())) return false;
+            PreparedStatement delete = connection.prepareStatement(dialect.deleteLock());
+            try {
+                delete.setString(1, lockName);
+                return delete.executeUpdate() > 0;
+            } finally {
+                delete.close();
+            }
+        }
+        PreparedStatement statement = connection.prepareStatement(dialect.unlock());
+        try {
+            statement.setString(1, lockName);
+            ResultSet rs = statement.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Verifies if the index of the marker table exists.
+     */
+    static boolean indexExists(Connection connection, MarkerTableDialect dialect, String indexName) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String schema = dialect.getSchema() == null ? currentSchema(connection) : dialect.getSchema();
+        ResultSet indexes = metaData.getIndexInfo(connection.getCatalog(),
+            toIdentifier(metaData, schema), toIdentifier(metaData, dialect.getTableName()), false, true);
+        try {
+            while(indexes.next()) {
+                if(indexName.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) return true;
+            }
+        } finally {
+            indexes.close();
+        }
+        return false;
+    }
+
+    /**
+     * Verifies if the index of the marker table was left invalid, see {@link MarkerTableDialect#selectInvalidIndex()}.
+     */
+    static boolean isIndexInvalid(Connection connection, MarkerTableDialect dialect, String indexName) throws SQLException {
+        String query = dialect.selectInvalidIndex();
+        if(query == null) return false;
+        PreparedStatement statement = connection.prepareStatement(query);
+        try {
+            statement.setString(1, indexName);
+            return statement.executeQuery().next();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Verifies if the column of the marker table exists.
+     */
+    static boolean columnExists(Connection connection, MarkerTableDialect dialect, String columnName) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String schema = dialect.getSchema() == null ? currentSchema(connection) : dialect.getSchema();
+        ResultSet columns = metaData.getColumns(connection.getCatalog(),
+            toIdentifier(metaData, schema), toIdentifier(metaData, dialect.getTableName()), null);
+        try {
+            while(columns.next()) {
+                if(columnName.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) return true;
+            }
+        } finally {
+            columns.close();
+        }
+        return false;
+    }
+
+    /**
+     * Verifies if table name exists in the database available by the connection.
+     * The search is scoped to the catalog of the connection and to the schema, if it's not defined
+     * then to the current schema of the connection.
+     *
+     * @param connection  connection to the database
+     * @param schema  schema to search the table in, null for the current schema
+     * @param tableName  table name to be found
+     * @return true if found, false otherwise
+     */
+    static boolean tableExists(Connection connection, String schema, String tableName) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        if(schema == null) schema = currentSchema(connection);
+        String escape = metaData.getSearchStringEscape();
+        ResultSet tables = metaData.getTables(connection.getCatalog(),
+            toSearchPattern(metaData, schema, escape), toSearchPattern(metaData, tableName, escape), null);
+        boolean isCaseSensitive = metaData.supportsMixedCaseIdentifiers();
+        try {
+            while(tables.next()) {
+                String currentTableName = tables.getString("TABLE_NAME");
+                if(isCaseSensitive) {
+                    if(currentTableName.equals(tableName)) return true;
+                } else {
+                    if(currentTableName.equalsIgnoreCase(tableName)) return true;
+                }
+            }
+        } finally {
+            if(tables != null) tables.close();
+        }
+        return false;
+    }
+
+    /**
+     * When the error could be caused by the table which does not exist any more
+     * the table is removed from the cache of the existing tables.
+     */
+    static void forgetTableOnError(MarkerTableDialect dialect, Throwable error) {
+        for(Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if(!(cause instanceof SQLException)) continue;
+            String sqlState = ((SQLException) cause).getSQLState();
+            // 42P01 PostgreSQL undefined table, 42S02 MySQL and H2 base table not found
+            if("42P01".equals(sqlState) || "42S02".equals(sqlState)) {
+                String tableKeyPart = "|" + dialect.getQualifiedTableName() + "|";
+                EXISTING_TABLES.removeIf(tableKey -> tableKey.contains(tableKeyPart));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forgetting all tables which are known to exist, e.g. when the tables were dropped.
+     */
+    static void clearExistingTablesCache() {
+        EXISTING_TABLES.clear();
+    }
+
+    /**
+     * The PostgreSQL driver is not a compile time dependency, its copy manager is used by reflection.
+     *
+     * @return copy manager of the connection or null if the driver does not provide it
+     */
+    private static Object copyManager(Connection connection) {
+        try {
+            Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection", true, connection.getClass().getClassLoader());
+            Object pgConnection = connection.unwrap(pgConnectionClass);
+            return pgConnectionClass.getMethod("getCopyAPI").invoke(pgConnection);
+        } catch (ReflectiveOperationException | SQLException e) {
+            log.log(Level.FINE, "Connection " + connection + " does not provide the copy manager, rows are streamed", e);
+            return null;
+        }
+    }
+
+    private static long copy(Object copyManager, String methodName, String sql, Class<?> streamClass, Object stream)
+            throws SQLException, IOException {
+        log.info("Query to be executed: " + sql);
+        try {
+            return (Long) copyManager.getClass().getMethod(methodName, String.class, streamClass).invoke(copyManager, sql, stream);
+        } catch (InvocationTargetException ite) {
+            if(ite.getCause() instanceof SQLException) throw (SQLException) ite.getCause();
+            if(ite.getCause() instanceof IOException) throw (IOException) ite.getCause();
+            throw new IllegalStateException("Cannot run " + sql, ite.getCause());
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalStateException("Cannot run " + sql, roe);
+        }
+    }
+
+    private static String tableKey(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        return connection.getMetaData().getURL() + "|" + dialect.getQualifiedTableName() + "|" + (dialect.isHeartbeat() ? HEARTBEAT_COLUMN : "");
+    }
+
+    private static String currentSchema(Connection connection) {
+        try {
+            return connection.getSchema();
+        } catch (SQLException | AbstractMethodError e) {
+            // driver does not implement jdbc 4.1
+            log.log(Level.FINE, "Cannot get current schema of " + connection, e);
+            return null;
+        }
+    }
+
+    private static String toIdentifier(DatabaseMetaData metaData, String name) throws SQLException {
+        if(name == null) return null;
+        if(metaData.storesUpperCaseIdentifiers()) return name.toUpperCase();
+        if(metaData.storesLowerCaseIdentifiers()) return name.toLowerCase();
+        return name;
+    }
+
+    private static String toSearchPattern(DatabaseMetaData metaData, String name, String escape) throws SQLException {
+        if(name == null) return null;
+        String identifier = toIdentifier(metaData, name);
+        if(escape == null || escape.isEmpty()) return identifier;
+        return identifier.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+
+    private static int countParameters(String query) {
+        return (int) query.chars().filter(c -> c == '?').count();
+    }
+
+    /**
+     * Running the work in the transaction of the connection, when the connection is in the auto-commit mode
+     * the own transaction is started and it's committed, or rolled back on failure, when the work is done.
+     */
+    private <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        boolean isOwnTransaction = connection.getAutoCommit();
+        if(isOwnTransaction) connection.setAutoCommit(false);
+        try {
+            T result = work.execute();
+            if(isOwnTransaction) connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            if(isOwnTransaction) connection.rollback();
+            throw e;
+        } finally {
+            if(isOwnTransaction) connection.setAutoCommit(true);
+        }
+    }
+
+    private interface SqlWork<T> {
+        T execute() throws SQLException;
+    }
+
+    private static int executeUpdate(Connection connection, String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            return statement.executeUpdate(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static String projectedColumns(ProjectionType projection) {
+        switch(projection) {
+            case APPLICATION_POD:
+                return APPLICATION_POD_NAME_COLUMN;
+            case RECOVERY_POD:
+                return RECOVERY_POD_NAME_COLUMN;
+            default:
+                return APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN;
+        }
+    }
+
+    private static String whereClause(String applicationPodName, String recoveryPodName) {
+        String whereClause = "";
+        if(applicationPodName != null && !applicationPodName.isEmpty()) {
+            whereClause += " where " + APPLICATION_POD_NAME_COLUMN + " = ?";
+        }
+        if(recoveryPodName != null && !recoveryPodName.isEmpty()) {
+            whereClause += whereClause.isEmpty() ? " where " : " and ";
+            whereClause += RECOVERY_POD_NAME_COLUMN + " = ?";
+        }
+        return whereClause;
+    }
+
+    /**
+     * @return index of the next parameter of the statement
+     */
+    private static int setWhereClauseParameters(PreparedStatement statement, String applicationPodName, String recoveryPodName)
+            throws SQLException {
+        int index = 1;
+        if(applicationPodName != null && !applicationPodName.isEmpty())
+            statement.setString(index++, applicationPodName);
+        if(recoveryPodName != null && !recoveryPodName.isEmpty())
+            statement.setString(index++, recoveryPodName);
+        return index;
+    }
+}
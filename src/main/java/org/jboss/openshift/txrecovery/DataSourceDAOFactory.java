@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**
+ * Factory of the plain JDBC DAOs working with the connections of the provided {@link DataSource},
+ * e.g. of the connection pool of the application embedding the tool. The data source is owned by the caller,
+ * it's not closed by the factory.
+ */
+public class DataSourceDAOFactory implements RecoveryMarkerDAOFactory {
+    private final DataSource dataSource;
+    private final MarkerTableDialect dialect;
+
+    public DataSourceDAOFactory(DataSource dataSource, MarkerTableDialect dialect) {
+        if(dataSource == null) throw new NullPointerException("dataSource");
+        if(dialect == null) throw new NullPointerException("dialect");
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+    }
+
+    @Override
+    public RecoveryMarkerDAO openDAO() {
+        try {
+            return new ApplicationRecoveryPodJdbcDAO(dataSource.getConnection(), dialect);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot get connection from data source " + dataSource, sqle);
+        }
+    }
+
+    @Override
+    public void close() {
+        // data source is owned by the caller
+    }
+}
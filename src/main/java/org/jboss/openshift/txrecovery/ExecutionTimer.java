@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * Recording duration of the phases of a command execution. The timer is bound to the current thread,
+ * the phases are marked by static method {@link #phase(String)} which does nothing when no timer
+ * was started at the thread.
+ * <p>
+ * Every phase takes time since the end of the previous phase, the time is measured
+ * with the monotonic {@link System#nanoTime()}. A phase marked several times accumulates the duration.
+ */
+final class ExecutionTimer {
+    private static final ThreadLocal<ExecutionTimer> CURRENT = new ThreadLocal<ExecutionTimer>();
+
+    private final long startedAtMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private long lastMarkNanos = startNanos;
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    private Long rows;
+
+    private ExecutionTimer() {
+        // use start()
+    }
+
+    /**
+     * Starting a new timer at the current thread.
+     */
+    static ExecutionTimer start() {
+        ExecutionTimer timer = new ExecutionTimer();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /**
+     * Removing the timer from the current thread.
+     *
+     * @return the removed timer or null if no timer was started
+     */
+    static ExecutionTimer stop() {
+        ExecutionTimer timer = CURRENT.get();
+        CURRENT.remove();
+        return timer;
+    }
+
+    /**
+     * Marking end of the phase at the timer of the current thread.
+     *
+     * @param phaseName  name of the finished phase
+     */
+    static void phase(String phaseName) {
+        ExecutionTimer timer = CURRENT.get();
+        if(timer == null) return;
+        long now = System.nanoTime();
+        Long previous = timer.phaseNanos.get(phaseName);
+        timer.phaseNanos.put(phaseName, (previous == null ? 0 : previous) + now - timer.lastMarkNanos);
+        timer.lastMarkNanos = now;
+    }
+
+    /**
+     * Recording number of rows affected or returned by the command at the timer of the current thread.
+     */
+    static void rows(long numberOfRows) {
+        ExecutionTimer timer = CURRENT.get();
+        if(timer == null) return;
+        timer.rows = (timer.rows == null ? 0 : timer.rows) + numberOfRows;
+    }
+
+    /**
+     * Recording an attribute describing the execution, e.g. the command name.
+     */
+    ExecutionTimer attribute(String name, Object value) {
+        attributes.put(name, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Formatting the recorded data as a single line JSON object.
+     * The durations are in milliseconds, the start is in milliseconds since epoch.
+     */
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"started_at\":").append(startedAtMillis);
+        for(Map.Entry<String, String> attribute: attributes.entrySet()) {
+            sb.append(",\"").append(escape(attribute.getKey())).append("\":\"").append(escape(attribute.getValue())).append('"');
+        }
+        if(rows != null) sb.append(",\"rows\":").append(rows);
+        sb.append(",\"total_ms\":").append(toMillis(lastMarkNanos - startNanos));
+        sb.append(",\"phases_ms\":{");
+        boolean isFirst = true;
+        for(Map.Entry<String, Long> phase: phaseNanos.entrySet()) {
+            if(!isFirst) sb.append(',');
+            sb.append('"').append(escape(phase.getKey())).append("\":").append(toMillis(phase.getValue()));
+            isFirst = false;
+        }
+        return sb.append("}}").toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder();
+        for(char ch: value.toCharArray()) {
+            if(ch == '"' || ch == '\\') sb.append('\\').append(ch);
+            else if(ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+            else sb.append(ch);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.util.Properties;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * Factory of the Hibernate based DAOs. It boots Hibernate once
+ * and then every DAO works with its own session from the shared {@link SessionFactory}.
+ */
+public class HibernateDAOFactory implements RecoveryMarkerDAOFactory {
+    private final StandardServiceRegistry standardRegistry;
+    private final Metadata metadata;
+    private final SessionFactory sessionFactory;
+    private final MarkerTableDialect dialect;
+
+    public HibernateDAOFactory(ParsedArguments parsedArguments) {
+        Properties setupProperties = HibernateSetup.getConfigurationProperties(parsedArguments);
+        this.standardRegistry = HibernateSetup.getStandardRegistry(setupProperties);
+        ExecutionTimer.phase("registry");
+        this.metadata = HibernateSetup.getHibernateStartupMetadata(setupProperties, standardRegistry);
+        ExecutionTimer.phase("metadata");
+        this.sessionFactory = metadata.buildSessionFactory();
+        ExecutionTimer.phase("session_factory");
+        this.dialect = new MarkerTableDialect(parsedArguments.getTypeDb(), parsedArguments.getSchema(),
+            HibernateSetup.getTableName(setupProperties), parsedArguments.isHeartbeat());
+    }
+
+    /**
+     * Working with the session factory of the caller, the session factory is not closed by the factory.
+     *
+     * @param sessionFactory  session factory mapping the {@link ApplicationRecoveryPod} entity
+     * @param dialect  dialect of the marker table used by the bulk operations
+     */
+    public HibernateDAOFactory(SessionFactory sessionFactory, MarkerTableDialect dialect) {
+        this.standardRegistry = null;
+        this.metadata = null;
+        this.sessionFactory = sessionFactory;
+        this.dialect = dialect;
+    }
+
+    @Override
+    public RecoveryMarkerDAO openDAO() {
+        return new ApplicationRecoveryPodDAO(sessionFactory.openSession(), dialect);
+    }
+
+    @Override
+    public void close() {
+        // session factory of the caller
+        if(standardRegistry == null) return;
+        if(!sessionFactory.isClosed()) sessionFactory.close();
+        // https://stackoverflow.com/a/22278250/187035
+        StandardServiceRegistryBuilder.destroy(standardRegistry);
+    }
+}
@@ -56,10 +56,12 @@ public final class HibernateSetup {
 
     public static final String DB_TABLE_NAME_PARAM = "db.table.name";
     public static final String HIBERNATE_DIALECT_PARAM = "hibernate.dialect";
+    public static final String HIBERNATE_DEFAULT_SCHEMA_PARAM = "hibernate.default_schema";
     public static final String HIBERNATE_CONNECTION_DRIVER_CLASS_PARAM = "hibernate.connection.driver_class";
     public static final String HIBERNATE_CONNECTION_URL_PARAM = "hibernate.connection.url";
     public static final String HIBERNATE_CONNECTION_USERNAME_PARAM = "hibernate.connection.username";
     public static final String HIBERNATE_CONNECTION_PASSWORD_PARAM = "hibernate.connection.password";
+    public static final String HIBERNATE_CONNECTION_RELEASE_MODE_PARAM = "hibernate.connection.release_mode";
 
     /**
      * <p>
@@ -83,6 +85,10 @@ public final class HibernateSetup {
         setIfNotNull(HIBERNATE_CONNECTION_USERNAME_PARAM, args.getUser(), outputProperties);
         setIfNotNull(HIBERNATE_CONNECTION_PASSWORD_PARAM, args.getPassword(), outputProperties);
         setIfNotNull(DB_TABLE_NAME_PARAM, args.getTableName(), outputProperties);
+        setIfNotNull(HIBERNATE_DEFAULT_SCHEMA_PARAM, args.getSchema(), outputProperties);
+        // the session keeps its connection, the database locks are held by the connection
+        if(!outputProperties.containsKey(HIBERNATE_CONNECTION_RELEASE_MODE_PARAM))
+            outputProperties.setProperty(HIBERNATE_CONNECTION_RELEASE_MODE_PARAM, "on_close");
         return outputProperties;
     }
 
@@ -99,6 +105,8 @@ public final class HibernateSetup {
         getAndWriteProperty(HIBERNATE_CONNECTION_USERNAME_PARAM, outputProperties);
         getAndWriteProperty(HIBERNATE_CONNECTION_PASSWORD_PARAM, outputProperties);
         getAndWriteProperty(DB_TABLE_NAME_PARAM, outputProperties);
+        getAndWriteProperty(HIBERNATE_DEFAULT_SCHEMA_PARAM, outputProperties);
+        getAndWriteProperty(HIBERNATE_CONNECTION_RELEASE_MODE_PARAM, outputProperties);
         return outputProperties;
     }
 
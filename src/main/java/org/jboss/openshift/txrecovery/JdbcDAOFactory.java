@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * Factory of the plain JDBC DAOs. Every DAO works with its own connection
+ * taken from the {@link DriverManager}, no Hibernate class is loaded.
+ * The pooled factory of the server mode borrows the connections from the {@link MarkerConnectionPool}
+ * unless the pool is disabled by the zero maximal size.
+ */
+public class JdbcDAOFactory implements RecoveryMarkerDAOFactory {
+    private final String jdbcUrl, user, password;
+    private final MarkerTableDialect dialect;
+    private final MarkerConnectionPool pool;
+
+    public JdbcDAOFactory(ParsedArguments parsedArguments) {
+        this(parsedArguments, false);
+    }
+
+    public JdbcDAOFactory(ParsedArguments parsedArguments, boolean isPooled) {
+        this.jdbcUrl = parsedArguments.getJdbcUrl();
+        this.user = parsedArguments.getUser();
+        this.password = parsedArguments.getPassword();
+        this.dialect = new MarkerTableDialect(parsedArguments.getTypeDb(), parsedArguments.getSchema(),
+            parsedArguments.getTableName(), parsedArguments.isHeartbeat());
+
+        String driverClass = parsedArguments.getJdbcDriverClass();
+        try {
+            // driver has to be loaded by the module classloader to be visible for the DriverManager
+            if(driverClass != null && !driverClass.isEmpty()) Class.forName(driverClass);
+        } catch (ClassNotFoundException cnfe) {
+            throw new IllegalStateException("Cannot load jdbc driver class " + driverClass, cnfe);
+        }
+        ExecutionTimer.phase("driver_load");
+
+        this.pool = !isPooled || parsedArguments.getPoolMaxSize() == 0 ? null
+            : new MarkerConnectionPool(this::openConnection, dialect::isSessionLock, parsedArguments.getPoolMinSize(),
+                parsedArguments.getPoolMaxSize(), parsedArguments.getPoolIdleTimeout() * 1000L);
+    }
+
+    @Override
+    public RecoveryMarkerDAO openDAO() {
+        return new ApplicationRecoveryPodJdbcDAO(pool == null ? openConnection() : pool.borrow(), dialect);
+    }
+
+    Connection openConnection() {
+        try {
+            return DriverManager.getConnection(jdbcUrl, user, password);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot connect to database " + jdbcUrl + " as user " + user, sqle);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(pool != null) pool.close();
+    }
+}
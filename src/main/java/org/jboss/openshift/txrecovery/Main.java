@@ -22,23 +22,28 @@
 
 package org.jboss.openshift.txrecovery;
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Statement;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
-import org.hibernate.Session;
-import org.hibernate.SessionFactory;
-import org.hibernate.boot.Metadata;
-import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
-import org.hibernate.service.ServiceRegistry;
 import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
 import org.jboss.openshift.txrecovery.types.CommandType;
-import org.jboss.openshift.txrecovery.types.OutputFormatType;
+import org.jboss.openshift.txrecovery.types.ProjectionType;
 import org.jboss.openshift.txrecovery.cliargs.ArgumentParserException;
 
 /**
@@ -47,8 +52,21 @@ import org.jboss.openshift.txrecovery.cliargs.ArgumentParserException;
 public class Main {
     private static final Logger log = Logger.getLogger(Main.class.getName());
 
+    static final String TIMINGS_TO_STDERR = "-";
+    static final String DATA_FILE_STD_STREAM = "-";
+    /**
+     * Exit code of command 'exists' when no record was found.
+     */
+    static final int EXIT_CODE_NOT_FOUND = 3;
+    /**
+     * Exit code of command 'lock' when the lock was not acquired within the timeout.
+     */
+    static final int EXIT_CODE_NOT_LOCKED = 4;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
 
     public static void main(String[] args) {
+        ExecutionTimer.start();
         ParsedArguments parsedArguments = null;
         try {
             parsedArguments = ParsedArguments.parse(args);
@@ -56,40 +74,139 @@ public class Main {
             log.log(Level.FINE, "Error on parsing arguments: " + Arrays.asList(args), ape);
             System.exit(1);
         }
+        if(parsedArguments.isHelp()) System.exit(2);
+        ExecutionTimer.phase("parse_arguments");
+        if(parsedArguments.getTimings() == null || parsedArguments.isServer() || parsedArguments.getScript() != null)
+            ExecutionTimer.stop();
 
-        // Hibernate setup
-        Properties setupProperties = HibernateSetup.getConfigurationProperties(parsedArguments);
-        final ServiceRegistry standardRegistry = HibernateSetup.getStandardRegistry(setupProperties);
-        Metadata metadata = HibernateSetup.getHibernateStartupMetadata(setupProperties, standardRegistry);
-        SessionFactory sessionFactory = metadata.buildSessionFactory();
-        Session session = sessionFactory.openSession();
-
-        // Gathering table name we use for saving the recovery marker
-        String podTableName = HibernateSetup.getTableName(setupProperties);
+        if(parsedArguments.isServer()) {
+            MarkerServer.start(parsedArguments);
+            return;
+        }
+        if(parsedArguments.getScript() != null) {
+            int exitCode = MarkerScript.run(parsedArguments);
+            if(exitCode != 0) System.exit(exitCode);
+            return;
+        }
+        if(parsedArguments.getServerPort() != null && (parsedArguments.isStandardStreamData()
+                || (parsedArguments.getCommand() == CommandType.WATCH && parsedArguments.getWatchDuration() == 0))) {
+            log.fine("Command reading stdin, writing data to stdout or watching until stopped is not forwarded to the marker server,"
+                + " processing the command locally");
+        } else if(parsedArguments.getServerPort() != null) {
+            Integer exitCode = MarkerServerClient.forward(parsedArguments.getServerPort(), args, System.out, System.err);
+            ExecutionTimer.phase("forward");
+            if(exitCode != null) {
+                writeTimings(parsedArguments, exitCode == 0);
+                if(exitCode != 0) System.exit(exitCode);
+                return;
+            }
+            log.fine("Marker server at port " + parsedArguments.getServerPort() + " is not reachable, processing the command locally");
+        }
 
-        List<String> outputListing = null;
+        boolean isSuccess = false;
+        int exitCode = 0;
         try {
-            outputListing = processDatabaseUpdate(parsedArguments, podTableName, session, metadata);
-        } finally {
-            HibernateSetup.close(sessionFactory, session);
-            // https://stackoverflow.com/a/22278250/187035
-            if(standardRegistry!= null) {
-                StandardServiceRegistryBuilder.destroy(standardRegistry);
+            final MarkerResultCache cache = MarkerResultCache.isCached(parsedArguments) ? new MarkerResultCache(parsedArguments) : null;
+            Appendable stdout = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), OUTPUT_BUFFER_SIZE);
+            OutputPrinter output = new OutputPrinter(cache == null ? stdout : cache.capture(stdout), parsedArguments.getFormat());
+            if(isJournaled(parsedArguments)) {
+                exitCode = appendToJournal(parsedArguments, output);
+                output.finish();
+                ExecutionTimer.phase("output");
+                isSuccess = true;
+                return;
+            }
+            final ParsedArguments commandArguments = parsedArguments;
+            RecoveryMarkerClient client = new RecoveryMarkerClient(parsedArguments, 1);
+            try {
+                exitCode = client.call(dao -> {
+                    ExecutionTimer.phase("connect");
+                    if(cache != null) return cache.process(commandArguments, dao, output);
+                    return processDatabaseUpdate(commandArguments, dao, output);
+                });
+                output.finish();
+                if(cache != null) cache.store(exitCode);
+                ExecutionTimer.phase("output");
+            } catch (RuntimeException e) {
+                output.abort();
+                throw e;
+            } finally {
+                client.close();
+                ExecutionTimer.phase("teardown");
             }
+            isSuccess = true;
+        } finally {
+            writeTimings(parsedArguments, isSuccess);
+        }
+        if(exitCode != 0) System.exit(exitCode);
+    }
+
+    /**
+     * Processing the command with the DAO. The output of the select commands
+     * is streamed to the printer as the records are read from the database.
+     *
+     * @param parsedArguments  arguments of the command
+     * @param dao  DAO the command works with
+     * @param output  where the output is printed to, the caller finishes the output line
+     * @return exit code of the command, zero unless the command signals its result by the exit code
+     */
+    static int processDatabaseUpdate(ParsedArguments parsedArguments, RecoveryMarkerDAO dao, OutputPrinter output) {
+        CommandType command = parsedArguments.getCommand();
+        if(isJournaled(parsedArguments)) return appendToJournal(parsedArguments, output);
+        if(parsedArguments.getJournal() != null && command != CommandType.REPLAY) {
+            replayJournal(parsedArguments, dao);
+            ExecutionTimer.phase("replay");
         }
+        if(!parsedArguments.isWithLock() || command == CommandType.LOCK || command == CommandType.UNLOCK)
+            return processCommand(parsedArguments, dao, output);
 
-        printToStandardOutput(outputListing, parsedArguments.getFormat());
+        String podName = parsedArguments.getLockPodName();
+        if(!dao.lock(podName, parsedArguments.getLockTimeout()))
+            throw new IllegalStateException("Cannot acquire lock of table " + parsedArguments.getTableName() + " and pod " + podName
+                + " within " + parsedArguments.getLockTimeout() + " seconds");
+        ExecutionTimer.phase("lock");
+        try {
+            return processCommand(parsedArguments, dao, output);
+        } finally {
+            dao.unlock(podName);
+        }
     }
 
-    private static List<String> processDatabaseUpdate(ParsedArguments parsedArguments, String tableName, Session session, Metadata metadata) {
-        List<String> outputListing = new ArrayList<String>();
-        ApplicationRecoveryPodDAO dtoService = new ApplicationRecoveryPodDAO(session);
+    private static int processCommand(ParsedArguments parsedArguments, RecoveryMarkerDAO dao, OutputPrinter output) {
+        String tableName = parsedArguments.getTableName();
+        int exitCode = 0;
 
         switch(parsedArguments.getCommand()) {
             case CREATE:
-                if(!dtoService.tableExists(tableName)) HibernateSetup.createTable(metadata);
+                if(!dao.createTable())
+                    throw new IllegalStateException("Cannot create table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                ExecutionTimer.phase("create_table");
+                break;
+            case CREATE_INDEX:
+                if(!dao.createIndex())
+                    throw new IllegalStateException("Cannot create index on table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                ExecutionTimer.phase("create_index");
+                break;
+            case CREATE_CHANGE_LOG:
+                if(!dao.createTable())
+                    throw new IllegalStateException("Cannot create table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                ExecutionTimer.phase("create_table");
+                if(!dao.createChangeLog())
+                    throw new IllegalStateException("Cannot create change log of table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                ExecutionTimer.phase("create_change_log");
                 break;
             case INSERT:
+                if(MarkerSource.isBulk(parsedArguments)) {
+                    List<ApplicationRecoveryPod> markers = readMarkers(parsedArguments);
+                    requirePodNames(parsedArguments, markers);
+                    if(!dao.createTable())
+                        throw new IllegalStateException("Cannot create table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                    ExecutionTimer.phase("create_table");
+                    int[] numbersInserted = dao.saveRecords(markers, parsedArguments.isUpsert(), parsedArguments.getBatchSize());
+                    ExecutionTimer.phase("query");
+                    printOutcomes(markers, numbersInserted, output);
+                    break;
+                }
                 String appPod = parsedArguments.getApplicationPodName();
                 String recPod = parsedArguments.getRecoveryPodName();
                 if(appPod == null || appPod.isEmpty())
@@ -99,51 +216,353 @@ public class Main {
                     throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
                             + "' recovery pod name has to be specified. Use cli argument '-r/--recovery_pod_name'");
 
-                if(!dtoService.tableExists(tableName)) HibernateSetup.createTable(metadata);
-                if(!dtoService.saveRecord(appPod, recPod)) {
+                if(!dao.createTable())
+                    throw new IllegalStateException("Cannot create table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                ExecutionTimer.phase("create_table");
+                if(parsedArguments.isUpsert()) {
+                    boolean isInserted = dao.saveRecordIfNotExists(appPod, recPod);
+                    ExecutionTimer.phase("query");
+                    ExecutionTimer.rows(isInserted ? 1 : 0);
+                    output.print(isInserted ? "1" : "0");
+                    break;
+                }
+                boolean isSaved = dao.saveRecord(appPod, recPod);
+                ExecutionTimer.phase("query");
+                if(!isSaved) {
                     throw new IllegalStateException("Error on saving data [" + appPod +"," + recPod + "] to db "
                         + parsedArguments.getJdbcUrl() + " and table " + parsedArguments.getTableName());
                 }
+                ExecutionTimer.rows(1);
                 break;
             case DELETE:
+                if(MarkerSource.isBulk(parsedArguments)) {
+                    List<ApplicationRecoveryPod> filters = readMarkers(parsedArguments);
+                    int[] numbersDeleted = dao.deleteRecords(filters, parsedArguments.getBatchSize());
+                    ExecutionTimer.phase("query");
+                    printOutcomes(filters, numbersDeleted, output);
+                    log.info("Records of [" + filters.size() + "] filters deleted");
+                    break;
+                }
                 appPod = parsedArguments.getApplicationPodName();
                 recPod = parsedArguments.getRecoveryPodName();
-                int numberDeleted = dtoService.delete(appPod, recPod);
+                long numberDeleted = parsedArguments.getChunkSize() == null
+                    ? dao.delete(appPod, recPod)
+                    : dao.deleteInChunks(appPod, recPod, parsedArguments.getChunkSize(), parsedArguments.getChunkPause());
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberDeleted);
                 log.info("Number ["  + numberDeleted + "] of records deleted while filtered at [application pod: "
                     + appPod + ", recovery pod: " + recPod + "]");
                 break;
+            case SYNC:
+                Set<String> livePodNames;
+                try {
+                    livePodNames = MarkerSource.readPodNames(parsedArguments);
+                } catch (IOException ioe) {
+                    throw new IllegalStateException("Cannot read live pod names", ioe);
+                }
+                if(livePodNames.isEmpty())
+                    throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                        + "' at least one live pod name has to be provided, refusing to delete all the markers");
+                long numberSynced = dao.deleteNotLive(livePodNames, parsedArguments.getSyncBy(), parsedArguments.getBatchSize(), output::print);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberSynced);
+                log.info("Number [" + numberSynced + "] of records of not live pods deleted, number of live pods ["
+                    + livePodNames.size() + "]");
+                break;
+            case TOUCH:
+                if(MarkerSource.isBulk(parsedArguments)) {
+                    List<ApplicationRecoveryPod> filters = readMarkers(parsedArguments);
+                    int[] numbersTouched = dao.touchRecords(filters, parsedArguments.getBatchSize());
+                    ExecutionTimer.phase("query");
+                    printOutcomes(filters, numbersTouched, output);
+                    break;
+                }
+                int numberTouched = dao.touchRecords(Collections.singletonList(new ApplicationRecoveryPod(
+                    parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName())), parsedArguments.getBatchSize())[0];
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberTouched);
+                output.print(String.valueOf(numberTouched));
+                break;
+            case EXPIRE:
+                if(parsedArguments.getTtl() == null)
+                    throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                        + "' time to live has to be specified. Use cli argument '-tl/--ttl'");
+                long numberExpired = dao.expire(parsedArguments.getTtl(), parsedArguments.getChunkSize() == null
+                    ? parsedArguments.getBatchSize() : parsedArguments.getChunkSize(), parsedArguments.getChunkPause());
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberExpired);
+                output.print(String.valueOf(numberExpired));
+                log.info("Number [" + numberExpired + "] of records expired with time to live " + parsedArguments.getTtl() + " seconds");
+                break;
             case SELECT_APPLICATION:
             case SELECT_RECOVERY:
+            case SELECT_PAIRS:
                 appPod = parsedArguments.getApplicationPodName();
                 recPod = parsedArguments.getRecoveryPodName();
-                Collection<ApplicationRecoveryPod> dtos = dtoService.getRecords(appPod, recPod);
-                for(ApplicationRecoveryPod dto: dtos) {
-                    if(parsedArguments.getCommand() == CommandType.SELECT_APPLICATION)
-                        outputListing.add(dto.getApplicationPodName());
-                    if(parsedArguments.getCommand() == CommandType.SELECT_RECOVERY)
-                        outputListing.add(dto.getRecoveryPodName());
-                }
+                ProjectionType projection = ProjectionType.PAIRS;
+                if(parsedArguments.getCommand() == CommandType.SELECT_APPLICATION) projection = ProjectionType.APPLICATION_POD;
+                if(parsedArguments.getCommand() == CommandType.SELECT_RECOVERY) projection = ProjectionType.RECOVERY_POD;
+                long numberOfRecords = dao.streamRecords(appPod, recPod, projection, parsedArguments.isDistinct(), output::print);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberOfRecords);
+                break;
+            case REASSIGN:
+                recPod = parsedArguments.getRecoveryPodName();
+                String newRecPod = parsedArguments.getNewRecoveryPodName();
+                if(recPod == null || recPod.isEmpty() || newRecPod == null || newRecPod.isEmpty())
+                    throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                        + "' recovery pod name and the new recovery pod name have to be specified."
+                        + " Use cli arguments '-r/--recovery_pod_name' and '-nr/--new_recovery_pod_name'");
+                if(recPod.equals(newRecPod))
+                    throw new IllegalArgumentException("The new recovery pod name has to differ from '" + recPod + "'");
+                long numberMoved = dao.reassign(parsedArguments.getApplicationPodName(), recPod, newRecPod);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberMoved);
+                output.print(String.valueOf(numberMoved));
+                log.info("Number [" + numberMoved + "] of records moved from recovery pod " + recPod + " to " + newRecPod);
+                break;
+            case CLAIM:
+                recPod = parsedArguments.getRecoveryPodName();
+                newRecPod = parsedArguments.getNewRecoveryPodName();
+                if(recPod == null || recPod.isEmpty() || newRecPod == null || newRecPod.isEmpty())
+                    throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                        + "' recovery pod name to claim from and the claiming recovery pod name have to be specified."
+                        + " Use cli arguments '-r/--recovery_pod_name' and '-nr/--new_recovery_pod_name'");
+                if(recPod.equals(newRecPod))
+                    throw new IllegalArgumentException("The claiming recovery pod name has to differ from '" + recPod + "'");
+                long numberClaimed = dao.claim(parsedArguments.getApplicationPodName(), recPod, newRecPod,
+                    parsedArguments.getChunkSize() == null ? parsedArguments.getBatchSize() : parsedArguments.getChunkSize(),
+                    output::print);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberClaimed);
+                log.info("Number [" + numberClaimed + "] of records of recovery pod " + recPod + " claimed by " + newRecPod);
+                break;
+            case LOCK:
+                boolean isLocked = dao.lock(parsedArguments.getLockPodName(), parsedArguments.getLockTimeout());
+                ExecutionTimer.phase("lock");
+                output.print(String.valueOf(isLocked));
+                if(!isLocked) exitCode = EXIT_CODE_NOT_LOCKED;
+                break;
+            case UNLOCK:
+                boolean isUnlocked = dao.unlock(parsedArguments.getLockPodName());
+                ExecutionTimer.phase("unlock");
+                output.print(String.valueOf(isUnlocked));
+                if(!isUnlocked) log.warning("Lock of table " + tableName + " and pod " + parsedArguments.getLockPodName() + " was not held");
+                break;
+            case WATCH:
+                long numberOfChanges = dao.watch(parsedArguments.getPollInterval(), parsedArguments.getWatchDuration() * 1000L,
+                    new RecoveryMarkerDAO.MarkerChangeListener() {
+                        public void onChange(String applicationPodName, String recoveryPodName, boolean isAdded) {
+                            output.printChange(applicationPodName, recoveryPodName, isAdded);
+                        }
+                        public void onPollFinished() {
+                            output.nextLine();
+                        }
+                    });
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberOfChanges);
+                break;
+            case REPLAY:
+                long numberReplayed = replayJournal(parsedArguments, dao);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberReplayed);
+                output.print(String.valueOf(numberReplayed));
+                break;
+            case EXPORT:
+                long numberExported = exportRecords(parsedArguments, dao);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberExported);
+                if(!DATA_FILE_STD_STREAM.equals(parsedArguments.getDataFile())) output.print(String.valueOf(numberExported));
+                break;
+            case IMPORT:
+                if(!dao.createTable())
+                    throw new IllegalStateException("Cannot create table " + tableName + " at db " + parsedArguments.getJdbcUrl());
+                ExecutionTimer.phase("create_table");
+                long numberImported = importRecords(parsedArguments, dao);
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberImported);
+                output.print(String.valueOf(numberImported));
+                break;
+            case EXISTS:
+                boolean isExisting = dao.exists(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName());
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(isExisting ? 1 : 0);
+                output.print(String.valueOf(isExisting));
+                if(!isExisting) exitCode = EXIT_CODE_NOT_FOUND;
+                break;
+            case COUNT:
+                long numberCounted = dao.count(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName());
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(1);
+                output.print(String.valueOf(numberCounted));
+                break;
+            case COUNT_BY_RECOVERY:
+                long numberOfGroups = dao.countGroupedBy(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName(),
+                    ProjectionType.RECOVERY_POD, (recoveryPodName, count) -> output.print(null, recoveryPodName, count));
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberOfGroups);
+                break;
+            case COUNT_BY_APPLICATION:
+                numberOfGroups = dao.countGroupedBy(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName(),
+                    ProjectionType.APPLICATION_POD, (applicationPodName, count) -> output.print(applicationPodName, null, count));
+                ExecutionTimer.phase("query");
+                ExecutionTimer.rows(numberOfGroups);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown handler for command '" + parsedArguments.getCommand() + "'");
         }
 
-        return outputListing;
+        return exitCode;
     }
 
-    private static void printToStandardOutput(List<String> dataToPrint, OutputFormatType printingFormat) {
-        switch(printingFormat) {
-            case LIST_COMMA:
-                System.out.println(
-                    dataToPrint.stream().collect(Collectors.joining(", ")));
-                break;
-            case RAW:
-                System.out.println(dataToPrint);
-                break;
-            case LIST_SPACE:
-            default:
-                System.out.println(
-                    dataToPrint.stream().collect(Collectors.joining(" ")));
+    private static List<ApplicationRecoveryPod> readMarkers(ParsedArguments parsedArguments) {
+        try {
+            return MarkerSource.read(parsedArguments);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot read markers from file " + parsedArguments.getMarkersFile(), ioe);
+        }
+    }
+
+    /**
+     * @return true if the command appends the markers to the journal instead of inserting them to the database
+     */
+    static boolean isJournaled(ParsedArguments parsedArguments) {
+        return parsedArguments.getJournal() != null && parsedArguments.getCommand() == CommandType.INSERT;
+    }
+
+    /**
+     * Appending the markers of command 'insert' to the journal, the database is not touched.
+     * The bulk insert does not know if the markers exist before the replay,
+     * the outcome is printed as {@link Statement#SUCCESS_NO_INFO}.
+     *
+     * @return exit code of the command
+     */
+    static int appendToJournal(ParsedArguments parsedArguments, OutputPrinter output) {
+        boolean isBulk = MarkerSource.isBulk(parsedArguments);
+        List<ApplicationRecoveryPod> markers = isBulk ? readMarkers(parsedArguments)
+            : Collections.singletonList(new ApplicationRecoveryPod(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName()));
+        requirePodNames(parsedArguments, markers);
+        try {
+            MarkerJournal.append(Paths.get(parsedArguments.getJournal()), markers);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot append markers to journal " + parsedArguments.getJournal(), ioe);
+        }
+        ExecutionTimer.phase("journal");
+        if(isBulk) {
+            int[] outcomes = new int[markers.size()];
+            Arrays.fill(outcomes, Statement.SUCCESS_NO_INFO);
+            printOutcomes(markers, outcomes, output);
+        }
+        ExecutionTimer.rows(markers.size());
+        return 0;
+    }
+
+    /**
+     * Inserting the journaled markers to the table, the existing markers are skipped.
+     *
+     * @return number of the replayed markers
+     */
+    static long replayJournal(ParsedArguments parsedArguments, RecoveryMarkerDAO dao) {
+        if(parsedArguments.getJournal() == null)
+            throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                + "' journal has to be specified. Use cli argument '-jn/--journal'");
+        final int batchSize = parsedArguments.getBatchSize();
+        try {
+            return MarkerJournal.replay(Paths.get(parsedArguments.getJournal()), batchSize, markers -> {
+                if(!dao.createTable())
+                    throw new IllegalStateException("Cannot create table " + parsedArguments.getTableName() + " at db "
+                        + parsedArguments.getJdbcUrl());
+                dao.saveRecords(markers, true, batchSize);
+            });
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot replay journal " + parsedArguments.getJournal(), ioe);
+        }
+    }
+
+    private static void requirePodNames(ParsedArguments parsedArguments, List<ApplicationRecoveryPod> markers) {
+        for(ApplicationRecoveryPod marker: markers) {
+            if(marker.getApplicationPodName() == null || marker.getApplicationPodName().isEmpty()
+                    || marker.getRecoveryPodName() == null || marker.getRecoveryPodName().isEmpty())
+                throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                    + "' both application and recovery pod names have to be specified but marker is [" + marker + "]");
+        }
+    }
+
+    /**
+     * Exporting the markers to the data file, the standard output is used when the path is '-'.
+     */
+    private static long exportRecords(ParsedArguments parsedArguments, RecoveryMarkerDAO dao) {
+        String dataFile = requireDataFile(parsedArguments);
+        if(DATA_FILE_STD_STREAM.equals(dataFile)) {
+            long numberExported = dao.exportRecords(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName(),
+                Channels.newChannel(System.out));
+            System.out.flush();
+            return numberExported;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(dataFile),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return dao.exportRecords(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName(), channel);
+        } catch (IOException | UncheckedIOException ioe) {
+            throw new IllegalStateException("Cannot write markers to file " + dataFile, ioe);
+        }
+    }
+
+    /**
+     * Importing the markers from the data file, the standard input is used when the path is '-'.
+     */
+    private static long importRecords(ParsedArguments parsedArguments, RecoveryMarkerDAO dao) {
+        String dataFile = requireDataFile(parsedArguments);
+        if(DATA_FILE_STD_STREAM.equals(dataFile))
+            return dao.importRecords(Channels.newChannel(System.in), parsedArguments.isUpsert(), parsedArguments.getBatchSize());
+        try (FileChannel channel = FileChannel.open(Paths.get(dataFile), StandardOpenOption.READ)) {
+            return dao.importRecords(channel, parsedArguments.isUpsert(), parsedArguments.getBatchSize());
+        } catch (IOException | UncheckedIOException ioe) {
+            throw new IllegalStateException("Cannot read markers from file " + dataFile, ioe);
+        }
+    }
+
+    private static String requireDataFile(ParsedArguments parsedArguments) {
+        String dataFile = parsedArguments.getDataFile();
+        if(dataFile == null || dataFile.isEmpty())
+            throw new IllegalArgumentException("For command '" + parsedArguments.getCommand().name()
+                + "' data file has to be specified. Use cli argument '-df/--data_file'");
+        return dataFile;
+    }
+
+    /**
+     * Printing the outcome of the bulk command for every marker and counting the affected rows.
+     */
+    private static void printOutcomes(List<ApplicationRecoveryPod> markers, int[] outcomes, OutputPrinter output) {
+        long numberOfRows = 0;
+        for(int i = 0; i < markers.size(); i++) {
+            output.print(markers.get(i).getApplicationPodName(), markers.get(i).getRecoveryPodName(), outcomes[i]);
+            if(outcomes[i] > 0) numberOfRows += outcomes[i];
+        }
+        ExecutionTimer.rows(numberOfRows);
+    }
+
+    /**
+     * Writing the timings recorded for the current thread as a single JSON line
+     * to the standard error output or appending it to a file.
+     */
+    private static void writeTimings(ParsedArguments parsedArguments, boolean isSuccess) {
+        ExecutionTimer timer = ExecutionTimer.stop();
+        if(timer == null) return;
+
+        String json = timer
+            .attribute("command", parsedArguments.getCommand())
+            .attribute("engine", parsedArguments.getEngine())
+            .attribute("success", isSuccess)
+            .toJson();
+        if(TIMINGS_TO_STDERR.equals(parsedArguments.getTimings())) {
+            System.err.println(json);
+            return;
+        }
+        try {
+            Files.write(Paths.get(parsedArguments.getTimings()), (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "Cannot write timings to file " + parsedArguments.getTimings(), ioe);
         }
     }
 
@@ -0,0 +1,486 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Small pool of the jdbc connections for the long-running server. The borrowed connection is a proxy
+ * which returns the physical connection to the pool when it's closed. The connection is validated on borrow
+ * when it was idle longer than {@link #VALIDATION_INTERVAL_MILLIS}, the connections idle longer than the idle timeout
+ * are closed down to the minimal size of the pool. The eviction runs on borrow, on release and periodically
+ * by the evictor thread, so the idle connections are closed even when the server gets no more requests.
+ * <p>
+ * Every physical connection caches the statements prepared by {@link Connection#prepareStatement(String)},
+ * closing of the statement returns it to the cache. The settings of the statement (max rows, fetch size, query timeout...)
+ * are restored when it's returned, the statement whose setting can't be restored is closed. The steady-state cost of a DAO operation
+ * is then the execution of the prepared statement at a warm connection.
+ * <p>
+ * The connection which acquired a session level lock (see {@link MarkerTableDialect#isSessionLock(String)})
+ * is closed instead of being returned to the pool, the lock is released as it was without the pool.
+ */
+final class MarkerConnectionPool implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(MarkerConnectionPool.class.getName());
+
+    static final long VALIDATION_INTERVAL_MILLIS = 1000;
+    static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    static final long BORROW_TIMEOUT_MILLIS = 30000;
+    static final int STATEMENT_CACHE_SIZE = 64;
+    static final long MIN_EVICTION_INTERVAL_MILLIS = 1000;
+
+    private final Supplier<Connection> connectionFactory;
+    private final Predicate<String> isSessionLock;
+    private final int minSize, maxSize;
+    private final long idleTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    private final ScheduledExecutorService evictor;
+    private int size;
+    private boolean isClosed;
+
+    /**
+     * @param connectionFactory  opening the physical connections
+     * @param isSessionLock  true for the statement acquiring the session level lock
+     * @param minSize  number of connections opened at the start and kept open when idle
+     * @param maxSize  maximal number of the connections, the borrow waits when all of them are in use
+     * @param idleTimeoutMillis  time after which the idle connection above the minimal size is closed
+     */
+    MarkerConnectionPool(Supplier<Connection> connectionFactory, Predicate<String> isSessionLock, int minSize, int maxSize,
+            long idleTimeoutMillis) {
+        if(minSize < 0 || maxSize < 1 || minSize > maxSize)
+            throw new IllegalArgumentException("Pool size has to be 0 <= min <= max and max > 0 but it's min "
+                + minSize + " and max " + maxSize);
+        this.connectionFactory = connectionFactory;
+        this.isSessionLock = isSessionLock;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        for(int i = 0; i < minSize; i++) {
+            idle.push(new PooledConnection(connectionFactory.get()));
+            size++;
+        }
+        if(minSize == maxSize) {
+            this.evictor = null;
+        } else {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "marker-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long evictionIntervalMillis = Math.max(idleTimeoutMillis / 2, MIN_EVICTION_INTERVAL_MILLIS);
+            evictor.scheduleWithFixedDelay(this::evictIdle, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrowing a connection, it's returned to the pool when it's closed.
+     *
+     * @return connection in the auto-commit mode
+     * @throws IllegalStateException  when no connection is released within {@link #BORROW_TIMEOUT_MILLIS}
+     */
+    Connection borrow() {
+        PooledConnection pooled = null;
+        while(pooled == null) {
+            pooled = takeIdle();
+            if(pooled == null) {
+                try {
+                    pooled = new PooledConnection(connectionFactory.get());
+                } catch (RuntimeException e) {
+                    discard();
+                    throw e;
+                }
+            } else if(System.currentTimeMillis() - pooled.lastUsed > VALIDATION_INTERVAL_MILLIS && !pooled.isValid()) {
+                log.fine("Connection " + pooled.connection + " is not valid, it's discarded");
+                pooled.closePhysically();
+                discard();
+                pooled = null;
+            }
+        }
+        return pooled.lease();
+    }
+
+    /**
+     * @return number of the open connections
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if(evictor != null) evictor.shutdownNow();
+        lock.lock();
+        try {
+            isClosed = true;
+            for(PooledConnection pooled: idle) {
+                pooled.closePhysically();
+                size--;
+            }
+            idle.clear();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Taking the most recently used idle connection or reserving the place for a new one.
+     *
+     * @return idle connection or null if a new connection has to be opened
+     */
+    private PooledConnection takeIdle() {
+        lock.lock();
+        try {
+            long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MILLIS;
+            evictIdle(System.currentTimeMillis());
+            while(true) {
+                if(isClosed) throw new IllegalStateException("Connection pool is closed");
+                if(!idle.isEmpty()) return idle.pop();
+                if(size < maxSize) {
+                    size++;
+                    return null;
+                }
+                long waitMillis = deadline - System.currentTimeMillis();
+                if(waitMillis <= 0)
+                    throw new IllegalStateException("No connection of the pool of size " + maxSize + " was released within "
+                        + BORROW_TIMEOUT_MILLIS + " ms");
+                released.await(waitMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a connection of the pool", ie);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean isReusable) {
+        if(!isReusable) {
+            pooled.closePhysically();
+            discard();
+            return;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if(isClosed) {
+                pooled.closePhysically();
+                size--;
+                return;
+            }
+            idle.push(pooled);
+            evictIdle(pooled.lastUsed);
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Periodic eviction of the idle connections by the evictor thread.
+     */
+    private void evictIdle() {
+        lock.lock();
+        try {
+            if(!isClosed) evictIdle(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Eviction of the idle connections failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closing the connections idle longer than the idle timeout, the least recently used are at the tail.
+     * It's called with the lock held.
+     */
+    private void evictIdle(long now) {
+        Iterator<PooledConnection> leastRecentlyUsed = idle.descendingIterator();
+        while(size > minSize && leastRecentlyUsed.hasNext()) {
+            PooledConnection pooled = leastRecentlyUsed.next();
+            if(now - pooled.lastUsed <= idleTimeoutMillis) break;
+            leastRecentlyUsed.remove();
+            pooled.closePhysically();
+            size--;
+        }
+    }
+
+    /**
+     * Releasing place of the connection which was closed or which could not be opened.
+     */
+    private void discard() {
+        lock.lock();
+        try {
+            size--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Physical connection with its cache of the prepared statements.
+     */
+    private final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if(size() <= STATEMENT_CACHE_SIZE || eldest.getValue().isInUse) return false;
+                eldest.getValue().closePhysically();
+                return true;
+            }
+        };
+        private long lastUsed = System.currentTimeMillis();
+        private boolean isSessionLocked;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        Connection lease() {
+            isSessionLocked = false;
+            return (Connection) Proxy.newProxyInstance(MarkerConnectionPool.class.getClassLoader(), new Class<?>[] {Connection.class},
+                new InvocationHandler() {
+                    private boolean isLeaseClosed;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch(method.getName()) {
+                            case "close":
+                                if(!isLeaseClosed) {
+                                    isLeaseClosed = true;
+                                    release(PooledConnection.this, reset());
+                                }
+                                return null;
+                            case "isClosed":
+                                return isLeaseClosed || connection.isClosed();
+                            case "toString":
+                                return "pooled " + connection;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                if(isLeaseClosed) throw new SQLException("Connection was returned to the pool");
+                                if(method.getName().equals("prepareStatement") && args.length == 1)
+                                    return prepare((String) args[0]);
+                                return invokeDelegate(connection, method, args);
+                        }
+                    }
+                });
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            if(isSessionLock.test(sql)) isSessionLocked = true;
+            CachedStatement cached = statements.get(sql);
+            if(cached != null && cached.isInUse) return connection.prepareStatement(sql);
+            if(cached == null || cached.isBroken) {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    cached = new CachedStatement(statement);
+                } catch (SQLException sqle) {
+                    statement.close();
+                    throw sqle;
+                }
+                statements.put(sql, cached);
+            }
+            return cached.lease();
+        }
+
+        /**
+         * Returning the connection to the auto-commit mode.
+         *
+         * @return true if the connection could be used again
+         */
+        private boolean reset() {
+            if(isSessionLocked) return false;
+            try {
+                if(connection.isClosed()) return false;
+                if(!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException sqle) {
+                log.log(Level.FINE, "Cannot reset connection " + connection + ", it's discarded", sqle);
+                return false;
+            }
+        }
+
+        boolean isValid() {
+            try {
+                return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException sqle) {
+                log.log(Level.FINE, "Cannot validate connection " + connection, sqle);
+                return false;
+            }
+        }
+
+        void closePhysically() {
+            for(CachedStatement cached: statements.values()) cached.closePhysically();
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException sqle) {
+                log.log(Level.FINE, "Error on closing connection " + connection, sqle);
+            }
+        }
+    }
+
+    /**
+     * Prepared statement of the cache, closing of the leased proxy returns it to the cache.
+     */
+    private static final class CachedStatement {
+        /**
+         * Settings which are restored to the values of the prepared statement when it's returned to the cache.
+         */
+        private static final Set<String> RESTORED_SETTINGS = new HashSet<String>(Arrays.asList(
+            "setMaxRows", "setLargeMaxRows", "setFetchSize", "setQueryTimeout", "setFetchDirection", "setMaxFieldSize"));
+        /**
+         * Settings which can't be read back, the statement is not cached again once they are changed.
+         */
+        private static final Set<String> UNRESTORED_SETTINGS = new HashSet<String>(Arrays.asList(
+            "setEscapeProcessing", "setCursorName", "setPoolable", "closeOnCompletion"));
+
+        private final PreparedStatement statement;
+        private final int maxRows, fetchSize, queryTimeout, fetchDirection, maxFieldSize;
+        private boolean isInUse, isBroken, isSettingChanged;
+
+        CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.maxRows = statement.getMaxRows();
+            this.fetchSize = statement.getFetchSize();
+            this.queryTimeout = statement.getQueryTimeout();
+            this.fetchDirection = statement.getFetchDirection();
+            this.maxFieldSize = statement.getMaxFieldSize();
+        }
+
+        PreparedStatement lease() {
+            isInUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(MarkerConnectionPool.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+                    private boolean isLeaseClosed;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch(method.getName()) {
+                            case "close":
+                                if(!isLeaseClosed) {
+                                    isLeaseClosed = true;
+                                    giveBack();
+                                }
+                                return null;
+                            case "isClosed":
+                                return isLeaseClosed || statement.isClosed();
+                            case "toString":
+                                return "cached " + statement;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                if(isLeaseClosed) throw new SQLException("Statement was returned to the cache");
+                                if(RESTORED_SETTINGS.contains(method.getName())) isSettingChanged = true;
+                                else if(UNRESTORED_SETTINGS.contains(method.getName())) isBroken = true;
+                                return invokeDelegate(statement, method, args);
+                        }
+                    }
+                });
+        }
+
+        /**
+         * Clearing the statement for the next use, the statement which can't be cleared is closed and prepared again.
+         */
+        private void giveBack() {
+            isInUse = false;
+            try {
+                if(isBroken) throw new SQLException("Statement setting which can't be restored was changed");
+                ResultSet rs = statement.getResultSet();
+                if(rs != null) rs.close();
+                statement.clearParameters();
+                statement.clearBatch();
+                if(isSettingChanged) {
+                    statement.setMaxRows(maxRows);
+                    statement.setFetchSize(fetchSize);
+                    statement.setQueryTimeout(queryTimeout);
+                    statement.setFetchDirection(fetchDirection);
+                    statement.setMaxFieldSize(maxFieldSize);
+                    isSettingChanged = false;
+                }
+            } catch (SQLException sqle) {
+                log.log(Level.FINE, "Cannot clear statement " + statement + ", it's closed", sqle);
+                isBroken = true;
+                closePhysically();
+            }
+        }
+
+        void closePhysically() {
+            try {
+                statement.close();
+            } catch (SQLException sqle) {
+                log.log(Level.FINE, "Error on closing statement " + statement, sqle);
+            }
+        }
+    }
+
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException ite) {
+            throw ite.getCause();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.APPLICATION_POD_NAME_COLUMN;
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.RECOVERY_POD_NAME_COLUMN;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * CSV file of the markers written by the export and read by the import. The file starts with the header line
+ * <code>applicationPodName,recoveryPodName</code> and every marker is a line with the two pod names,
+ * the names containing a comma or a quote are quoted (RFC 4180). The file is UTF-8 encoded,
+ * it's the format of the PostgreSQL <code>copy ... with (format csv, header)</code> and of the H2 <code>CSVREAD</code>.
+ * <p>
+ * The file is written and read through buffered channels, the markers are never collected in memory.
+ */
+final class MarkerCsv {
+    static final String HEADER = APPLICATION_POD_NAME_COLUMN + "," + RECOVERY_POD_NAME_COLUMN;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private MarkerCsv() {
+        // utility class
+    }
+
+    /**
+     * Writing the markers to the channel, the header is written at the creation.
+     */
+    static final class Writer implements Closeable {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final StringBuilder line = new StringBuilder();
+
+        Writer(WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            writeLine(HEADER);
+        }
+
+        void write(String applicationPodName, String recoveryPodName) throws IOException {
+            line.setLength(0);
+            appendField(line, applicationPodName);
+            line.append(',');
+            appendField(line, recoveryPodName);
+            writeLine(line);
+        }
+
+        /**
+         * Writing the buffered data to the channel, the channel is not closed.
+         */
+        @Override
+        public void close() throws IOException {
+            drain();
+        }
+
+        private void writeLine(CharSequence value) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(value + "\n");
+            while(true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if(result.isOverflow()) {
+                    drain();
+                    continue;
+                }
+                if(result.isError()) result.throwException();
+                break;
+            }
+            encoder.reset();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        private static void appendField(StringBuilder line, String value) {
+            if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                line.append(value);
+                return;
+            }
+            line.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    /**
+     * Reading the markers from the channel, the header and the blank lines are skipped.
+     */
+    static final class Reader implements Closeable {
+        private final BufferedReader reader;
+        private int lineNumber;
+
+        Reader(ReadableByteChannel channel) {
+            this.reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE), BUFFER_SIZE);
+        }
+
+        /**
+         * @return the next marker or null at the end of the file
+         * @throws IllegalArgumentException  when the line is not a marker
+         */
+        ApplicationRecoveryPod next() throws IOException {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                if(line.trim().isEmpty() || (lineNumber == 1 && line.trim().equalsIgnoreCase(HEADER))) continue;
+                List<String> fields = parseFields(line);
+                if(fields.size() != 2 || fields.get(0).isEmpty() || fields.get(1).isEmpty())
+                    throw new IllegalArgumentException("Line " + lineNumber + " '" + line + "' does not define"
+                        + " application pod name and recovery pod name");
+                return new ApplicationRecoveryPod(fields.get(0), fields.get(1));
+            }
+            return null;
+        }
+
+        /**
+         * Reading the next markers, at most the limit of them.
+         *
+         * @return the markers, empty at the end of the file
+         */
+        List<ApplicationRecoveryPod> next(int limit) throws IOException {
+            List<ApplicationRecoveryPod> markers = new ArrayList<ApplicationRecoveryPod>(limit);
+            ApplicationRecoveryPod marker;
+            while(markers.size() < limit && (marker = next()) != null) markers.add(marker);
+            return markers;
+        }
+
+        /**
+         * The channel is not closed.
+         */
+        @Override
+        public void close() {
+            // the reader only wraps the channel which is closed by its owner
+        }
+
+        private List<String> parseFields(String line) {
+            List<String> fields = new ArrayList<String>(2);
+            StringBuilder field = new StringBuilder();
+            boolean isQuoted = false;
+            for(int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if(isQuoted) {
+                    if(c != '"') field.append(c);
+                    else if(i + 1 < line.length() && line.charAt(i + 1) == '"') field.append(line.charAt(++i));
+                    else isQuoted = false;
+                } else if(c == '"') {
+                    isQuoted = true;
+                } else if(c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if(c != '\r') {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
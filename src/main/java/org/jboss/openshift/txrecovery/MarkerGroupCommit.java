@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+import org.jboss.openshift.txrecovery.types.CommandType;
+
+/**
+ * <p>
+ * Group commit of the single marker inserts and deletes of the marker server. The requests arriving
+ * within the window (or until the maximal group size is reached) are executed by a single committer thread
+ * as JDBC batches in one transaction, a run of the same operations makes one batch.
+ * <p>
+ * Every request gets its own outcome. When the group transaction fails it's rolled back
+ * and the requests of the group are executed one by one, each in its own transaction,
+ * so a constraint violation of one marker fails only the request of the marker.
+ * <p>
+ * The inserts with {@code --upsert} print whether the marker was inserted. When the driver does not report
+ * the update counts of the batch ({@link Statement#SUCCESS_NO_INFO}) the group is executed one by one
+ * and the later upserts are not grouped any more.
+ * <p>
+ * The request waits for its outcome at most {@link #OUTCOME_TIMEOUT_MILLIS} after the window. When the committer
+ * stops for any reason the current group and the queued requests fail, the next requests fail right away.
+ */
+final class MarkerGroupCommit implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(MarkerGroupCommit.class.getName());
+
+    static final long OUTCOME_TIMEOUT_MILLIS = 120000;
+
+    private enum Operation {
+        INSERT, INSERT_IF_NOT_EXISTS, DELETE
+    }
+
+    private static final class Request {
+        private final Operation operation;
+        private final ApplicationRecoveryPod marker;
+        private final CompletableFuture<Integer> outcome = new CompletableFuture<Integer>();
+
+        private Request(Operation operation, ApplicationRecoveryPod marker) {
+            this.operation = operation;
+            this.marker = marker;
+        }
+    }
+
+    private final RecoveryMarkerDAOFactory daoFactory;
+    private final long windowMillis, windowNanos;
+    private final int maxGroupSize;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+    private final ExecutorService committer;
+    private volatile boolean isClosed;
+    private boolean isUpsertCountUnknown;
+
+    /**
+     * @param daoFactory  factory of the DAO the groups are committed with
+     * @param windowMillis  time in milliseconds the first request of the group waits for more requests
+     * @param maxGroupSize  maximal number of requests committed in one group
+     */
+    MarkerGroupCommit(RecoveryMarkerDAOFactory daoFactory, long windowMillis, int maxGroupSize) {
+        this.daoFactory = daoFactory;
+        this.windowMillis = windowMillis;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxGroupSize = maxGroupSize;
+        this.committer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "marker-group-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.execute(this::commitGroups);
+    }
+
+    /**
+     * @return true if the command is a single marker insert or delete which can be committed in a group
+     */
+    static boolean isGrouped(ParsedArguments parsedArguments) {
+        if(parsedArguments.getJournal() != null || parsedArguments.isWithLock() || MarkerSource.isBulk(parsedArguments))
+            return false;
+        boolean isAppPod = parsedArguments.getApplicationPodName() != null && !parsedArguments.getApplicationPodName().isEmpty();
+        boolean isRecPod = parsedArguments.getRecoveryPodName() != null && !parsedArguments.getRecoveryPodName().isEmpty();
+        switch(parsedArguments.getCommand()) {
+            case INSERT:
+                return isAppPod && isRecPod;
+            case DELETE:
+                return parsedArguments.getChunkSize() == null && (isAppPod || isRecPod);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Processing the command within the next group and waiting for its outcome,
+     * the output is printed as by {@link Main#processDatabaseUpdate(ParsedArguments, RecoveryMarkerDAO, OutputPrinter)}.
+     *
+     * @param parsedArguments  arguments of the command, see {@link #isGrouped(ParsedArguments)}
+     * @param output  where the output is printed to, the caller finishes the output line
+     * @return exit code of the command
+     * @throws IllegalStateException  when the request failed or its outcome is not known within the timeout
+     */
+    int process(ParsedArguments parsedArguments, OutputPrinter output) {
+        Operation operation = parsedArguments.getCommand() == CommandType.DELETE ? Operation.DELETE
+            : parsedArguments.isUpsert() ? Operation.INSERT_IF_NOT_EXISTS : Operation.INSERT;
+        Request request = new Request(operation,
+            new ApplicationRecoveryPod(parsedArguments.getApplicationPodName(), parsedArguments.getRecoveryPodName()));
+        requests.add(request);
+        if(isClosed) failPending();
+
+        int count;
+        try {
+            count = request.outcome.get(windowMillis + OUTCOME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            if(requests.remove(request))
+                throw new IllegalStateException("Group commit of " + request.marker + " did not start within "
+                    + (windowMillis + OUTCOME_TIMEOUT_MILLIS) + " ms, the request was not processed", te);
+            throw new IllegalStateException("Group commit of " + request.marker + " did not finish within "
+                + (windowMillis + OUTCOME_TIMEOUT_MILLIS) + " ms, the outcome is not known", te);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the group commit of " + request.marker, ie);
+        } catch (ExecutionException ee) {
+            if(ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new IllegalStateException("Group commit of " + request.marker + " failed", ee.getCause());
+        }
+        ExecutionTimer.phase("query");
+        if(operation == Operation.INSERT_IF_NOT_EXISTS) {
+            output.print(count > 0 ? "1" : "0");
+        } else if(operation == Operation.DELETE) {
+            log.info("Number ["  + count + "] of records deleted while filtered at [application pod: "
+                + request.marker.getApplicationPodName() + ", recovery pod: " + request.marker.getRecoveryPodName() + "]");
+        }
+        ExecutionTimer.rows(count == Statement.SUCCESS_NO_INFO ? 1 : count);
+        return 0;
+    }
+
+    /**
+     * Stopping the committer, the requests which were not committed yet fail.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        committer.shutdownNow();
+        failPending();
+    }
+
+    private void commitGroups() {
+        List<Request> group = new ArrayList<Request>(maxGroupSize);
+        try {
+            while(!isClosed) {
+                try {
+                    group.add(requests.take());
+                    long deadline = System.nanoTime() + windowNanos;
+                    while(group.size() < maxGroupSize) {
+                        Request request = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if(request == null) break;
+                        group.add(request);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    commit(group);
+                } catch (RuntimeException e) {
+                    fail(group, e);
+                }
+                group.clear();
+            }
+        } finally {
+            // the committer stops, no request may wait for an outcome which never comes
+            isClosed = true;
+            fail(group);
+            failPending();
+        }
+    }
+
+    private void commit(List<Request> group) {
+        List<Request> grouped = new ArrayList<Request>(group.size());
+        List<Request> singles = new ArrayList<Request>();
+        for(Request request: group) {
+            if(isUpsertCountUnknown && request.operation == Operation.INSERT_IF_NOT_EXISTS) singles.add(request);
+            else grouped.add(request);
+        }
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            if(grouped.size() > 1) {
+                try {
+                    int[] counts = commitInTransaction(dao, grouped);
+                    for(int i = 0; i < grouped.size(); i++) grouped.get(i).outcome.complete(counts[i]);
+                    grouped.clear();
+                } catch (RuntimeException e) {
+                    log.log(Level.FINE, "Group commit of [" + grouped.size() + "] requests failed, committing them one by one", e);
+                }
+            }
+            singles.addAll(grouped);
+            for(Request request: singles) {
+                try {
+                    request.outcome.complete(commitSingle(dao, request));
+                } catch (RuntimeException e) {
+                    request.outcome.completeExceptionally(e);
+                }
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Executing every run of the same operations of the group as a batch, all in one transaction.
+     */
+    private int[] commitInTransaction(RecoveryMarkerDAO dao, List<Request> group) {
+        for(Request request: group) {
+            if(request.operation != Operation.DELETE) {
+                createTable(dao);
+                break;
+            }
+        }
+        int[] counts = new int[group.size()];
+        dao.beginTransaction();
+        try {
+            int from = 0;
+            while(from < group.size()) {
+                Operation operation = group.get(from).operation;
+                List<ApplicationRecoveryPod> markers = new ArrayList<ApplicationRecoveryPod>();
+                for(int i = from; i < group.size() && group.get(i).operation == operation; i++) markers.add(group.get(i).marker);
+                int[] runCounts = operation == Operation.DELETE ? dao.deleteRecords(markers, maxGroupSize)
+                    : dao.saveRecords(markers, operation == Operation.INSERT_IF_NOT_EXISTS, maxGroupSize);
+                if(operation == Operation.INSERT_IF_NOT_EXISTS && isUnknown(runCounts)) {
+                    isUpsertCountUnknown = true;
+                    throw new IllegalStateException("Driver does not report the update counts of the upsert batch");
+                }
+                System.arraycopy(runCounts, 0, counts, from, markers.size());
+                from += markers.size();
+            }
+            dao.commitTransaction();
+            return counts;
+        } catch (RuntimeException e) {
+            dao.rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Executing the request on its own as it would be executed without the group commit.
+     */
+    private int commitSingle(RecoveryMarkerDAO dao, Request request) {
+        String appPod = request.marker.getApplicationPodName();
+        String recPod = request.marker.getRecoveryPodName();
+        switch(request.operation) {
+            case INSERT:
+                createTable(dao);
+                if(!dao.saveRecord(appPod, recPod))
+                    throw new IllegalStateException("Error on saving data [" + appPod + "," + recPod + "] to db");
+                return 1;
+            case INSERT_IF_NOT_EXISTS:
+                createTable(dao);
+                return dao.saveRecordIfNotExists(appPod, recPod) ? 1 : 0;
+            default:
+                return dao.delete(appPod, recPod);
+        }
+    }
+
+    private static boolean isUnknown(int[] counts) {
+        for(int count: counts) {
+            if(count == Statement.SUCCESS_NO_INFO) return true;
+        }
+        return false;
+    }
+
+    private static void createTable(RecoveryMarkerDAO dao) {
+        if(!dao.createTable()) throw new IllegalStateException("Cannot create the marker table");
+    }
+
+    private void failPending() {
+        List<Request> pending = new ArrayList<Request>();
+        requests.drainTo(pending);
+        fail(pending);
+    }
+
+    private static void fail(List<Request> group) {
+        fail(group, new IllegalStateException("Marker server is closed"));
+    }
+
+    private static void fail(List<Request> group, RuntimeException cause) {
+        for(Request request: group) request.outcome.completeExceptionally(cause);
+    }
+}
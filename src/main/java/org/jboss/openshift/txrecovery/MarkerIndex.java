@@ -0,0 +1,350 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAO.MarkerChangeListener;
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+import org.jboss.openshift.txrecovery.types.CommandType;
+import org.jboss.openshift.txrecovery.types.IndexConsistencyType;
+
+/**
+ * <p>
+ * In-memory replica of the marker table of the marker server with the lookups of the recovery pods
+ * by the application pod and of the application pods by the recovery pod.
+ * <p>
+ * The replica is loaded by a streaming scan of the table and then it follows the changes of the table
+ * with {@link RecoveryMarkerDAO#watch(long, long, MarkerChangeListener)} in the background.
+ * The changes are taken only from the watch, also those made by the server itself, the memory is then always
+ * at a version of the table and a change applied out of the commit order can't hide a later one.
+ * <p>
+ * When the database does not support the change log every poll which finds the table modified replaces
+ * the markers in memory, see {@link MarkerChangeListener#onSnapshot(Collection)}.
+ * <p>
+ * With {@link IndexConsistencyType#CACHED} the selects are answered from memory without touching the database,
+ * the changes made by other processes are seen after the next poll. With {@link IndexConsistencyType#READ_THROUGH}
+ * the version of the last change of the table (see {@link RecoveryMarkerDAO#getChangeVersion()}) is compared
+ * with the version the replica follows and the select is answered from memory only when they match.
+ */
+final class MarkerIndex implements MarkerChangeListener, AutoCloseable {
+    private static final Logger log = Logger.getLogger(MarkerIndex.class.getName());
+
+    private static final class RecoveryPod {
+        private final String name;
+        private final Set<String> applicationPodNames = new HashSet<String>();
+
+        private RecoveryPod(String name) {
+            this.name = name;
+        }
+    }
+
+    private final RecoveryMarkerDAOFactory daoFactory;
+    private final IndexConsistencyType consistency;
+    private final long pollIntervalMillis;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * The value is the recovery pod name, or the set of them when the application pod has more markers.
+     * The names are the instances of {@link RecoveryPod#name}.
+     */
+    private final Map<String, Object> recoveryPodNamesByApplicationPod = new HashMap<String, Object>();
+    private final Map<String, RecoveryPod> recoveryPods = new HashMap<String, RecoveryPod>();
+    private long numberOfMarkers;
+
+    private volatile boolean isLoaded;
+    private volatile long version = -1;
+    private volatile boolean isClosed;
+    private final ExecutorService follower;
+
+    /**
+     * Starting to load the markers and to follow the changes of the table in the background.
+     *
+     * @param daoFactory  factory of the DAO the table is read with
+     * @param consistency  how the selects are answered
+     * @param pollIntervalMillis  maximal time between two polls of the changes of the table
+     */
+    MarkerIndex(RecoveryMarkerDAOFactory daoFactory, IndexConsistencyType consistency, long pollIntervalMillis) {
+        this.daoFactory = daoFactory;
+        this.consistency = consistency;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.follower = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "marker-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        follower.execute(this::follow);
+    }
+
+    /**
+     * @return true if the command is a select which can be answered by the index
+     */
+    static boolean isIndexed(ParsedArguments parsedArguments) {
+        if(parsedArguments.getJournal() != null || parsedArguments.isWithLock() || MarkerSource.isBulk(parsedArguments))
+            return false;
+        boolean isAppPod = parsedArguments.getApplicationPodName() != null && !parsedArguments.getApplicationPodName().isEmpty();
+        boolean isRecPod = parsedArguments.getRecoveryPodName() != null && !parsedArguments.getRecoveryPodName().isEmpty();
+        switch(parsedArguments.getCommand()) {
+            case SELECT_RECOVERY:
+                return isAppPod && !isRecPod;
+            case SELECT_APPLICATION:
+                return isRecPod && !isAppPod;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Answering the select from memory.
+     *
+     * @param parsedArguments  arguments of the select, see {@link #isIndexed(ParsedArguments)}
+     * @param output  where the pod names are printed to, the caller finishes the output line
+     * @return false if the index can't answer the select now and it has to be read from the table
+     */
+    boolean select(ParsedArguments parsedArguments, OutputPrinter output) {
+        if(!isCurrent()) return false;
+        boolean isSelectRecovery = parsedArguments.getCommand() == CommandType.SELECT_RECOVERY;
+        List<String> podNames;
+        lock.readLock().lock();
+        try {
+            if(!isLoaded) return false;
+            podNames = new ArrayList<String>(isSelectRecovery
+                ? getRecoveryPodNames(parsedArguments.getApplicationPodName())
+                : getApplicationPodNames(parsedArguments.getRecoveryPodName()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        ExecutionTimer.phase("index");
+        for(String podName: podNames) {
+            if(isSelectRecovery) output.print(null, podName);
+            else output.print(podName, null);
+        }
+        ExecutionTimer.rows(podNames.size());
+        return true;
+    }
+
+    /**
+     * @return number of markers in memory
+     */
+    long size() {
+        lock.readLock().lock();
+        try {
+            return numberOfMarkers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onChange(String applicationPodName, String recoveryPodName, boolean isAdded) {
+        lock.writeLock().lock();
+        try {
+            if(isAdded) add(applicationPodName, recoveryPodName);
+            else remove(applicationPodName, recoveryPodName);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPollFinished() {
+        if(isLoaded) return;
+        lock.readLock().lock();
+        try {
+            log.info("Marker index loaded with [" + numberOfMarkers + "] markers of [" + recoveryPodNamesByApplicationPod.size()
+                + "] application pods and [" + recoveryPods.size() + "] recovery pods");
+        } finally {
+            lock.readLock().unlock();
+        }
+        isLoaded = true;
+    }
+
+    /**
+     * The snapshot replaces the markers in memory.
+     */
+    @Override
+    public boolean onSnapshot(Collection<ApplicationRecoveryPod> records) {
+        lock.writeLock().lock();
+        try {
+            clearMarkers();
+            for(ApplicationRecoveryPod marker: records) add(marker.getApplicationPodName(), marker.getRecoveryPodName());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public void onVersion(long version) {
+        this.version = version;
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        follower.shutdownNow();
+    }
+
+    /**
+     * Following the table until the index is closed, when the watch fails the markers are loaded again.
+     */
+    private void follow() {
+        while(!isClosed) {
+            try {
+                RecoveryMarkerDAO dao = daoFactory.openDAO();
+                try {
+                    if(!dao.createTable()) throw new IllegalStateException("Cannot create the marker table");
+                    dao.watch(pollIntervalMillis, 0, this);
+                } finally {
+                    dao.close();
+                }
+            } catch (RuntimeException e) {
+                if(!isClosed) log.log(Level.WARNING, "Error on following the marker table, the markers will be loaded again", e);
+            }
+            isLoaded = false;
+            version = -1;
+            lock.writeLock().lock();
+            try {
+                clearMarkers();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the index answers the selects now
+     */
+    private boolean isCurrent() {
+        if(!isLoaded) return false;
+        if(consistency == IndexConsistencyType.CACHED) return true;
+        long indexVersion = version;
+        if(indexVersion < 0) return false;
+        try {
+            RecoveryMarkerDAO dao = daoFactory.openDAO();
+            try {
+                return dao.getChangeVersion() == indexVersion;
+            } finally {
+                dao.close();
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.FINE, "Cannot read change version of the marker table, the select is read from the table", e);
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<String> getRecoveryPodNames(String applicationPodName) {
+        Object recoveryPodNames = recoveryPodNamesByApplicationPod.get(applicationPodName);
+        if(recoveryPodNames == null) return Collections.emptySet();
+        if(recoveryPodNames instanceof String) return Collections.singleton((String) recoveryPodNames);
+        return (Set<String>) recoveryPodNames;
+    }
+
+    private Collection<String> getApplicationPodNames(String recoveryPodName) {
+        RecoveryPod recoveryPod = recoveryPods.get(recoveryPodName);
+        return recoveryPod == null ? Collections.<String>emptySet() : recoveryPod.applicationPodNames;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(String applicationPodName, String recoveryPodName) {
+        RecoveryPod recoveryPod = recoveryPods.get(recoveryPodName);
+        if(recoveryPod == null) {
+            recoveryPod = new RecoveryPod(recoveryPodName);
+            recoveryPods.put(recoveryPodName, recoveryPod);
+        }
+        if(!recoveryPod.applicationPodNames.add(applicationPodName)) return;
+        numberOfMarkers++;
+
+        Object recoveryPodNames = recoveryPodNamesByApplicationPod.get(applicationPodName);
+        if(recoveryPodNames == null) {
+            recoveryPodNamesByApplicationPod.put(applicationPodName, recoveryPod.name);
+        } else if(recoveryPodNames instanceof String) {
+            Set<String> names = new HashSet<String>(4);
+            names.add((String) recoveryPodNames);
+            names.add(recoveryPod.name);
+            recoveryPodNamesByApplicationPod.put(applicationPodName, names);
+        } else {
+            ((Set<String>) recoveryPodNames).add(recoveryPod.name);
+        }
+    }
+
+    /**
+     * Removing the markers filtered by the pod names, null pod name matches any.
+     */
+    private void remove(String applicationPodName, String recoveryPodName) {
+        if(applicationPodName != null && recoveryPodName != null) {
+            removeMarker(applicationPodName, recoveryPodName);
+        } else if(applicationPodName != null) {
+            for(String name: new ArrayList<String>(getRecoveryPodNames(applicationPodName))) removeMarker(applicationPodName, name);
+        } else if(recoveryPodName != null) {
+            for(String name: new ArrayList<String>(getApplicationPodNames(recoveryPodName))) removeMarker(name, recoveryPodName);
+        } else {
+            clearMarkers();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeMarker(String applicationPodName, String recoveryPodName) {
+        RecoveryPod recoveryPod = recoveryPods.get(recoveryPodName);
+        if(recoveryPod == null || !recoveryPod.applicationPodNames.remove(applicationPodName)) return;
+        numberOfMarkers--;
+        if(recoveryPod.applicationPodNames.isEmpty()) recoveryPods.remove(recoveryPodName);
+
+        Object recoveryPodNames = recoveryPodNamesByApplicationPod.get(applicationPodName);
+        if(recoveryPodNames instanceof String) {
+            recoveryPodNamesByApplicationPod.remove(applicationPodName);
+        } else {
+            Set<String> names = (Set<String>) recoveryPodNames;
+            names.remove(recoveryPodName);
+            if(names.size() == 1) recoveryPodNamesByApplicationPod.put(applicationPodName, names.iterator().next());
+        }
+    }
+
+    /**
+     * Removing all the markers, called with the write lock.
+     */
+    private void clearMarkers() {
+        recoveryPodNamesByApplicationPod.clear();
+        recoveryPods.clear();
+        numberOfMarkers = 0;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Local append-only journal of the inserted markers. The markers are appended to the memory-mapped file
+ * and forced to the disk, later the journal is replayed to the marker table and the replayed part is released.
+ * <p>
+ * The file starts with the header of {@link #HEADER_SIZE} bytes: magic number, epoch, position
+ * of the first not replayed record and the positions of the last appended record and of the end of the journal.
+ * The append starts at the end taken from the header when the last record is valid and ends there
+ * and when there is no valid record after it, otherwise (e.g. the header was not forced before a crash)
+ * the end is found by reading the records from the replayed position. Every record is the length of the payload, CRC32 checksum of the epoch
+ * and the payload and the payload itself, the application pod name and the recovery pod name each prefixed
+ * by its length. The records are read from the replayed position until the first record with a bad checksum,
+ * which is the end of the journal. When the whole journal is replayed the epoch is incremented,
+ * the records of the previous epoch are not valid anymore and the file is written from the start again.
+ * <p>
+ * The file is locked while it's read or written, the markers are replayed without holding the lock.
+ * A chunk of markers is taken as replayed only after the consumer returns, when the process crashes
+ * in between the chunk is replayed again, the consumer has to be idempotent.
+ */
+final class MarkerJournal implements Closeable {
+    private static final Logger log = Logger.getLogger(MarkerJournal.class.getName());
+
+    static final int MAGIC = 0x4D4A524E;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int INITIAL_SIZE = 1024 * 1024;
+    private static final int EPOCH_POSITION = 4;
+    private static final int REPLAYED_POSITION = 12;
+    private static final int LAST_RECORD_POSITION = 20;
+    private static final int END_POSITION = 24;
+    private static final int MAX_PAYLOAD_SIZE = 4 + 2 * 0xFFFF;
+
+    /**
+     * Locks of the journals in this process, the file lock is held by the whole process.
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<Path, ReentrantLock>();
+
+    private final Path path;
+    private final ReentrantLock localLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private MappedByteBuffer buffer;
+
+    private MarkerJournal(Path path) throws IOException {
+        this.path = path;
+        this.localLock = LOCAL_LOCKS.computeIfAbsent(path, key -> new ReentrantLock());
+        localLock.lock();
+        FileChannel openedChannel = null;
+        try {
+            openedChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.channel = openedChannel;
+            this.fileLock = channel.lock();
+            boolean isNew = channel.size() < HEADER_SIZE;
+            map(Math.max(channel.size(), INITIAL_SIZE));
+            if(isNew) {
+                buffer.putInt(0, MAGIC);
+                writeHeader(1, HEADER_SIZE);
+                writeEnd(0, HEADER_SIZE);
+            } else if(buffer.getInt(0) != MAGIC) {
+                throw new IOException("File " + path + " is not a marker journal");
+            }
+        } catch (IOException | RuntimeException e) {
+            if(openedChannel != null) openedChannel.close();
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Appending the markers to the journal, they are forced to the disk when the method returns.
+     *
+     * @param path  path to the journal file, it's created when it does not exist
+     * @param markers  markers to be appended, both pod names have to be defined
+     */
+    static void append(Path path, List<ApplicationRecoveryPod> markers) throws IOException {
+        try (MarkerJournal journal = new MarkerJournal(path.toAbsolutePath().normalize())) {
+            journal.append(markers);
+        }
+    }
+
+    /**
+     * Passing the journaled markers in chunks to the consumer. The chunk is released from the journal
+     * when the consumer returns, on failure of the consumer the replay finishes with the failure
+     * and the chunk stays in the journal.
+     *
+     * @param path  path to the journal file, nothing is replayed when it does not exist
+     * @param chunkSize  maximal number of markers passed to the consumer at once
+     * @param consumer  persisting the chunk of markers idempotently
+     * @return number of replayed markers
+     */
+    static long replay(Path path, int chunkSize, Consumer<List<ApplicationRecoveryPod>> consumer) throws IOException {
+        Path journalPath = path.toAbsolutePath().normalize();
+        if(!journalPath.toFile().exists()) return 0;
+
+        long numberReplayed = 0;
+        while(true) {
+            long epoch;
+            int from, to;
+            List<ApplicationRecoveryPod> chunk = new ArrayList<ApplicationRecoveryPod>();
+            try (MarkerJournal journal = new MarkerJournal(journalPath)) {
+                epoch = journal.getEpoch();
+                from = journal.getReplayedPosition();
+                to = journal.read(from, chunkSize, chunk);
+            }
+            if(chunk.isEmpty()) return numberReplayed;
+
+            consumer.accept(chunk);
+            numberReplayed += chunk.size();
+            try (MarkerJournal journal = new MarkerJournal(journalPath)) {
+                journal.release(epoch, to);
+            }
+            log.fine("Number [" + chunk.size() + "] of markers replayed from journal " + journalPath);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    private void append(List<ApplicationRecoveryPod> markers) throws IOException {
+        long epoch = getEpoch();
+        int position = getEndPosition();
+        int lastRecordPosition = buffer.getInt(LAST_RECORD_POSITION);
+        for(ApplicationRecoveryPod marker: markers) {
+            byte[] applicationPodName = marker.getApplicationPodName().getBytes(StandardCharsets.UTF_8);
+            byte[] recoveryPodName = marker.getRecoveryPodName().getBytes(StandardCharsets.UTF_8);
+            if(applicationPodName.length > 0xFFFF || recoveryPodName.length > 0xFFFF)
+                throw new IllegalArgumentException("Marker " + marker + " is too long to be journaled");
+            int payloadSize = 4 + applicationPodName.length + recoveryPodName.length;
+            if(position + RECORD_HEADER_SIZE + payloadSize > buffer.capacity())
+                map(Math.max(2L * buffer.capacity(), (long) position + RECORD_HEADER_SIZE + payloadSize));
+
+            int payloadPosition = position + RECORD_HEADER_SIZE;
+            buffer.putShort(payloadPosition, (short) applicationPodName.length);
+            putBytes(payloadPosition + 2, applicationPodName);
+            buffer.putShort(payloadPosition + 2 + applicationPodName.length, (short) recoveryPodName.length);
+            putBytes(payloadPosition + 4 + applicationPodName.length, recoveryPodName);
+            buffer.putInt(position + 4, checksum(epoch, payloadPosition, payloadSize));
+            buffer.putInt(position, payloadSize);
+            lastRecordPosition = position;
+            position = payloadPosition + payloadSize;
+        }
+        buffer.putInt(LAST_RECORD_POSITION, lastRecordPosition);
+        buffer.putInt(END_POSITION, position);
+        buffer.force();
+    }
+
+    /**
+     * Position where the next record is appended. The end of the header is used when it's consistent
+     * with the records, otherwise the records are read from the replayed position.
+     */
+    private int getEndPosition() {
+        int replayedPosition = getReplayedPosition();
+        int lastRecordPosition = buffer.getInt(LAST_RECORD_POSITION);
+        int endPosition = buffer.getInt(END_POSITION);
+        boolean isLastRecordValid = lastRecordPosition == 0 ? endPosition == replayedPosition
+            : lastRecordPosition >= replayedPosition && endPosition > lastRecordPosition && read(lastRecordPosition, 1, null) == endPosition;
+        if(isLastRecordValid && endPosition <= buffer.capacity() && read(endPosition, 1, null) == endPosition) return endPosition;
+        log.fine("End of journal " + path + " is not consistent with its header, the records are read to find it");
+        return read(replayedPosition, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Reading the valid records from the position.
+     *
+     * @param markers  where the read markers are added to, null if the records are only skipped
+     * @return position after the last read record
+     */
+    private int read(int from, int limit, List<ApplicationRecoveryPod> markers) {
+        long epoch = getEpoch();
+        int position = from;
+        for(int i = 0; i < limit; i++) {
+            if(position + RECORD_HEADER_SIZE > buffer.capacity()) break;
+            int payloadSize = buffer.getInt(position);
+            int payloadPosition = position + RECORD_HEADER_SIZE;
+            if(payloadSize < 4 || payloadSize > MAX_PAYLOAD_SIZE || payloadPosition + payloadSize > buffer.capacity()) break;
+            if(buffer.getInt(position + 4) != checksum(epoch, payloadPosition, payloadSize)) break;
+
+            if(markers != null) {
+                int applicationPodNameLength = buffer.getShort(payloadPosition) & 0xFFFF;
+                String applicationPodName = getString(payloadPosition + 2, applicationPodNameLength);
+                int recoveryPodNameLength = buffer.getShort(payloadPosition + 2 + applicationPodNameLength) & 0xFFFF;
+                String recoveryPodName = getString(payloadPosition + 4 + applicationPodNameLength, recoveryPodNameLength);
+                markers.add(new ApplicationRecoveryPod(applicationPodName, recoveryPodName));
+            }
+            position = payloadPosition + payloadSize;
+        }
+        return position;
+    }
+
+    /**
+     * Moving the replayed position after the replayed records, the journal starts a new epoch
+     * when all the records are replayed. Nothing is changed when the journal was released
+     * by other replay in between.
+     */
+    private void release(long epoch, int replayedPosition) {
+        if(getEpoch() != epoch || getReplayedPosition() >= replayedPosition) return;
+        if(read(replayedPosition, 1, null) == replayedPosition) {
+            writeEnd(0, HEADER_SIZE);
+            writeHeader(epoch + 1, HEADER_SIZE);
+        } else {
+            writeHeader(epoch, replayedPosition);
+        }
+    }
+
+    private void map(long size) throws IOException {
+        if(size > Integer.MAX_VALUE) throw new IOException("Journal " + path + " is full");
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private long getEpoch() {
+        return buffer.getLong(EPOCH_POSITION);
+    }
+
+    private int getReplayedPosition() {
+        return (int) buffer.getLong(REPLAYED_POSITION);
+    }
+
+    private void writeHeader(long epoch, int replayedPosition) {
+        buffer.putLong(EPOCH_POSITION, epoch);
+        buffer.putLong(REPLAYED_POSITION, replayedPosition);
+        buffer.force();
+    }
+
+    private void writeEnd(int lastRecordPosition, int endPosition) {
+        buffer.putInt(LAST_RECORD_POSITION, lastRecordPosition);
+        buffer.putInt(END_POSITION, endPosition);
+    }
+
+    private int checksum(long epoch, int payloadPosition, int payloadSize) {
+        CRC32 crc = new CRC32();
+        for(int shift = 56; shift >= 0; shift -= 8) crc.update((int) (epoch >>> shift));
+        byte[] payload = new byte[payloadSize];
+        getBytes(payloadPosition, payload);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void putBytes(int position, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.put(bytes);
+    }
+
+    private void getBytes(int position, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+    }
+
+    private String getString(int position, int length) {
+        byte[] bytes = new byte[length];
+        getBytes(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * <p>
+ * Result cache of the read only commands shared by the runs of the application, e.g. by the probes
+ * of the pods which run the same select every few seconds. The output of the command is stored
+ * in a small file of the cache directory named by the hash of the jdbc url, table, command and filters.
+ * <p>
+ * The cached output is used only when the write counter of the table (see {@link RecoveryMarkerDAO#getWriteCounter()})
+ * is the same as when it was stored and it's not older than the time to live. The counter is increased in the transaction
+ * of every write of this tool, so a committed write is never hidden by the cache. The repeated command costs
+ * the query of the counter and the read of the file. The results are not cached only when the counter row does not exist.
+ * <p>
+ * Writes made by other applications do not increase the counter, they are seen at latest when the time to live expires.
+ */
+final class MarkerResultCache {
+    private static final Logger log = Logger.getLogger(MarkerResultCache.class.getName());
+
+    static final String FILE_SUFFIX = ".cache";
+    /**
+     * Longer outputs are printed but they are not cached.
+     */
+    static final int MAX_CACHED_OUTPUT_LENGTH = 64 * 1024;
+
+    private final Path file;
+    private final long ttlMillis;
+    private Capture capture;
+    private long version = -1;
+    private boolean isHit;
+
+    /**
+     * Appendable writing through to the output while capturing what's written, up to the maximal length.
+     */
+    private static final class Capture implements Appendable, Flushable {
+        private final Appendable out;
+        private final StringBuilder captured = new StringBuilder();
+        private boolean isOverflow;
+
+        private Capture(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            out.append(csq);
+            capture(csq == null ? "null" : csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            return append((csq == null ? "null" : csq).subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            return append(String.valueOf(c));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(out instanceof Flushable) ((Flushable) out).flush();
+        }
+
+        private void capture(CharSequence csq) {
+            if(isOverflow) return;
+            if(captured.length() + csq.length() > MAX_CACHED_OUTPUT_LENGTH) {
+                isOverflow = true;
+                captured.setLength(0);
+                return;
+            }
+            captured.append(csq);
+        }
+    }
+
+    MarkerResultCache(ParsedArguments parsedArguments) {
+        String key = String.join("\u0000", parsedArguments.getJdbcUrl(), parsedArguments.getUser(),
+            String.valueOf(parsedArguments.getSchema()), parsedArguments.getTableName(), parsedArguments.getCommand().name(),
+            String.valueOf(parsedArguments.getApplicationPodName()), String.valueOf(parsedArguments.getRecoveryPodName()),
+            String.valueOf(parsedArguments.isDistinct()), parsedArguments.getFormat().name());
+        this.file = Paths.get(parsedArguments.getCacheDir()).resolve(sha256(key) + FILE_SUFFIX);
+        this.ttlMillis = parsedArguments.getCacheTtl() * 1000;
+    }
+
+    /**
+     * @return true if the cache directory is defined and the command only reads the markers
+     */
+    static boolean isCached(ParsedArguments parsedArguments) {
+        if(parsedArguments.getCacheDir() == null || parsedArguments.getJournal() != null || parsedArguments.isWithLock()
+                || MarkerSource.isBulk(parsedArguments))
+            return false;
+        switch(parsedArguments.getCommand()) {
+            case SELECT_APPLICATION:
+            case SELECT_RECOVERY:
+            case SELECT_PAIRS:
+            case EXISTS:
+            case COUNT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param out  where the output of the command is written to
+     * @return appendable the output printer of the command writes to so the output could be cached
+     */
+    Appendable capture(Appendable out) {
+        this.capture = new Capture(out);
+        return capture;
+    }
+
+    /**
+     * Printing the cached output when it's at the current write counter of the table,
+     * otherwise processing the command, see {@link Main#processDatabaseUpdate(ParsedArguments, RecoveryMarkerDAO, OutputPrinter)}.
+     *
+     * @return exit code of the command
+     */
+    int process(ParsedArguments parsedArguments, RecoveryMarkerDAO dao, OutputPrinter output) {
+        try {
+            version = dao.getWriteCounter();
+        } catch (RuntimeException e) {
+            log.log(Level.FINE, "Cannot read write counter of table " + parsedArguments.getTableName() + ", result is not cached", e);
+            version = -1;
+        }
+        ExecutionTimer.phase("version");
+        if(version >= 0) {
+            String[] cached = read();
+            if(cached != null) {
+                isHit = true;
+                output.printLine(cached[1]);
+                ExecutionTimer.phase("cache");
+                return Integer.parseInt(cached[0]);
+            }
+        }
+        return Main.processDatabaseUpdate(parsedArguments, dao, output);
+    }
+
+    /**
+     * Storing the captured output of the processed command. It's called after the output is finished,
+     * the output is not stored when it was taken from the cache or when the write counter is not known.
+     *
+     * @param exitCode  exit code of the command
+     */
+    void store(int exitCode) {
+        if(isHit || version < 0 || capture == null || capture.isOverflow) return;
+        String line = capture.captured.toString();
+        if(line.endsWith(System.lineSeparator())) line = line.substring(0, line.length() - System.lineSeparator().length());
+        byte[] content = (version + " " + System.currentTimeMillis() + " " + exitCode + "\n" + line).getBytes(StandardCharsets.UTF_8);
+        Path tmpFile = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(tmpFile, content);
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Cannot write cache file " + file, ioe);
+            try {
+                if(tmpFile != null) Files.deleteIfExists(tmpFile);
+            } catch (IOException cleanup) {
+                log.log(Level.FINE, "Cannot delete temporary cache file " + tmpFile, cleanup);
+            }
+        }
+    }
+
+    /**
+     * The cache file consists of the header line <code>version created_millis exit_code</code> and the output line.
+     *
+     * @return exit code and output of the cache file if it's at the version and it's not expired, otherwise null
+     */
+    private String[] read() {
+        String cached;
+        try {
+            cached = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException nsfe) {
+            return null;
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Cannot read cache file " + file, ioe);
+            return null;
+        }
+        int headerEnd = cached.indexOf('\n');
+        String[] header = headerEnd < 0 ? new String[0] : cached.substring(0, headerEnd).split(" ");
+        try {
+            if(header.length != 3 || Long.parseLong(header[0]) != version) return null;
+            long age = System.currentTimeMillis() - Long.parseLong(header[1]);
+            if(age < 0 || age > ttlMillis) return null;
+            Integer.parseInt(header[2]);
+        } catch (NumberFormatException nfe) {
+            log.log(Level.FINE, "Cache file " + file + " is corrupted, header " + Arrays.asList(header), nfe);
+            return null;
+        }
+        return new String[] {header[2], cached.substring(headerEnd + 1)};
+    }
+
+    private static String sha256(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b: digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 is not available", nsae);
+        }
+    }
+}
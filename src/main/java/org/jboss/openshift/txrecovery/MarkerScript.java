@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * <p>
+ * Processing a script of commands in a single run with a single DAO (and so a single database connection).
+ * Every line of the script is a command line which is merged with the arguments the application
+ * was started with, see {@link ParsedArguments#parseCommand(ParsedArguments, String)}.
+ * Empty lines and lines starting with <code>#</code> are skipped.
+ * <p>
+ * The engine of the DAO is defined by the arguments the application was started with,
+ * the engine defined at a script line is not taken into account.
+ */
+final class MarkerScript {
+    private static final Logger log = Logger.getLogger(MarkerScript.class.getName());
+
+    static final String STDIN_SCRIPT = "-";
+
+    private MarkerScript() {
+        // utility class
+    }
+
+    /**
+     * Running the script defined by argument {@link ParsedArguments#getScript()}
+     * while printing output of the commands to the standard output.
+     *
+     * @param scriptArguments  arguments the application was started with
+     * @return exit code, zero if all the commands succeeded
+     */
+    static int run(ParsedArguments scriptArguments) {
+        InputStream scriptStream = null;
+        try {
+            scriptStream = STDIN_SCRIPT.equals(scriptArguments.getScript())
+                ? System.in : new FileInputStream(scriptArguments.getScript());
+            BufferedReader reader = new BufferedReader(new InputStreamReader(scriptStream, StandardCharsets.UTF_8));
+            return run(scriptArguments, reader, System.out, System.err);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot read script " + scriptArguments.getScript(), ioe);
+        } finally {
+            if(scriptStream != null && scriptStream != System.in) {
+                try {
+                    scriptStream.close();
+                } catch (IOException ioe) {
+                    log.log(Level.FINE, "Cannot close script " + scriptArguments.getScript(), ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Running the script read from the reader.
+     *
+     * @param scriptArguments  arguments the application was started with
+     * @param script  reader of the script lines
+     * @param out  where output of the commands is printed to
+     * @param err  where failures of the commands are reported to
+     * @return exit code, zero if all the commands succeeded
+     */
+    static int run(ParsedArguments scriptArguments, BufferedReader script, PrintStream out, PrintStream err) throws IOException {
+        int numberOfFailures = 0;
+        RecoveryMarkerDAOFactory daoFactory = RecoveryMarkerDAOFactory.create(scriptArguments);
+        try {
+            RecoveryMarkerDAO dao = daoFactory.openDAO();
+            try {
+                if(scriptArguments.isScriptTransaction()) dao.beginTransaction();
+
+                String line;
+                int lineNumber = 0;
+                while((line = script.readLine()) != null) {
+                    lineNumber++;
+                    if(line.trim().isEmpty() || line.trim().startsWith("#")) continue;
+
+                    try {
+                        ParsedArguments lineArguments = ParsedArguments.parseCommand(scriptArguments, line);
+                        OutputPrinter output = new OutputPrinter(out, lineArguments.getFormat());
+                        try {
+                            Main.processDatabaseUpdate(lineArguments, dao, output);
+                            output.finish();
+                        } catch (RuntimeException e) {
+                            output.abort();
+                            throw e;
+                        }
+                    } catch (Exception e) {
+                        numberOfFailures++;
+                        log.log(Level.FINE, "Error on processing script line " + lineNumber + ": " + line, e);
+                        err.println("Line " + lineNumber + " '" + line + "' failed: " + e.getMessage());
+                        if(scriptArguments.isScriptTransaction()) {
+                            dao.rollbackTransaction();
+                            err.println("Script transaction was rolled back, the rest of the script is skipped");
+                            return 1;
+                        }
+                    }
+                }
+
+                if(scriptArguments.isScriptTransaction()) dao.commitTransaction();
+            } catch (RuntimeException | IOException e) {
+                dao.rollbackTransaction();
+                throw e;
+            } finally {
+                dao.close();
+            }
+        } finally {
+            daoFactory.close();
+        }
+        return numberOfFailures == 0 ? 0 : 1;
+    }
+}
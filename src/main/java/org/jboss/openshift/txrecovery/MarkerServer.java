@@ -0,0 +1,388 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+import org.jboss.openshift.txrecovery.types.EngineType;
+
+/**
+ * <p>
+ * Long-running server which sets up the {@link RecoveryMarkerDAOFactory} (e.g. boots Hibernate) once
+ * per engine and then processes the commands with the shared factory. Every command runs with its own DAO,
+ * the jdbc engine borrows its connection from the pool, see {@link RecoveryMarkerDAOFactory#createShared(ParsedArguments)}.
+ * <p>
+ * The protocol is line based. The request is a single line of cli arguments
+ * which are merged with the arguments the server was started with,
+ * see {@link ParsedArguments#parseCommand(ParsedArguments, String)}. The response consists of lines
+ * prefixed with {@link #OUT_PREFIX} for the standard output, with {@link #ERR_PREFIX} for the error output
+ * and it's finished with the line {@link #EXIT_PREFIX} followed by the exit code of the command.
+ * <p>
+ * When the server is started with the time to live of the records the expired records are deleted
+ * periodically in the background, see {@link RecoveryMarkerDAO#expire(long, int, long)}.
+ * When the server is started with the journal the inserted markers are appended to the journal
+ * and the journal is replayed to the table in the background after every insert and periodically.
+ * The request can't define other journal than the server was started with as nothing would replay it.
+ * When the server is started with the group commit window the single marker inserts and deletes
+ * of the concurrent requests are committed together, see {@link MarkerGroupCommit}.
+ * When the server is started with the index the selects of the pods are answered from memory, see {@link MarkerIndex}.
+ */
+public class MarkerServer implements Closeable {
+    private static final Logger log = Logger.getLogger(MarkerServer.class.getName());
+
+    static final String OUT_PREFIX = "OUT ";
+    static final String ERR_PREFIX = "ERR ";
+    static final String EXIT_PREFIX = "EXIT ";
+    static final int MIN_WORKER_THREADS = 4;
+    static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+    static final long JOURNAL_REPLAY_INTERVAL_MILLIS = 1000;
+
+    private final ParsedArguments serverArguments;
+    private final ConcurrentMap<EngineType, RecoveryMarkerDAOFactory> daoFactories =
+        new ConcurrentHashMap<EngineType, RecoveryMarkerDAOFactory>();
+    private final ConcurrentMap<EngineType, MarkerGroupCommit> groupCommits =
+        new ConcurrentHashMap<EngineType, MarkerGroupCommit>();
+
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private volatile ServerSocket serverSocket;
+    private volatile ExecutorService workers;
+    private final ScheduledExecutorService reaper;
+    private final ScheduledExecutorService journalReplayer;
+    private final MarkerIndex index;
+
+    MarkerServer(ParsedArguments serverArguments) {
+        this.serverArguments = serverArguments;
+        getDAOFactory(serverArguments);
+        if(serverArguments.getTtl() == null) {
+            this.reaper = null;
+        } else {
+            this.reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "marker-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reaper.scheduleWithFixedDelay(this::expire, serverArguments.getReaperInterval(),
+                serverArguments.getReaperInterval(), TimeUnit.SECONDS);
+        }
+        if(serverArguments.getJournal() == null) {
+            this.journalReplayer = null;
+        } else {
+            this.journalReplayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "marker-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            journalReplayer.scheduleWithFixedDelay(this::replayJournal, 0, JOURNAL_REPLAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        this.index = serverArguments.getIndex() == null ? null
+            : new MarkerIndex(getDAOFactory(serverArguments), serverArguments.getIndex(), serverArguments.getPollInterval());
+    }
+
+    /**
+     * Starting the server and blocking until it's finished. When the server port is not defined
+     * the commands are read from the standard input and the server finishes at the end of the stream.
+     *
+     * @param parsedArguments  cli arguments the server was started with
+     */
+    static void start(ParsedArguments parsedArguments) {
+        final MarkerServer server = new MarkerServer(parsedArguments);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        try {
+            if(parsedArguments.getServerPort() == null) {
+                server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+            } else {
+                server.bind(parsedArguments.getServerPort());
+                server.acceptConnections();
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Marker server failed while processing the requests", ioe);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Binding the server socket at the loopback interface.
+     *
+     * @param port  port to listen at, zero means any free port
+     * @return  the port the server listens at
+     */
+    int bind(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        log.info("Marker server listening at " + serverSocket.getLocalSocketAddress());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepting the connections at the bound socket until the server is closed.
+     * Every connection occupies its worker thread until the client closes it, the workers are started on demand
+     * up to {@link #getWorkerThreads()} and the connections above the limit wait in the queue.
+     */
+    void acceptConnections() throws IOException {
+        if(serverSocket == null) throw new IllegalStateException("Server socket was not bound");
+        int workerThreads = getWorkerThreads();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workerThreads, workerThreads, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, "marker-worker-" + threadNumber.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        workers = executor;
+        try {
+            while(!isClosed.get()) {
+                final Socket socket = serverSocket.accept();
+                workers.execute(() -> handleConnection(socket));
+            }
+        } catch (IOException ioe) {
+            if(!isClosed.get()) throw ioe;
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * The limit of the concurrently served connections. It's not lower than the size of the connection pool
+     * to use all the pooled connections and not lower than the batch size of the group commit
+     * as every grouped request is waited for by its connection.
+     *
+     * @return maximal number of the worker threads
+     */
+    int getWorkerThreads() {
+        int workerThreads = Math.max(MIN_WORKER_THREADS, serverArguments.getPoolMaxSize());
+        if(serverArguments.getGroupCommitWindow() != null) workerThreads = Math.max(workerThreads, serverArguments.getBatchSize());
+        return workerThreads;
+    }
+
+    /**
+     * Processing requests line by line until the end of the input.
+     *
+     * @param in  source of the requests
+     * @param out  where the responses are written to
+     */
+    void serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while((line = in.readLine()) != null) {
+            if(line.trim().isEmpty()) continue;
+            process(line, out);
+        }
+    }
+
+    /**
+     * Processing a single request and writing the response.
+     *
+     * @param requestLine  cli arguments of the command
+     * @param out  where the response is written to
+     * @return exit code of the command
+     */
+    int process(String requestLine, PrintWriter out) {
+        int exitCode = 0;
+        try {
+            ParsedArguments requestArguments = ParsedArguments.parseCommand(serverArguments, requestLine);
+            if(requestArguments.getJournal() != null && !isServerJournal(requestArguments.getJournal()))
+                throw new IllegalArgumentException("Journal " + requestArguments.getJournal() + " is not the journal "
+                    + serverArguments.getJournal() + " the marker server was started with, it would not be replayed");
+            OutputPrinter output = new OutputPrinter(out, requestArguments.getFormat(), OUT_PREFIX);
+            if(Main.isJournaled(requestArguments)) {
+                try {
+                    exitCode = Main.appendToJournal(requestArguments, output);
+                    output.finish();
+                } catch (RuntimeException e) {
+                    output.abort();
+                    throw e;
+                }
+                if(journalReplayer != null && !isClosed.get()) journalReplayer.execute(this::replayJournal);
+                out.println(EXIT_PREFIX + exitCode);
+                out.flush();
+                return exitCode;
+            }
+            if(index != null && MarkerIndex.isIndexed(requestArguments)) {
+                try {
+                    if(index.select(requestArguments, output)) {
+                        output.finish();
+                        out.println(EXIT_PREFIX + exitCode);
+                        out.flush();
+                        return exitCode;
+                    }
+                } catch (RuntimeException e) {
+                    output.abort();
+                    throw e;
+                }
+            }
+            if(serverArguments.getGroupCommitWindow() != null && MarkerGroupCommit.isGrouped(requestArguments)) {
+                try {
+                    exitCode = getGroupCommit(requestArguments).process(requestArguments, output);
+                    output.finish();
+                } catch (RuntimeException e) {
+                    output.abort();
+                    throw e;
+                }
+                out.println(EXIT_PREFIX + exitCode);
+                out.flush();
+                return exitCode;
+            }
+            RecoveryMarkerDAO dao = getDAOFactory(requestArguments).openDAO();
+            try {
+                exitCode = Main.processDatabaseUpdate(requestArguments, dao, output);
+                output.finish();
+            } catch (RuntimeException e) {
+                output.abort();
+                throw e;
+            } finally {
+                dao.close();
+            }
+        } catch (Exception e) {
+            log.log(Level.FINE, "Error on processing request: " + requestLine, e);
+            out.println(ERR_PREFIX + e.getMessage());
+            exitCode = 1;
+        }
+        out.println(EXIT_PREFIX + exitCode);
+        out.flush();
+        return exitCode;
+    }
+
+    private boolean isServerJournal(String journal) {
+        return serverArguments.getJournal() != null && normalize(journal).equals(normalize(serverArguments.getJournal()));
+    }
+
+    private static Path normalize(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Deleting the records expired by the time to live the server was started with.
+     * Failure is logged and the expiry is tried again at the next run.
+     *
+     * @return number of deleted records
+     */
+    long expire() {
+        try {
+            RecoveryMarkerDAO dao = getDAOFactory(serverArguments).openDAO();
+            try {
+                long numberExpired = dao.expire(serverArguments.getTtl(),
+                    serverArguments.getChunkSize() == null ? serverArguments.getBatchSize() : serverArguments.getChunkSize(),
+                    serverArguments.getChunkPause());
+                if(numberExpired > 0) log.info("Number [" + numberExpired + "] of expired records deleted");
+                return numberExpired;
+            } finally {
+                dao.close();
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Error on deleting the expired records", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Replaying the journal the server was started with to the table.
+     * Failure is logged and the replay is tried again at the next run.
+     *
+     * @return number of replayed markers
+     */
+    long replayJournal() {
+        try {
+            RecoveryMarkerDAO dao = getDAOFactory(serverArguments).openDAO();
+            try {
+                long numberReplayed = Main.replayJournal(serverArguments, dao);
+                if(numberReplayed > 0) log.info("Number [" + numberReplayed + "] of journaled markers replayed");
+                return numberReplayed;
+            } finally {
+                dao.close();
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Error on replaying journal " + serverArguments.getJournal(), e);
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        if(!isClosed.compareAndSet(false, true)) return;
+
+        try {
+            if(serverSocket != null) serverSocket.close();
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Error on closing server socket " + serverSocket, ioe);
+        }
+        if(workers != null) workers.shutdownNow();
+        if(reaper != null) reaper.shutdownNow();
+        if(journalReplayer != null) journalReplayer.shutdownNow();
+        if(index != null) index.close();
+        for(MarkerGroupCommit groupCommit: groupCommits.values()) {
+            groupCommit.close();
+        }
+        for(RecoveryMarkerDAOFactory daoFactory: daoFactories.values()) {
+            daoFactory.close();
+        }
+    }
+
+    private RecoveryMarkerDAOFactory getDAOFactory(ParsedArguments parsedArguments) {
+        if(isClosed.get()) throw new IllegalStateException("Marker server is closed");
+        return daoFactories.computeIfAbsent(parsedArguments.getEngine(),
+            engine -> RecoveryMarkerDAOFactory.createShared(parsedArguments));
+    }
+
+    private MarkerGroupCommit getGroupCommit(ParsedArguments parsedArguments) {
+        final RecoveryMarkerDAOFactory daoFactory = getDAOFactory(parsedArguments);
+        return groupCommits.computeIfAbsent(parsedArguments.getEngine(),
+            engine -> new MarkerGroupCommit(daoFactory, serverArguments.getGroupCommitWindow(), serverArguments.getBatchSize()));
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            serve(in, out);
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Error on communication with client " + socket.getRemoteSocketAddress(), ioe);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                log.log(Level.FINE, "Error on closing client socket " + socket, ioe);
+            }
+        }
+    }
+}
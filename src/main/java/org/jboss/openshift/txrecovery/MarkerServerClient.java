@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * Thin client forwarding the cli arguments to the {@link MarkerServer}
+ * and printing the response to the provided streams.
+ */
+final class MarkerServerClient {
+    private static final Logger log = Logger.getLogger(MarkerServerClient.class.getName());
+
+    static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private MarkerServerClient() {
+        // utility class
+    }
+
+    /**
+     * Forwarding the command to the marker server listening at the loopback interface.
+     *
+     * @param port  port where the server listens
+     * @param args  cli arguments to forward
+     * @param out  stream where the standard output of the command is printed to
+     * @param err  stream where the error output of the command is printed to
+     * @return  exit code of the command or null if the server is not reachable
+     */
+    static Integer forward(int port, String[] args, PrintStream out, PrintStream err) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MS);
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Cannot connect to marker server at port " + port, ioe);
+            close(socket);
+            return null;
+        }
+
+        try {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            writer.println(ParsedArguments.joinCommandLine(args));
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith(MarkerServer.OUT_PREFIX)) {
+                    out.println(line.substring(MarkerServer.OUT_PREFIX.length()));
+                } else if(line.startsWith(MarkerServer.ERR_PREFIX)) {
+                    err.println(line.substring(MarkerServer.ERR_PREFIX.length()));
+                } else if(line.startsWith(MarkerServer.EXIT_PREFIX)) {
+                    return Integer.valueOf(line.substring(MarkerServer.EXIT_PREFIX.length()).trim());
+                }
+            }
+            throw new IllegalStateException("Marker server at port " + port + " closed the connection before the command finished");
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Error on communication with marker server at port " + port, ioe);
+        } finally {
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Error on closing socket " + socket, ioe);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.openshift.txrecovery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * <p>
+ * Markers of the bulk commands. The pod names of <code>-a</code> and <code>-r</code> could be comma separated lists,
+ * every application pod name is combined with every recovery pod name. The markers could be read from a file
+ * (or stdin) too, one <code>application_pod[:recovery_pod]</code> per line, the line without the recovery pod name
+ * is combined with the names of <code>-r</code>.
+ * <p>
+ * For the delete command the markers are the filters and a missing pod name is not used for filtering.
+ */
+final class MarkerSource {
+    static final String LIST_SEPARATOR = ",";
+    static final String STDIN = "-";
+
+    private MarkerSource() {
+        // utility class
+    }
+
+    /**
+     * @return true if the command works with more than one marker or with the markers file
+     */
+    static boolean isBulk(ParsedArguments parsedArguments) {
+        return parsedArguments.getMarkersFile() != null
+            || isList(parsedArguments.getApplicationPodName()) || isList(parsedArguments.getRecoveryPodName());
+    }
+
+    /**
+     * Reading the markers defined by the arguments in the order they are defined.
+     */
+    static List<ApplicationRecoveryPod> read(ParsedArguments parsedArguments) throws IOException {
+        List<String> recoveryPodNames = split(parsedArguments.getRecoveryPodName());
+        List<ApplicationRecoveryPod> markers = new ArrayList<ApplicationRecoveryPod>();
+        List<String> applicationPodNames = split(parsedArguments.getApplicationPodName());
+        for(String applicationPodName: applicationPodNames) {
+            combine(markers, applicationPodName, recoveryPodNames);
+        }
+        if(applicationPodNames.isEmpty() && parsedArguments.getMarkersFile() == null) {
+            for(String recoveryPodName: recoveryPodNames) {
+                markers.add(new ApplicationRecoveryPod(null, recoveryPodName));
+            }
+        }
+        if(parsedArguments.getMarkersFile() == null) return markers;
+
+        BufferedReader reader = STDIN.equals(parsedArguments.getMarkersFile())
+            ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+            : Files.newBufferedReader(Paths.get(parsedArguments.getMarkersFile()), StandardCharsets.UTF_8);
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+                int separatorIndex = line.indexOf(OutputPrinter.PAIR_SEPARATOR);
+                if(separatorIndex < 0) {
+                    combine(markers, line, recoveryPodNames);
+                } else {
+                    markers.add(new ApplicationRecoveryPod(emptyToNull(line.substring(0, separatorIndex).trim()),
+                        emptyToNull(line.substring(separatorIndex + 1).trim())));
+                }
+            }
+        } finally {
+            if(!STDIN.equals(parsedArguments.getMarkersFile())) reader.close();
+        }
+        return markers;
+    }
+
+    /**
+     * Reading the pod names, one per line, from the markers file, or from stdin when it's not defined.
+     */
+    static Set<String> readPodNames(ParsedArguments parsedArguments) throws IOException {
+        String markersFile = parsedArguments.getMarkersFile() == null ? STDIN : parsedArguments.getMarkersFile();
+        BufferedReader reader = STDIN.equals(markersFile)
+            ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+            : Files.newBufferedReader(Paths.get(markersFile), StandardCharsets.UTF_8);
+        Set<String> podNames = new LinkedHashSet<String>();
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+                podNames.add(line);
+            }
+        } finally {
+            if(!STDIN.equals(markersFile)) reader.close();
+        }
+        return podNames;
+    }
+
+    private static void combine(List<ApplicationRecoveryPod> markers, String applicationPodName, List<String> recoveryPodNames) {
+        if(recoveryPodNames.isEmpty()) {
+            markers.add(new ApplicationRecoveryPod(applicationPodName, null));
+            return;
+        }
+        for(String recoveryPodName: recoveryPodNames) {
+            markers.add(new ApplicationRecoveryPod(applicationPodName, recoveryPodName));
+        }
+    }
+
+    private static List<String> split(String podNames) {
+        if(podNames == null || podNames.trim().isEmpty()) return Collections.emptyList();
+        List<String> names = new ArrayList<String>();
+        for(String name: podNames.split(LIST_SEPARATOR)) {
+            if(!name.trim().isEmpty()) names.add(name.trim());
+        }
+        return names;
+    }
+
+    private static boolean isList(String podNames) {
+        return podNames != null && podNames.contains(LIST_SEPARATOR);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,760 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.openshift.txrecovery.types.DatabaseType;
+
+/**
+ * SQL statements working with the table of recovery markers tailored
+ * for the particular database type. The table name is qualified with the schema when it's defined.
+ */
+public class MarkerTableDialect {
+    static final String APPLICATION_POD_NAME_COLUMN = "applicationPodName";
+    static final String RECOVERY_POD_NAME_COLUMN = "recoveryPodName";
+    static final String HEARTBEAT_COLUMN = "heartbeat";
+    static final int STREAMING_FETCH_SIZE = 1000;
+    static final int MYSQL_LOCK_NAME_LENGTH = 64;
+
+    private final DatabaseType databaseType;
+    private final String schema, tableName;
+    private final boolean isHeartbeat;
+
+    /**
+     * @param databaseType  type of the database, could be null for a generic SQL
+     * @param schema  schema of the table, null for the default schema of the connection
+     * @param tableName  name of the marker table
+     */
+    public MarkerTableDialect(DatabaseType databaseType, String schema, String tableName) {
+        this(databaseType, schema, tableName, false);
+    }
+
+    /**
+     * @param databaseType  type of the database, could be null for a generic SQL
+     * @param schema  schema of the table, null for the default schema of the connection
+     * @param tableName  name of the marker table
+     * @param isHeartbeat  true if the table has the heartbeat timestamp column
+     */
+    public MarkerTableDialect(DatabaseType databaseType, String schema, String tableName, boolean isHeartbeat) {
+        if(tableName == null || tableName.isEmpty()) throw new NullPointerException("tableName");
+        this.databaseType = databaseType;
+        this.schema = schema == null || schema.isEmpty() ? null : schema;
+        this.tableName = tableName;
+        this.isHeartbeat = isHeartbeat;
+    }
+
+    public DatabaseType getDatabaseType() {
+        return databaseType;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return true if the table has the heartbeat timestamp column which is set
+     *   at the insert and refreshed by the touch of the marker
+     */
+    public boolean isHeartbeat() {
+        return isHeartbeat;
+    }
+
+    /**
+     * @return table name qualified with schema if it's defined
+     */
+    public String getQualifiedTableName() {
+        return schema == null ? tableName : schema + "." + tableName;
+    }
+
+    /**
+     * Creation of the marker table which does nothing when the table already exists.
+     * All supported databases (PostgreSQL 9.1+, MySQL, H2) understand the <code>if not exists</code> clause.
+     */
+    String createTableIfNotExists() {
+        return "create table if not exists " + getQualifiedTableName() + columnsDefinition();
+    }
+
+    /**
+     * Creation of the marker table, a fallback when {@link #createTableIfNotExists()} is not supported.
+     */
+    String createTable() {
+        return "create table " + getQualifiedTableName() + columnsDefinition();
+    }
+
+    /**
+     * Insertion of a marker, parameters are the application pod name and the recovery pod name.
+     */
+    String insert() {
+        return "insert into " + getQualifiedTableName() + " (" + APPLICATION_POD_NAME_COLUMN + ", "
+            + RECOVERY_POD_NAME_COLUMN + ") values (?, ?)";
+    }
+
+    /**
+     * <p>
+     * Insertion of a marker which does nothing when the marker already exists, the update count
+     * says if the row was inserted. Parameters are the application pod name and the recovery pod name,
+     * repeated as many times as the statement contains the placeholders.
+     * <p>
+     * H2 <code>merge</code> reports the existing row as updated, the insert guarded by <code>not exists</code>
+     * is used instead and the duplicate key of a concurrent insert has to be handled by the caller.
+     * <p>
+     * There is no portable form of the statement for the generic SQL, the caller inserts the markers one by one
+     * with the plain {@link #insert()} and takes the duplicate key as the existing marker.
+     *
+     * @return the statement or null if the database is not known
+     */
+    String insertIfNotExists() {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                return insert() + " on conflict do nothing";
+            case MYSQL:
+                return "insert ignore" + insert().substring("insert".length());
+            case H2:
+                return "insert into " + getQualifiedTableName() + " (" + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + ")"
+                    + " select cast(? as varchar(255)), cast(? as varchar(255)) from dual where not exists (select 1 from "
+                    + getQualifiedTableName() + " where " + APPLICATION_POD_NAME_COLUMN + " = ? and " + RECOVERY_POD_NAME_COLUMN + " = ?)";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return name of the index on the recovery pod name column
+     */
+    public String getRecoveryPodIndexName() {
+        return tableName + "_REC_IDX";
+    }
+
+    /**
+     * @return name of the index on the heartbeat column
+     */
+    public String getHeartbeatIndexName() {
+        return tableName + "_HB_IDX";
+    }
+
+    /**
+     * The indexes of the marker table besides the primary key. The primary key starts with the application pod name
+     * and it can't be used for queries filtered only by the recovery pod name. The expiry of the markers
+     * is filtered by the heartbeat.
+     *
+     * @return names of the indexes mapped to the indexed columns
+     */
+    Map<String, String> getIndexes() {
+        Map<String, String> indexes = new LinkedHashMap<String, String>();
+        indexes.put(getRecoveryPodIndexName(), RECOVERY_POD_NAME_COLUMN);
+        if(isHeartbeat) indexes.put(getHeartbeatIndexName(), HEARTBEAT_COLUMN);
+        return indexes;
+    }
+
+    /**
+     * <p>
+     * Creation of the index which does nothing when the index already exists.
+     * <p>
+     * PostgreSQL builds the index concurrently not blocking the writers, but only outside of a transaction.
+     * A failed concurrent build leaves the index invalid, see {@link #selectInvalidIndex()}.
+     *
+     * @param indexName  name of the index
+     * @param column  indexed column
+     * @param isConcurrent  true if the index is built concurrently, the statement has to run outside of a transaction
+     * @return  the statement or null if the database does not support the <code>if not exists</code> clause for indexes
+     */
+    String createIndexIfNotExists(String indexName, String column, boolean isConcurrent) {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                // index is always created in the schema of the table, name can't be qualified
+                return "create index " + (isConcurrent ? "concurrently " : "") + "if not exists "
+                    + indexName + " on " + getQualifiedTableName() + " (" + column + ")";
+            case H2:
+                return "create index if not exists " + (schema == null ? "" : schema + ".") + indexName
+                    + " on " + getQualifiedTableName() + " (" + column + ")";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Query of the index of the marker table left invalid by a failed concurrent build,
+     * the parameter is the name of the index. The invalid index is not used by the queries
+     * but the <code>if not exists</code> clause takes it as existing.
+     *
+     * @return the query or null if the database does not build the indexes concurrently
+     */
+    String selectInvalidIndex() {
+        if(databaseType != DatabaseType.POSTGRESQL) return null;
+        return "select 1 from pg_index i join pg_class c on c.oid = i.indexrelid where not i.indisvalid"
+            + " and i.indrelid = '" + getQualifiedTableName() + "'::regclass and c.relname = lower(?)";
+    }
+
+    /**
+     * <p>
+     * Query of the catalog listing the indexes of the marker table together with the heartbeat column
+     * and the write counter table (see {@link #getWriteCounterTableName()}), each row has the name
+     * and the flag if the index is valid (always true for the column and the table).
+     * No row is returned when the table does not exist as every marker table has the primary key index.
+     * <p>
+     * It's a single catalog query running no DDL, cheaper than the statements creating the table and the indexes
+     * with the <code>if not exists</code> clause which take the table locks.
+     *
+     * @return the query or null if the catalog of the database is not known
+     */
+    String selectTableState() {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                String table = "to_regclass('" + getQualifiedTableName().replace("'", "''") + "')";
+                return "select c.relname, i.indisvalid from pg_index i join pg_class c on c.oid = i.indexrelid where i.indrelid = " + table
+                    + " union all select a.attname, true from pg_attribute a where a.attrelid = " + table
+                    + " and a.attname = '" + HEARTBEAT_COLUMN + "' and not a.attisdropped"
+                    + " union all select relname, true from pg_class where oid = to_regclass('"
+                    + qualify(getWriteCounterTableName()).replace("'", "''") + "')";
+            case MYSQL:
+                return "select index_name, 1 from information_schema.statistics" + catalogWhere(tableName)
+                    + " union all select column_name, 1 from information_schema.columns" + catalogWhere(tableName)
+                    + " and column_name = '" + HEARTBEAT_COLUMN + "'"
+                    + " union all select table_name, 1 from information_schema.tables" + catalogWhere(getWriteCounterTableName());
+            default:
+                return "select index_name, true from information_schema.indexes" + catalogWhere(tableName)
+                    + " union all select column_name, true from information_schema.columns" + catalogWhere(tableName)
+                    + " and upper(column_name) = '" + HEARTBEAT_COLUMN.toUpperCase() + "'"
+                    + " union all select table_name, true from information_schema.tables" + catalogWhere(getWriteCounterTableName());
+        }
+    }
+
+    /**
+     * @return where clause of the <code>information_schema</code> query filtering the table in the schema of the dialect
+     */
+    private String catalogWhere(String table) {
+        if(databaseType == DatabaseType.MYSQL) {
+            return " where table_schema = " + (schema == null ? "database()" : "'" + schema.replace("'", "''") + "'")
+                + " and table_name = '" + table.replace("'", "''") + "'";
+        }
+        return " where upper(table_schema) = " + (schema == null ? "upper(schema())" : "'" + schema.toUpperCase().replace("'", "''") + "'")
+            + " and upper(table_name) = '" + table.toUpperCase().replace("'", "''") + "'";
+    }
+
+    /**
+     * Dropping the invalid index, see {@link #selectInvalidIndex()}, not blocking the writers. It runs only outside of a transaction.
+     */
+    String dropIndexConcurrently(String indexName) {
+        return "drop index concurrently if exists " + qualify(indexName);
+    }
+
+    /**
+     * Creation of the index, see {@link #createIndexIfNotExists(String, String, boolean)}.
+     * MySQL builds the index in place not blocking the writers.
+     */
+    String createIndex(String indexName, String column) {
+        String ddl = "create index " + indexName + " on " + getQualifiedTableName() + " (" + column + ")";
+        if(databaseType == DatabaseType.MYSQL) ddl += " algorithm=inplace lock=none";
+        return ddl;
+    }
+
+    /**
+     * Adding the heartbeat column to the table created without it, the existing markers get the current time.
+     */
+    String addHeartbeatColumn() {
+        return "alter table " + getQualifiedTableName() + " add column " + heartbeatColumnDefinition();
+    }
+
+    /**
+     * Query of the current time of the database comparable with the heartbeat column.
+     * PostgreSQL stores the heartbeat as the local time of the session.
+     *
+     * @return the query or null if the database does not support the select without a table
+     */
+    String currentTimestamp() {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                return "select localtimestamp";
+            case MYSQL:
+            case H2:
+                return "select current_timestamp";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Refreshing the heartbeat of the markers, the filter has to be appended.
+     */
+    String touch() {
+        return "update " + getQualifiedTableName() + " set " + HEARTBEAT_COLUMN + " = current_timestamp";
+    }
+
+    /**
+     * <p>
+     * Deletion of a single chunk of the markers, the last parameter is the maximal number of deleted rows.
+     * PostgreSQL deletes the physical rows selected for update, with <code>skip locked</code> the chunk
+     * does not wait for rows locked by the concurrent transactions. The other databases always wait.
+     *
+     * @param whereClause  filter of the deleted markers, empty or starting with <code>where</code>
+     * @param isSkipLocked  true if the rows locked by the concurrent transactions are skipped
+     * @return the statement or null if the database does not support limiting of the deleted rows
+     */
+    String deleteChunk(String whereClause, boolean isSkipLocked) {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                return "delete from " + getQualifiedTableName() + " where ctid = any(array(select ctid from "
+                    + getQualifiedTableName() + whereClause + " limit ? for update" + (isSkipLocked ? " skip locked" : "") + "))";
+            case MYSQL:
+                return "delete from " + getQualifiedTableName() + whereClause + " order by "
+                    + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + " limit ?";
+            case H2:
+                return "delete from " + getQualifiedTableName() + whereClause + " limit ?";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Selection of the markers to be claimed which locks the selected rows, the last parameter is the maximal
+     * number of selected rows. The rows locked by the concurrent transactions are skipped and so the concurrent
+     * claims get different markers without waiting.
+     * <p>
+     * Without the <code>skip locked</code> support the selection locks the rows with the plain <code>for update</code>,
+     * the number of rows has to be limited by {@link java.sql.Statement#setMaxRows(int)}.
+     *
+     * @param whereClause  filter of the claimed markers, empty or starting with <code>where</code>
+     * @param isSkipLocked  true if the database supports <code>skip locked</code>, see {@link #isSkipLockedSupported(int, int)}
+     * @return the query
+     */
+    String selectForClaim(String whereClause, boolean isSkipLocked) {
+        String select = "select " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + " from " + getQualifiedTableName()
+            + whereClause + " order by " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN;
+        if(isSkipLocked) return select + " limit ? for update skip locked";
+        return select + " for update";
+    }
+
+    /**
+     * PostgreSQL supports the <code>skip locked</code> clause since version 9.5, MySQL since version 8.0.
+     *
+     * @param databaseMajorVersion  major version of the database, see {@link java.sql.DatabaseMetaData#getDatabaseMajorVersion()}
+     * @param databaseMinorVersion  minor version of the database
+     * @return true if the locked rows could be skipped by the <code>select ... for update</code>
+     */
+    boolean isSkipLockedSupported(int databaseMajorVersion, int databaseMinorVersion) {
+        if(databaseType == DatabaseType.POSTGRESQL)
+            return databaseMajorVersion > 9 || (databaseMajorVersion == 9 && databaseMinorVersion >= 5);
+        return databaseType == DatabaseType.MYSQL && databaseMajorVersion >= 8;
+    }
+
+    /**
+     * @return name of the temporary table holding the live pod names for the reconciliation
+     */
+    String getLivePodsTableName() {
+        return tableName + "_LIVE";
+    }
+
+    /**
+     * Creation of the temporary table holding the live pod names which is dropped
+     * when the connection is closed. The creation does not commit the current transaction.
+     */
+    String createLivePodsTableIfNotExists() {
+        String columns = " (podName varchar(255) not null, primary key (podName))";
+        if(databaseType == DatabaseType.MYSQL)
+            return "create temporary table if not exists " + getLivePodsTableName() + columns;
+        if(databaseType == DatabaseType.H2)
+            return "create local temporary table if not exists " + getLivePodsTableName() + columns + " transactional";
+        return "create local temporary table " + getLivePodsTableName() + columns;
+    }
+
+    /**
+     * Name of the database lock coordinating the work of the pods at the marker table.
+     * MySQL limits the lock names to 64 characters, the longer name is shortened with its hash.
+     *
+     * @param podName  pod name the lock is specific for, null for the lock of the whole table
+     * @return the lock name
+     */
+    String getLockName(String podName) {
+        String lockName = getQualifiedTableName() + (podName == null || podName.isEmpty() ? "" : ":" + podName);
+        if(databaseType == DatabaseType.MYSQL && lockName.length() > MYSQL_LOCK_NAME_LENGTH)
+            lockName = lockName.substring(0, MYSQL_LOCK_NAME_LENGTH - 9) + "#" + String.format("%08x", lockName.hashCode());
+        return lockName;
+    }
+
+    /**
+     * <p>
+     * Acquiring the session level lock of the database which is held until it's released or the connection is closed.
+     * <p>
+     * PostgreSQL waits for the advisory lock at most the <code>lock_timeout</code> which is set for the current
+     * transaction by the first parameter, the lock name is the second parameter. The lock depends on the result
+     * of the <code>set_config</code> and so the timeout is always set before the waiting. MySQL takes the lock name
+     * and the timeout in seconds. The zero timeout means no waiting.
+     *
+     * @param timeoutSeconds  maximal time to wait for the lock
+     * @return the query returning true when the lock was acquired or null if the database does not support
+     *   the session level locks
+     */
+    String lock(long timeoutSeconds) {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                if(timeoutSeconds == 0) return "select pg_try_advisory_lock(hashtext(?))";
+                return "select true from set_config('lock_timeout', ?, true) lock_timeout,"
+                    + " pg_advisory_lock(hashtext(? || left(lock_timeout, 0)))";
+            case MYSQL:
+                return "select get_lock(?, ?) = 1";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Releasing the session level lock, the parameter is the lock name, see {@link #lock(long)}.
+     *
+     * @return the query returning true when the lock was released or null if the database does not support
+     *   the session level locks
+     */
+    String unlock() {
+        if(databaseType == null) return null;
+        switch(databaseType) {
+            case POSTGRESQL:
+                return "select pg_advisory_unlock(hashtext(?))";
+            case MYSQL:
+                return "select release_lock(?) = 1";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param sql  statement prepared at the connection
+     * @return true if the statement acquires the session level lock which is held until the connection is closed
+     */
+    boolean isSessionLock(String sql) {
+        return sql.equals(lock(0)) || sql.equals(lock(1));
+    }
+
+    /**
+     * @return name of the table with a row for every held lock when the database does not support the session level locks
+     */
+    String getLockTableName() {
+        return tableName + "_LOCK";
+    }
+
+    /**
+     * Creation of the table of the held locks, see {@link #getLockTableName()}.
+     */
+    String createLockTableIfNotExists() {
+        String columns = " (lockName varchar(255) not null, primary key (lockName))";
+        if(databaseType == DatabaseType.H2)
+            return "create table if not exists " + getQualifiedLockTableName() + columns;
+        return "create table " + getQualifiedLockTableName() + columns;
+    }
+
+    /**
+     * Acquiring the lock by inserting its row, the parameter is the lock name.
+     */
+    String insertLock() {
+        return "insert into " + getQualifiedLockTableName() + " (lockName) values (?)";
+    }
+
+    /**
+     * Releasing the lock by deleting its row, the parameter is the lock name.
+     */
+    String deleteLock() {
+        return "delete from " + getQualifiedLockTableName() + " where lockName = ?";
+    }
+
+    private String getQualifiedLockTableName() {
+        return qualify(getLockTableName());
+    }
+
+    private String qualify(String name) {
+        return (schema == null ? "" : schema + ".") + name;
+    }
+
+    /**
+     * @return name of the table with the single row counting the transactions which changed the markers
+     */
+    String getWriteCounterTableName() {
+        return tableName + "_WRITES";
+    }
+
+    /**
+     * Creation of the write counter table, see {@link #getWriteCounterTableName()},
+     * which does nothing when the table already exists.
+     */
+    String createWriteCounterTableIfNotExists() {
+        return "create table if not exists " + qualify(getWriteCounterTableName()) + " (id int not null, counter bigint not null, primary key (id))";
+    }
+
+    /**
+     * Insertion of the row of the write counter which does nothing when the row already exists.
+     * The duplicate key of a concurrent insert has to be handled by the caller when the database
+     * has no native conflict handling.
+     */
+    String insertWriteCounter() {
+        String counters = qualify(getWriteCounterTableName());
+        if(databaseType == DatabaseType.POSTGRESQL) return "insert into " + counters + " (id, counter) values (1, 0) on conflict do nothing";
+        if(databaseType == DatabaseType.MYSQL) return "insert ignore into " + counters + " (id, counter) values (1, 0)";
+        return "insert into " + counters + " (id, counter) values (1, 0)";
+    }
+
+    /**
+     * Increase of the write counter, it's executed in the transaction which changed the markers.
+     */
+    String incrementWriteCounter() {
+        return "update " + qualify(getWriteCounterTableName()) + " set counter = counter + 1 where id = 1";
+    }
+
+    /**
+     * Query of the write counter.
+     */
+    String selectWriteCounter() {
+        return "select counter from " + qualify(getWriteCounterTableName()) + " where id = 1";
+    }
+
+    /**
+     * @return name of the change log table with a row for every added and removed marker
+     */
+    String getChangesTableName() {
+        return tableName + "_CHANGES";
+    }
+
+    /**
+     * <p>
+     * Creation of the change log of the marker table maintained by triggers. Every inserted marker is logged
+     * with the operation <code>+</code>, every deleted one with <code>-</code>, the change of the pod names
+     * is logged as the removal and the addition. The version of the change is increasing,
+     * the time of the change is kept for pruning the log, see {@link #deleteChanges(long)}.
+     * <p>
+     * The statements are idempotent except the trigger creation which fails when the trigger exists,
+     * see {@link #isTriggerExistsError(SQLException)}. PostgreSQL notifies the listeners
+     * of channel {@link #getNotifyChannel()} about every change.
+     *
+     * @return the statements or null if the change log is not supported for the database
+     */
+    List<String> createChangeLog() {
+        if(databaseType == null) return null;
+        String changes = qualify(getChangesTableName());
+        String insertChange = "insert into " + changes + " (" + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + ", operation)";
+        switch(databaseType) {
+            case POSTGRESQL:
+                return Arrays.asList(
+                    "create table if not exists " + changes + " (version bigserial primary key, "
+                        + APPLICATION_POD_NAME_COLUMN + " varchar(255) not null, " + RECOVERY_POD_NAME_COLUMN + " varchar(255) not null, "
+                        + "operation char(1) not null, changed_at timestamp not null default current_timestamp)",
+                    "create or replace function " + qualify(tableName + "_CHANGES_FN") + "() returns trigger language plpgsql as $$ begin"
+                        + " if tg_op <> 'INSERT' then " + insertChange + " values (old." + APPLICATION_POD_NAME_COLUMN
+                        + ", old." + RECOVERY_POD_NAME_COLUMN + ", '-'); end if;"
+                        + " if tg_op <> 'DELETE' then " + insertChange + " values (new." + APPLICATION_POD_NAME_COLUMN
+                        + ", new." + RECOVERY_POD_NAME_COLUMN + ", '+'); end if;"
+                        + " perform pg_notify('" + getNotifyChannel() + "', ''); return null; end $$",
+                    "create trigger " + tableName + "_CHANGES_TR after insert or delete or update of " + APPLICATION_POD_NAME_COLUMN
+                        + ", " + RECOVERY_POD_NAME_COLUMN + " on " + getQualifiedTableName() + " for each row execute procedure "
+                        + qualify(tableName + "_CHANGES_FN") + "()");
+            case MYSQL:
+                return Arrays.asList(
+                    "create table if not exists " + changes + " (version bigint not null auto_increment, "
+                        + APPLICATION_POD_NAME_COLUMN + " varchar(255) not null, " + RECOVERY_POD_NAME_COLUMN + " varchar(255) not null, "
+                        + "operation char(1) not null, changed_at timestamp not null default current_timestamp, primary key (version))",
+                    "create trigger " + qualify(tableName + "_CHANGES_INS") + " after insert on " + getQualifiedTableName()
+                        + " for each row " + insertChange + " values (new." + APPLICATION_POD_NAME_COLUMN + ", new." + RECOVERY_POD_NAME_COLUMN + ", '+')",
+                    "create trigger " + qualify(tableName + "_CHANGES_DEL") + " after delete on " + getQualifiedTableName()
+                        + " for each row " + insertChange + " values (old." + APPLICATION_POD_NAME_COLUMN + ", old." + RECOVERY_POD_NAME_COLUMN + ", '-')",
+                    "create trigger " + qualify(tableName + "_CHANGES_UPD") + " after update on " + getQualifiedTableName()
+                        + " for each row begin if not (old." + APPLICATION_POD_NAME_COLUMN + " <=> new." + APPLICATION_POD_NAME_COLUMN
+                        + " and old." + RECOVERY_POD_NAME_COLUMN + " <=> new." + RECOVERY_POD_NAME_COLUMN + ") then "
+                        + insertChange + " values (old." + APPLICATION_POD_NAME_COLUMN + ", old." + RECOVERY_POD_NAME_COLUMN + ", '-'); "
+                        + insertChange + " values (new." + APPLICATION_POD_NAME_COLUMN + ", new." + RECOVERY_POD_NAME_COLUMN + ", '+'); "
+                        + "end if; end");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the error of the trigger creation means that the trigger already exists
+     */
+    boolean isTriggerExistsError(SQLException sqle) {
+        // 42710 PostgreSQL duplicate object, 1359 MySQL trigger already exists
+        return "42710".equals(sqle.getSQLState()) || (databaseType == DatabaseType.MYSQL && sqle.getErrorCode() == 1359);
+    }
+
+    /**
+     * Query of the changes newer than the version which is the parameter, ordered by the version.
+     */
+    String selectChanges() {
+        return "select version, " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + ", operation from "
+            + qualify(getChangesTableName()) + " where version > ? order by version";
+    }
+
+    /**
+     * Deletion of the changes logged before the retention period. The parameter is the version of the last change
+     * which is always kept, the version of the last change does not go back when the log is pruned.
+     *
+     * @param retentionSeconds  how long the changes are kept
+     * @return the statement or null if the change log is not supported for the database
+     */
+    String deleteChanges(long retentionSeconds) {
+        if(createChangeLog() == null) return null;
+        return "delete from " + qualify(getChangesTableName()) + " where changed_at < current_timestamp - " + interval(retentionSeconds)
+            + " and version < ?";
+    }
+
+    /**
+     * Query of the versions of the changes logged within the period, ordered by the version.
+     *
+     * @param periodSeconds  age of the oldest selected change
+     * @return the query or null if the change log is not supported for the database
+     */
+    String selectRecentChangeVersions(long periodSeconds) {
+        if(createChangeLog() == null) return null;
+        return "select version from " + qualify(getChangesTableName()) + " where changed_at >= current_timestamp - "
+            + interval(periodSeconds) + " order by version";
+    }
+
+    private String interval(long seconds) {
+        return databaseType == DatabaseType.POSTGRESQL ? "interval '" + seconds + " seconds'" : "interval " + seconds + " second";
+    }
+
+    /**
+     * Query of the version of the last change.
+     */
+    String selectLastChangeVersion() {
+        return "select coalesce(max(version), 0) from " + qualify(getChangesTableName());
+    }
+
+    /**
+     * Query of the modification counter the database keeps for the marker table. The counter is increased
+     * by every modification of the table, also by the rolled back one. H2 provides it as the
+     * <code>last_modification</code> column of the <code>information_schema.tables</code>.
+     *
+     * @return the query or null if the database does not provide the counter
+     */
+    String selectTableModification() {
+        if(databaseType != DatabaseType.H2) return null;
+        return "select coalesce(max(last_modification), 0) from information_schema.tables" + catalogWhere(tableName);
+    }
+
+    /**
+     * @return name of the PostgreSQL notification channel of the marker table changes
+     */
+    String getNotifyChannel() {
+        return (tableName + "_changes").toLowerCase();
+    }
+
+    /**
+     * @return true if the listeners are notified about the changes of the marker table
+     */
+    boolean isNotifySupported() {
+        return databaseType == DatabaseType.POSTGRESQL;
+    }
+
+    /**
+     * @return true if the pod names could be bound as an array parameter
+     *   and the deleted rows could be returned by the delete statement
+     */
+    boolean isArrayAndDeleteReturningSupported() {
+        return databaseType == DatabaseType.POSTGRESQL;
+    }
+
+    /**
+     * @return fetch size which makes the driver to stream the rows of a query
+     */
+    int getStreamingFetchSize() {
+        // MySQL driver streams row by row only with this special value, otherwise it reads the whole result
+        if(databaseType == DatabaseType.MYSQL) return Integer.MIN_VALUE;
+        return STREAMING_FETCH_SIZE;
+    }
+
+    /**
+     * @return true if the driver streams the rows only when the query runs in a transaction
+     */
+    boolean isStreamingInTransactionOnly() {
+        return databaseType == DatabaseType.POSTGRESQL;
+    }
+
+    /**
+     * @return statement copying the markers to the csv file with the header, see {@link MarkerCsv},
+     *   or null if the database does not support the copy
+     */
+    String copyOut() {
+        if(databaseType != DatabaseType.POSTGRESQL) return null;
+        return "copy (select " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + " from " + getQualifiedTableName()
+            + ") to stdout with (format csv, header)";
+    }
+
+    /**
+     * Copying the markers from the csv file with the header. The upsert copies the markers
+     * to the temporary table {@link #getImportTableName()} which is then merged by {@link #insertFromImportTable()}.
+     *
+     * @param isIfNotExists  true if the markers are copied to the temporary import table
+     * @return the statement or null if the database does not support the copy
+     */
+    String copyIn(boolean isIfNotExists) {
+        if(databaseType != DatabaseType.POSTGRESQL) return null;
+        return "copy " + (isIfNotExists ? getImportTableName() : getQualifiedTableName())
+            + " (" + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + ") from stdin with (format csv, header)";
+    }
+
+    /**
+     * @return name of the temporary table the markers are imported to before the upsert
+     */
+    String getImportTableName() {
+        return tableName + "_IMPORT";
+    }
+
+    /**
+     * @return statement creating the temporary import table dropped at the end of the transaction
+     */
+    String createImportTable() {
+        return "create temporary table " + getImportTableName() + " (" + APPLICATION_POD_NAME_COLUMN + " varchar(255) not null, "
+            + RECOVERY_POD_NAME_COLUMN + " varchar(255) not null) on commit drop";
+    }
+
+    /**
+     * @return statement inserting the markers of the import table which do not exist in the marker table
+     */
+    String insertFromImportTable() {
+        return "insert into " + getQualifiedTableName() + " (" + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + ")"
+            + " select " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + " from " + getImportTableName()
+            + " on conflict do nothing";
+    }
+
+    private String columnsDefinition() {
+        return " (" + APPLICATION_POD_NAME_COLUMN + " varchar(255) not null, "
+            + RECOVERY_POD_NAME_COLUMN + " varchar(255) not null, "
+            + (isHeartbeat ? heartbeatColumnDefinition() + ", " : "")
+            + "primary key (" + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN + "))";
+    }
+
+    private static String heartbeatColumnDefinition() {
+        return HEARTBEAT_COLUMN + " timestamp default current_timestamp not null";
+    }
+}
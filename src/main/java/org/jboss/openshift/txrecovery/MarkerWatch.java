@@ -0,0 +1,391 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.APPLICATION_POD_NAME_COLUMN;
+import static org.jboss.openshift.txrecovery.MarkerTableDialect.RECOVERY_POD_NAME_COLUMN;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.RecoveryMarkerDAO.MarkerChangeListener;
+
+/**
+ * <p>
+ * Watching the changes of the marker table with a single connection, see {@link RecoveryMarkerDAO#watch(long, long, MarkerChangeListener)}.
+ * The current markers are reported as added first, then only the added and removed markers are reported.
+ * <p>
+ * When the database supports the change log (see {@link MarkerTableDialect#createChangeLog()}) every poll reads
+ * only the changes newer than the last seen version, the cost is proportional to the number of changes.
+ * The markers and the version they are at are read in one transaction, a missing version which is not seen
+ * within the timeout makes the watch read the markers again.
+ * On PostgreSQL the watch waits for the notification of the change instead of sleeping for the poll interval.
+ * Otherwise every poll reads all the markers and compares them with the markers of the previous poll,
+ * or hands them over to the listener as a whole, see {@link MarkerChangeListener#onSnapshot(java.util.Collection)}.
+ * When the database keeps the modification counter of the table the markers are read only after the counter changed.
+ */
+final class MarkerWatch {
+    private static final Logger log = Logger.getLogger(MarkerWatch.class.getName());
+
+    /**
+     * The versions are taken before the commit, a change with a lower version could be committed later.
+     * A missing version is waited for this time, then the markers are read again as the version could belong
+     * to a rolled back transaction or to a transaction running longer.
+     */
+    static final long VERSION_GAP_TIMEOUT_MILLIS = 60 * 1000;
+    /**
+     * The changes older than the retention are deleted from the change log, a running watch prunes the log
+     * every prune interval.
+     */
+    static final long CHANGE_LOG_RETENTION_SECONDS = 60 * 60;
+    static final long CHANGE_LOG_PRUNE_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    private final Connection connection;
+    private final MarkerTableDialect dialect;
+    private final MarkerChangeListener listener;
+    private long numberOfChanges;
+    private Object pgConnection;
+    /**
+     * Version of the change log up to which all the changes were seen, followed by the versions seen above it.
+     */
+    private long lastVersion;
+    private final TreeSet<Long> seenVersions = new TreeSet<Long>();
+    /**
+     * Markers reported to the listener which does not take the snapshots, null otherwise.
+     */
+    private Set<ApplicationRecoveryPod> reported;
+
+    private MarkerWatch(Connection connection, MarkerTableDialect dialect, MarkerChangeListener listener) {
+        this.connection = connection;
+        this.dialect = dialect;
+        this.listener = listener;
+    }
+
+    /**
+     * Watching the marker table until the duration elapses or the thread is interrupted.
+     *
+     * @param connection  connection to the database, in the auto-commit mode the notifications are received
+     * @param dialect  dialect of the marker table
+     * @param pollIntervalMillis  maximal time between two polls of the changes
+     * @param durationMillis  time to watch, zero for watching until interrupted
+     * @param listener  receiving the changes
+     * @return number of reported changes
+     */
+    static long watch(Connection connection, MarkerTableDialect dialect, long pollIntervalMillis, long durationMillis,
+            MarkerChangeListener listener) throws SQLException {
+        MarkerWatch watch = new MarkerWatch(connection, dialect, listener);
+        long deadline = durationMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + durationMillis;
+        if(createChangeLog(connection, dialect)) watch.watchChangeLog(pollIntervalMillis, deadline);
+        else watch.watchSnapshots(pollIntervalMillis, deadline);
+        return watch.numberOfChanges;
+    }
+
+    /**
+     * Creating the change log of the marker table when the database supports it, the existing one is kept.
+     *
+     * @return true if the change log exists, false if it's not supported
+     */
+    static boolean createChangeLog(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        List<String> ddls = dialect.createChangeLog();
+        if(ddls == null) return false;
+        for(String ddl: ddls) {
+            Statement statement = connection.createStatement();
+            try {
+                statement.executeUpdate(ddl);
+            } catch (SQLException sqle) {
+                if(!dialect.isTriggerExistsError(sqle)) throw sqle;
+            } finally {
+                statement.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deleting the changes older than {@link #CHANGE_LOG_RETENTION_SECONDS}, the last change is kept.
+     *
+     * @return number of deleted changes
+     */
+    static int pruneChangeLog(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        PreparedStatement delete = connection.prepareStatement(dialect.deleteChanges(CHANGE_LOG_RETENTION_SECONDS));
+        try {
+            delete.setLong(1, selectLastChangeVersion(connection, dialect));
+            int numberOfDeleted = delete.executeUpdate();
+            if(numberOfDeleted > 0) log.fine("Number [" + numberOfDeleted + "] of changes pruned from the change log");
+            return numberOfDeleted;
+        } finally {
+            delete.close();
+        }
+    }
+
+    private static long selectLastChangeVersion(Connection connection, MarkerTableDialect dialect) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(dialect.selectLastChangeVersion());
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void watchChangeLog(long pollIntervalMillis, long deadline) throws SQLException {
+        Method getNotifications = dialect.isNotifySupported() ? notificationsMethod() : null;
+        if(getNotifications != null) execute("listen " + dialect.getNotifyChannel());
+        try {
+            pruneChangeLog(connection, dialect);
+            long prunedAt = System.currentTimeMillis();
+            resync();
+            long reportedVersion = lastVersion;
+
+            long gapSince = 0;
+            while(await(getNotifications, pollIntervalMillis, deadline)) {
+                boolean isChanged = false;
+                PreparedStatement select = connection.prepareStatement(dialect.selectChanges());
+                try {
+                    select.setLong(1, lastVersion);
+                    ResultSet rs = select.executeQuery();
+                    while(rs.next()) {
+                        if(!seenVersions.add(rs.getLong(1))) continue;
+                        change(rs.getString(2), rs.getString(3), "+".equals(rs.getString(4)));
+                        isChanged = true;
+                    }
+                } finally {
+                    select.close();
+                }
+                if(isChanged) listener.onPollFinished();
+
+                if(advanceLastVersion()) {
+                    gapSince = 0;
+                } else if(!seenVersions.isEmpty()) {
+                    if(gapSince == 0) gapSince = System.currentTimeMillis();
+                    if(System.currentTimeMillis() - gapSince > VERSION_GAP_TIMEOUT_MILLIS) {
+                        log.fine("Change versions from " + (lastVersion + 1) + " to " + (seenVersions.first() - 1)
+                            + " were not seen within the timeout, the markers are read again");
+                        resync();
+                        gapSince = 0;
+                    }
+                }
+                if(lastVersion != reportedVersion) {
+                    listener.onVersion(lastVersion);
+                    reportedVersion = lastVersion;
+                }
+                if(System.currentTimeMillis() - prunedAt > CHANGE_LOG_PRUNE_INTERVAL_MILLIS) {
+                    pruneChangeLog(connection, dialect);
+                    prunedAt = System.currentTimeMillis();
+                }
+            }
+        } finally {
+            if(getNotifications != null) execute("unlisten " + dialect.getNotifyChannel());
+        }
+    }
+
+    /**
+     * <p>
+     * Reading the markers and the versions of the changes in one repeatable read transaction, the markers contain
+     * exactly the changes visible to the transaction. The versions of the changes logged within
+     * the {@link #VERSION_GAP_TIMEOUT_MILLIS} are taken as seen and the last version starts below the oldest of them,
+     * the lower version of a transaction which was in flight is then selected by the next polls as the missing one.
+     * <p>
+     * The listener takes the markers as its new state, or the differences against the markers reported so far
+     * are reported, see {@link MarkerChangeListener#onSnapshot(java.util.Collection)}.
+     */
+    private void resync() throws SQLException {
+        Set<ApplicationRecoveryPod> current;
+        long maxVersion;
+        seenVersions.clear();
+        boolean isOwnTransaction = connection.getAutoCommit();
+        int isolation = connection.getTransactionIsolation();
+        if(isOwnTransaction) {
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setAutoCommit(false);
+        }
+        try {
+            maxVersion = selectLastChangeVersion(connection, dialect);
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(dialect.selectRecentChangeVersions(VERSION_GAP_TIMEOUT_MILLIS / 1000));
+                while(rs.next()) seenVersions.add(rs.getLong(1));
+            } finally {
+                statement.close();
+            }
+            current = selectMarkers();
+            if(isOwnTransaction) connection.commit();
+        } finally {
+            if(isOwnTransaction) {
+                // the read only transaction is finished by returning to the auto-commit mode
+                connection.setAutoCommit(true);
+                connection.setTransactionIsolation(isolation);
+            }
+        }
+        lastVersion = seenVersions.isEmpty() ? maxVersion : seenVersions.first() - 1;
+        advanceLastVersion();
+
+        if(listener.onSnapshot(current)) {
+            reported = null;
+        } else {
+            if(reported == null) reported = new HashSet<ApplicationRecoveryPod>();
+            for(ApplicationRecoveryPod marker: new ArrayList<ApplicationRecoveryPod>(reported)) {
+                if(!current.contains(marker)) change(marker.getApplicationPodName(), marker.getRecoveryPodName(), false);
+            }
+            for(ApplicationRecoveryPod marker: current) {
+                if(!reported.contains(marker)) change(marker.getApplicationPodName(), marker.getRecoveryPodName(), true);
+            }
+        }
+        listener.onVersion(lastVersion);
+        listener.onPollFinished();
+    }
+
+    /**
+     * Moving the last version over the seen versions which follow it without a gap.
+     *
+     * @return true if no gap is left, all the seen versions are below the last version
+     */
+    private boolean advanceLastVersion() {
+        while(!seenVersions.isEmpty() && seenVersions.first() <= lastVersion + 1) {
+            lastVersion = Math.max(lastVersion, seenVersions.pollFirst());
+        }
+        return seenVersions.isEmpty();
+    }
+
+    private void watchSnapshots(long pollIntervalMillis, long deadline) throws SQLException {
+        Set<ApplicationRecoveryPod> previous = new HashSet<ApplicationRecoveryPod>();
+        boolean isFirst = true;
+        long previousVersion = -1;
+        do {
+            // the version is read before the markers, a change committed in between is read again by the next poll
+            long version = ApplicationRecoveryPodJdbcDAO.getChangeVersion(connection, dialect);
+            if(version >= 0 && version == previousVersion) continue;
+            Set<ApplicationRecoveryPod> current = selectMarkers();
+            if(listener.onSnapshot(current)) {
+                if(version >= 0) listener.onVersion(version);
+                listener.onPollFinished();
+                previousVersion = version;
+                continue;
+            }
+            boolean isChanged = false;
+            for(ApplicationRecoveryPod marker: previous) {
+                if(current.contains(marker)) continue;
+                change(marker.getApplicationPodName(), marker.getRecoveryPodName(), false);
+                isChanged = true;
+            }
+            for(ApplicationRecoveryPod marker: current) {
+                if(previous.contains(marker)) continue;
+                change(marker.getApplicationPodName(), marker.getRecoveryPodName(), true);
+                isChanged = true;
+            }
+            if(version >= 0) listener.onVersion(version);
+            if(isChanged || isFirst) listener.onPollFinished();
+            isFirst = false;
+            previous = current;
+            previousVersion = version;
+        } while(await(null, pollIntervalMillis, deadline));
+    }
+
+    private Set<ApplicationRecoveryPod> selectMarkers() throws SQLException {
+        Set<ApplicationRecoveryPod> markers = new HashSet<ApplicationRecoveryPod>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("select " + APPLICATION_POD_NAME_COLUMN + ", " + RECOVERY_POD_NAME_COLUMN
+                + " from " + dialect.getQualifiedTableName());
+            while(rs.next()) markers.add(new ApplicationRecoveryPod(rs.getString(1), rs.getString(2)));
+        } finally {
+            statement.close();
+        }
+        return markers;
+    }
+
+    private void change(String applicationPodName, String recoveryPodName, boolean isAdded) {
+        listener.onChange(applicationPodName, recoveryPodName, isAdded);
+        numberOfChanges++;
+        if(reported == null) return;
+        if(isAdded) reported.add(new ApplicationRecoveryPod(applicationPodName, recoveryPodName));
+        else reported.remove(new ApplicationRecoveryPod(applicationPodName, recoveryPodName));
+    }
+
+    /**
+     * Waiting for the notification of a change or for the poll interval.
+     *
+     * @return false when the watch is over
+     */
+    private boolean await(Method getNotifications, long pollIntervalMillis, long deadline) throws SQLException {
+        long waitMillis = Math.min(pollIntervalMillis, deadline - System.currentTimeMillis());
+        if(waitMillis <= 0 || Thread.currentThread().isInterrupted()) return false;
+        if(getNotifications != null) {
+            try {
+                getNotifications.invoke(pgConnection, (int) waitMillis);
+                return true;
+            } catch (InvocationTargetException ite) {
+                if(ite.getCause() instanceof SQLException) throw (SQLException) ite.getCause();
+                throw new IllegalStateException("Cannot wait for notifications at " + connection, ite.getCause());
+            } catch (IllegalAccessException iae) {
+                throw new IllegalStateException("Cannot wait for notifications at " + connection, iae);
+            }
+        }
+        try {
+            Thread.sleep(waitMillis);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * The PostgreSQL driver is not a compile time dependency, the notifications are received by reflection.
+     * The connection is unwrapped as the pooled connection is a proxy of the driver connection.
+     *
+     * @return method waiting for the notifications or null if the driver does not provide it
+     */
+    private Method notificationsMethod() {
+        try {
+            Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection", true, connection.getClass().getClassLoader());
+            pgConnection = connection.unwrap(pgConnectionClass);
+            return pgConnectionClass.getMethod("getNotifications", int.class);
+        } catch (ReflectiveOperationException | SQLException e) {
+            log.log(Level.FINE, "Connection " + connection + " does not receive notifications, changes are polled", e);
+            return null;
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.executeUpdate(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
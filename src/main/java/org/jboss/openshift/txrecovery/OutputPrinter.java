@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.openshift.txrecovery;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.jboss.openshift.txrecovery.types.OutputFormatType;
+
+/**
+ * <p>
+ * Printing the output of a command as a single line formatted by the {@link OutputFormatType}.
+ * The values are written as they come, the output is never collected in memory.
+ * <p>
+ * A pair of application and recovery pod names is printed as <code>application:recovery</code>,
+ * with the outcome of a bulk command as <code>application:recovery=outcome</code>.
+ * The watch prints a line for every poll which found changes, see {@link #nextLine()}.
+ */
+final class OutputPrinter {
+    static final String PAIR_SEPARATOR = ":";
+    static final String OUTCOME_SEPARATOR = "=";
+    static final String ADDED_SIGN = "+";
+    static final String REMOVED_SIGN = "-";
+
+    private final Appendable out;
+    private final OutputFormatType format;
+    private final String prefix;
+    private boolean isStarted, isFinished, isEmpty = true;
+
+    OutputPrinter(Appendable out, OutputFormatType format) {
+        this(out, format, "");
+    }
+
+    /**
+     * @param out  where the output is written to
+     * @param format  format of the output
+     * @param prefix  written at the start of the output line
+     */
+    OutputPrinter(Appendable out, OutputFormatType format, String prefix) {
+        this.out = out;
+        this.format = format == null ? OutputFormatType.LIST_SPACE : format;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Printing a single value.
+     */
+    void print(String value) {
+        print(value, null);
+    }
+
+    /**
+     * Printing the pod names of a record, null name is not printed.
+     */
+    void print(String applicationPodName, String recoveryPodName) {
+        print(applicationPodName, recoveryPodName, null);
+    }
+
+    /**
+     * Printing the pod names of a record with the outcome of the operation with the record
+     * as <code>application:recovery=outcome</code>, the unknown (negative) outcome is printed as <code>?</code>.
+     */
+    void print(String applicationPodName, String recoveryPodName, long outcome) {
+        print(applicationPodName, recoveryPodName, outcome < 0 ? "?" : String.valueOf(outcome));
+    }
+
+    /**
+     * Printing the pod names of a changed record as <code>+application:recovery</code> when the record
+     * was added and as <code>-application:recovery</code> when it was removed.
+     */
+    void printChange(String applicationPodName, String recoveryPodName, boolean isAdded) {
+        try {
+            start();
+            if(!isEmpty) out.append(separator());
+            out.append(isAdded ? ADDED_SIGN : REMOVED_SIGN);
+            isEmpty = true;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Cannot print output", ioe);
+        }
+        print(applicationPodName, recoveryPodName, null);
+    }
+
+    /**
+     * Finishing the output line and starting the next one, the next line is started with the next printed value.
+     */
+    void nextLine() {
+        if(!isStarted) return;
+        finish();
+        isStarted = false;
+        isFinished = false;
+        isEmpty = true;
+    }
+
+    private void print(String applicationPodName, String recoveryPodName, String outcome) {
+        try {
+            start();
+            if(!isEmpty) out.append(separator());
+            isEmpty = false;
+            if(applicationPodName != null) out.append(applicationPodName);
+            if(applicationPodName != null && recoveryPodName != null) out.append(PAIR_SEPARATOR);
+            if(recoveryPodName != null) out.append(recoveryPodName);
+            if(outcome != null) out.append(OUTCOME_SEPARATOR).append(outcome);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Cannot print output", ioe);
+        }
+    }
+
+    /**
+     * Finishing the output line and flushing it.
+     */
+    void finish() {
+        if(isFinished) return;
+        try {
+            start();
+            if(format == OutputFormatType.RAW) out.append("]");
+            endLine();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Cannot print output", ioe);
+        }
+    }
+
+    /**
+     * Printing the whole output line printed by the same command before, e.g. taken from the result cache.
+     * The output is finished then.
+     *
+     * @param line  the output line without the prefix and the line separator
+     */
+    void printLine(String line) {
+        try {
+            isStarted = true;
+            out.append(prefix).append(line);
+            endLine();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Cannot print output", ioe);
+        }
+    }
+
+    /**
+     * Terminating the output line which was started but not finished, e.g. when the query failed.
+     */
+    void abort() {
+        if(!isStarted || isFinished) return;
+        try {
+            endLine();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Cannot print output", ioe);
+        }
+    }
+
+    private void start() throws IOException {
+        if(isStarted) return;
+        isStarted = true;
+        out.append(prefix);
+        if(format == OutputFormatType.RAW) out.append("[");
+    }
+
+    private void endLine() throws IOException {
+        isFinished = true;
+        out.append(System.lineSeparator());
+        if(out instanceof Flushable) ((Flushable) out).flush();
+    }
+
+    private String separator() {
+        switch(format) {
+            case LIST_COMMA:
+            case RAW:
+                return ", ";
+            case LIST_SPACE:
+            default:
+                return " ";
+        }
+    }
+}
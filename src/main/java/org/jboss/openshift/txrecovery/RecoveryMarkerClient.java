@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+
+/**
+ * <p>
+ * Library API of the recovery markers for the applications embedding the tool, e.g. an operator
+ * which would otherwise start a JVM for every marker operation. The client is created once
+ * over a reusable {@link DataSource} (connection pool) or Hibernate {@link SessionFactory}
+ * and it's shared by the concurrent callers.
+ * <p>
+ * Every operation runs with its own DAO (and so its own connection) at the bounded executor of the client
+ * and returns {@link CompletableFuture} completed with the result or with the failure. When the queue of the executor
+ * is full the future fails with {@link RejectedExecutionException}, the caller is not blocked.
+ * The pod name which is null or empty does not filter the records.
+ */
+public class RecoveryMarkerClient implements AutoCloseable {
+    public static final int DEFAULT_THREADS = 4;
+    static final int QUEUE_SIZE_PER_THREAD = 64;
+
+    private final RecoveryMarkerDAOFactory daoFactory;
+    private final boolean isDAOFactoryOwned;
+    private final ThreadPoolExecutor executor;
+    private final int batchSize;
+
+    /**
+     * Client over the data source of the caller.
+     *
+     * @param dataSource  source of the connections, it's not closed by the client
+     * @param dialect  dialect of the marker table
+     * @param threads  maximal number of concurrently running operations
+     */
+    public RecoveryMarkerClient(DataSource dataSource, MarkerTableDialect dialect, int threads) {
+        this(new DataSourceDAOFactory(dataSource, dialect), false, threads, ParsedArguments.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Client over the session factory of the caller.
+     *
+     * @param sessionFactory  session factory mapping the {@link ApplicationRecoveryPod} entity, it's not closed by the client
+     * @param dialect  dialect of the marker table
+     * @param threads  maximal number of concurrently running operations
+     */
+    public RecoveryMarkerClient(SessionFactory sessionFactory, MarkerTableDialect dialect, int threads) {
+        this(new HibernateDAOFactory(sessionFactory, dialect), false, threads, ParsedArguments.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Client owning the factory of the engine and the database defined by the cli arguments.
+     *
+     * @param parsedArguments  arguments defining the engine, the database connection and the batch size
+     * @param threads  maximal number of concurrently running operations
+     */
+    public RecoveryMarkerClient(ParsedArguments parsedArguments, int threads) {
+        this(RecoveryMarkerDAOFactory.create(parsedArguments), true, threads, parsedArguments.getBatchSize());
+    }
+
+    private RecoveryMarkerClient(RecoveryMarkerDAOFactory daoFactory, boolean isDAOFactoryOwned, int threads, int batchSize) {
+        if(threads < 1) throw new IllegalArgumentException("Number of threads has to be positive but it's " + threads);
+        this.daoFactory = daoFactory;
+        this.isDAOFactoryOwned = isDAOFactoryOwned;
+        this.batchSize = batchSize;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        // the threads are started on demand, the synchronous calls do not start any
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(threads * QUEUE_SIZE_PER_THREAD), runnable -> {
+                Thread thread = new Thread(runnable, "marker-client-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creating the marker table with its indexes when it does not exist.
+     *
+     * @return future of true if the table exists
+     */
+    public CompletableFuture<Boolean> createTable() {
+        return submit(dao -> dao.createTable());
+    }
+
+    /**
+     * Inserting the marker, the future fails when the marker can't be inserted (e.g. it already exists).
+     */
+    public CompletableFuture<Void> insert(String applicationPodName, String recoveryPodName) {
+        return submit(dao -> {
+            if(!dao.saveRecord(applicationPodName, recoveryPodName))
+                throw new IllegalStateException("Cannot insert marker " + new ApplicationRecoveryPod(applicationPodName, recoveryPodName));
+            return null;
+        });
+    }
+
+    /**
+     * Inserting the marker unless it exists.
+     *
+     * @return future of true if the marker was inserted, false if it existed
+     */
+    public CompletableFuture<Boolean> insertIfNotExists(String applicationPodName, String recoveryPodName) {
+        return submit(dao -> dao.saveRecordIfNotExists(applicationPodName, recoveryPodName));
+    }
+
+    /**
+     * Inserting the markers with JDBC batches in a single transaction,
+     * see {@link RecoveryMarkerDAO#saveRecords(List, boolean, int)}.
+     *
+     * @return future of the number of inserted rows for every marker
+     */
+    public CompletableFuture<int[]> insertAll(List<ApplicationRecoveryPod> markers, boolean isIfNotExists) {
+        return submit(dao -> dao.saveRecords(markers, isIfNotExists, batchSize));
+    }
+
+    /**
+     * Deleting the markers filtered by the pod names, both names null delete all the markers.
+     *
+     * @return future of the number of deleted markers
+     */
+    public CompletableFuture<Integer> delete(String applicationPodName, String recoveryPodName) {
+        return submit(dao -> dao.delete(applicationPodName, recoveryPodName));
+    }
+
+    /**
+     * Deleting the markers matching the filters with JDBC batches in a single transaction,
+     * see {@link RecoveryMarkerDAO#deleteRecords(List, int)}.
+     *
+     * @return future of the number of deleted rows for every filter
+     */
+    public CompletableFuture<int[]> deleteAll(List<ApplicationRecoveryPod> filters) {
+        return submit(dao -> dao.deleteRecords(filters, batchSize));
+    }
+
+    /**
+     * @return future of the markers filtered by the pod names
+     */
+    public CompletableFuture<Collection<ApplicationRecoveryPod>> select(String applicationPodName, String recoveryPodName) {
+        return submit(dao -> dao.getRecords(applicationPodName, recoveryPodName));
+    }
+
+    /**
+     * @return future of true if a marker filtered by the pod names exists
+     */
+    public CompletableFuture<Boolean> exists(String applicationPodName, String recoveryPodName) {
+        return submit(dao -> dao.exists(applicationPodName, recoveryPodName));
+    }
+
+    /**
+     * @return future of the number of the markers filtered by the pod names
+     */
+    public CompletableFuture<Long> count(String applicationPodName, String recoveryPodName) {
+        return submit(dao -> dao.count(applicationPodName, recoveryPodName));
+    }
+
+    /**
+     * Running the work with its own DAO at the executor of the client.
+     *
+     * @param work  operation with the DAO, the DAO is closed when the work finishes
+     * @return future of the result of the work
+     */
+    public <T> CompletableFuture<T> submit(Function<RecoveryMarkerDAO, T> work) {
+        try {
+            return CompletableFuture.supplyAsync(() -> call(work), executor);
+        } catch (RejectedExecutionException ree) {
+            CompletableFuture<T> rejected = new CompletableFuture<T>();
+            rejected.completeExceptionally(ree);
+            return rejected;
+        }
+    }
+
+    /**
+     * Running the work with its own DAO at the calling thread.
+     *
+     * @param work  operation with the DAO, the DAO is closed when the work finishes
+     * @return result of the work
+     */
+    public <T> T call(Function<RecoveryMarkerDAO, T> work) {
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        try {
+            return work.apply(dao);
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Stopping the executor after the submitted operations finish, the factory is closed
+     * when it was created by the client.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if(isDAOFactoryOwned) daoFactory.close();
+        }
+    }
+}
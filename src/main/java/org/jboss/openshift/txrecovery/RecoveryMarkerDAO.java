@@ -0,0 +1,391 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.jboss.openshift.txrecovery.types.ProjectionType;
+
+/**
+ * Data manipulation operations working with the table of recovery markers.
+ * The DAO is bound to a single database connection which is released by {@link #close()}.
+ * <p>
+ * Every operation runs in its own transaction unless a transaction was started
+ * with {@link #beginTransaction()}, then the operations join it.
+ */
+public interface RecoveryMarkerDAO extends AutoCloseable {
+
+    /**
+     * Save a single record with pod name content.
+     *
+     * @param applicationPodName  app pod name to be saved
+     * @param recoveryPodName  recovery pod name to be saved
+     * @return true if saved successfully, false otherwise
+     */
+    boolean saveRecord(String applicationPodName, String recoveryPodName);
+
+    /**
+     * Save a single record unless it already exists. The existing record is not an error,
+     * it costs a single statement without any exception or rollback.
+     *
+     * @param applicationPodName  app pod name to be saved
+     * @param recoveryPodName  recovery pod name to be saved
+     * @return true if the record was inserted, false if it already existed
+     * @throws IllegalStateException  when the record cannot be saved
+     */
+    boolean saveRecordIfNotExists(String applicationPodName, String recoveryPodName);
+
+    /**
+     * Delete records filtered by the pod names, null or empty filter is not used.
+     *
+     * @param applicationPodName  app pod name to filter the deleted records by
+     * @param recoveryPodName  recovery pod name to filter the deleted records by
+     * @return number of deleted records
+     */
+    int delete(String applicationPodName, String recoveryPodName);
+
+    /**
+     * Moving the records of the recovery pod to the other recovery pod in a single transaction.
+     * When the application pod is already marked for the new recovery pod its record of the old recovery pod
+     * is deleted.
+     *
+     * @param applicationPodName  app pod name to filter the moved records by, null for all application pods
+     * @param oldRecoveryPodName  recovery pod name the records are moved from
+     * @param newRecoveryPodName  recovery pod name the records are moved to
+     * @return number of moved records, not counting the deleted ones
+     */
+    long reassign(String applicationPodName, String oldRecoveryPodName, String newRecoveryPodName);
+
+    /**
+     * Claiming up to the limit of records of the recovery pod for the other recovery pod in a single transaction.
+     * The claimed records are moved to the new recovery pod, see {@link #reassign(String, String, String)}.
+     * The concurrent claims do not wait for each other and they never claim the same record.
+     *
+     * @param applicationPodName  app pod name to filter the claimed records by, null for all application pods
+     * @param oldRecoveryPodName  recovery pod name the records are claimed from
+     * @param newRecoveryPodName  recovery pod name claiming the records
+     * @param limit  maximal number of claimed records
+     * @param consumer  receiving application pod name and new recovery pod name of every claimed record
+     * @return number of claimed records
+     */
+    long claim(String applicationPodName, String oldRecoveryPodName, String newRecoveryPodName, int limit,
+        BiConsumer<String, String> consumer);
+
+    /**
+     * Delete records filtered by the pod names in chunks of bounded size. Every chunk is committed separately
+     * unless a transaction was started with {@link #beginTransaction()}, the concurrent inserts are not blocked
+     * for the whole delete then. The progress is logged after every chunk.
+     *
+     * @param applicationPodName  app pod name to filter the deleted records by
+     * @param recoveryPodName  recovery pod name to filter the deleted records by
+     * @param chunkSize  maximal number of records deleted in one chunk
+     * @param pauseMillis  pause between the chunks in milliseconds
+     * @return number of deleted records
+     */
+    long deleteInChunks(String applicationPodName, String recoveryPodName, int chunkSize, long pauseMillis);
+
+    /**
+     * Save the records with JDBC batches of the provided size. All the records are saved in a single transaction,
+     * the transaction started by {@link #beginTransaction()} is joined.
+     *
+     * @param records  records to be saved
+     * @param isIfNotExists  true if the existing records are skipped, see {@link #saveRecordIfNotExists(String, String)}
+     * @param batchSize  maximal number of records sent to the database in one batch
+     * @return number of inserted rows for every record in the order of the records,
+     *   {@link java.sql.Statement#SUCCESS_NO_INFO} when the driver does not report it
+     * @throws IllegalStateException  when the records cannot be saved, nothing is saved then
+     */
+    int[] saveRecords(List<ApplicationRecoveryPod> records, boolean isIfNotExists, int batchSize);
+
+    /**
+     * Delete records filtered by the pod names of every filter with JDBC batches of the provided size,
+     * in a single transaction, see {@link #saveRecords(List, boolean, int)}.
+     *
+     * @param filters  pod names to filter the deleted records by, null or empty pod name is not used
+     * @param batchSize  maximal number of filters sent to the database in one batch
+     * @return number of deleted rows for every filter in the order of the filters
+     * @throws IllegalArgumentException  when a filter does not define any pod name
+     */
+    int[] deleteRecords(List<ApplicationRecoveryPod> filters, int batchSize);
+
+    /**
+     * Refresh the heartbeat of the records filtered by the pod names with JDBC batches of the provided size,
+     * all in a single transaction. A filter with no pod name defined touches all the records.
+     *
+     * @param filters  filters of the touched records
+     * @param batchSize  maximal number of filters sent to the database in one batch
+     * @return number of touched rows for every filter in the order of the filters
+     * @throws IllegalStateException  when the table is not defined with the heartbeat column
+     */
+    int[] touchRecords(List<ApplicationRecoveryPod> filters, int batchSize);
+
+    /**
+     * Delete records whose heartbeat is older than the time to live in chunks of bounded size,
+     * see {@link #deleteInChunks(String, String, int, long)}.
+     *
+     * @param ttlSeconds  time to live of the record since its last heartbeat in seconds
+     * @param chunkSize  maximal number of records deleted in one chunk
+     * @param pauseMillis  pause between the chunks in milliseconds
+     * @return number of deleted records
+     * @throws IllegalStateException  when the table is not defined with the heartbeat column
+     */
+    long expire(long ttlSeconds, int chunkSize, long pauseMillis);
+
+    /**
+     * Delete records of the pods which are not live, all in a single transaction.
+     *
+     * @param livePodNames  names of the currently live pods, it has to contain at least one name
+     * @param scope  pod names checked to be live, application pods, recovery pods or both of them ({@link ProjectionType#PAIRS})
+     * @param batchSize  maximal number of pod names sent to the database in one batch
+     * @param consumer  receiving application pod name and recovery pod name of every deleted record
+     * @return number of deleted records
+     */
+    long deleteNotLive(Collection<String> livePodNames, ProjectionType scope, int batchSize, BiConsumer<String, String> consumer);
+
+    /**
+     * Acquire the database lock coordinating the work of the pods. The lock is identified by the table name
+     * and the pod name and it's held until it's released by {@link #unlock(String)} or until the DAO is closed.
+     * When the database has no session level locks the lock is a row of a lock table which is released
+     * only by the unlock.
+     *
+     * @param podName  pod name the lock is specific for, null for the lock of the whole table
+     * @param timeoutSeconds  maximal time to wait for the lock, zero for no waiting
+     * @return true if the lock was acquired, false if the timeout elapsed
+     */
+    boolean lock(String podName, long timeoutSeconds);
+
+    /**
+     * Release the database lock acquired by {@link #lock(String, long)}.
+     *
+     * @param podName  pod name the lock is specific for, null for the lock of the whole table
+     * @return true if the lock was released, false if it was not held
+     */
+    boolean unlock(String podName);
+
+    /**
+     * To get records that contains specified app pod name or recovery pod name.
+     *
+     * @param applicationPodName  app pod name to filter recovery markers by
+     * @param recoveryPodName  rec pod name to filter recovery markers by
+     * @return the records
+     */
+    Collection<ApplicationRecoveryPod> getRecords(String applicationPodName, String recoveryPodName);
+
+    /**
+     * Verifies if any record filtered by the pod names exists, the database returns at most one row.
+     *
+     * @param applicationPodName  app pod name to filter recovery markers by
+     * @param recoveryPodName  rec pod name to filter recovery markers by
+     * @return true if a record exists
+     */
+    boolean exists(String applicationPodName, String recoveryPodName);
+
+    /**
+     * Counting the records filtered by the pod names in the database.
+     *
+     * @param applicationPodName  app pod name to filter recovery markers by
+     * @param recoveryPodName  rec pod name to filter recovery markers by
+     * @return number of the records
+     */
+    long count(String applicationPodName, String recoveryPodName);
+
+    /**
+     * Counting the records filtered by the pod names grouped by one of the pod names in the database.
+     *
+     * @param applicationPodName  app pod name to filter recovery markers by
+     * @param recoveryPodName  rec pod name to filter recovery markers by
+     * @param groupBy  pod name the records are grouped by, {@link ProjectionType#PAIRS} is not permitted
+     * @param consumer  receiving the pod name and the number of its records for every group
+     * @return number of the groups
+     */
+    long countGroupedBy(String applicationPodName, String recoveryPodName, ProjectionType groupBy, BiConsumer<String, Long> consumer);
+
+    /**
+     * Streaming the records filtered by the pod names to the consumer. Only the projected columns
+     * are read and the rows are fetched in chunks, the records are never collected in memory.
+     *
+     * @param applicationPodName  app pod name to filter recovery markers by
+     * @param recoveryPodName  rec pod name to filter recovery markers by
+     * @param projection  columns to be read, the column which is not projected is passed to the consumer as null
+     * @param isDistinct  true if the duplicate rows are removed by the database
+     * @param consumer  receiving application pod name and recovery pod name of every row
+     * @return number of streamed rows
+     */
+    long streamRecords(String applicationPodName, String recoveryPodName, ProjectionType projection, boolean isDistinct,
+        BiConsumer<String, String> consumer);
+
+    /**
+     * Exporting the records filtered by the pod names to the csv file of {@link MarkerCsv}.
+     * The records are streamed to the channel, they are never collected in memory.
+     *
+     * @param applicationPodName  app pod name to filter recovery markers by
+     * @param recoveryPodName  rec pod name to filter recovery markers by
+     * @param channel  where the file is written to, it's not closed
+     * @return number of exported records
+     */
+    long exportRecords(String applicationPodName, String recoveryPodName, WritableByteChannel channel);
+
+    /**
+     * Importing the records from the csv file of {@link MarkerCsv} in a single transaction.
+     * The file is read in chunks of the batch size, the records are never collected in memory.
+     *
+     * @param channel  where the file is read from, it's not closed
+     * @param isIfNotExists  true if the existing records are skipped, otherwise the import fails on them
+     * @param batchSize  maximal number of records inserted by one JDBC batch
+     * @return number of inserted records
+     */
+    long importRecords(ReadableByteChannel channel, boolean isIfNotExists, int batchSize);
+
+    /**
+     * Watch the changes of the records with a single connection. The current records are reported as added first,
+     * then the added and removed records are reported as they are found by the polls of the changes.
+     *
+     * @param pollIntervalMillis  maximal time between two polls of the changes in milliseconds
+     * @param durationMillis  time to watch in milliseconds, zero for watching until the thread is interrupted
+     * @param listener  receiving the changes
+     * @return number of reported changes
+     */
+    long watch(long pollIntervalMillis, long durationMillis, MarkerChangeListener listener);
+
+    /**
+     * Version of the last change of the records taken from the change log of the table,
+     * the version is increased by every insert and delete. The change log is not created,
+     * see {@link #createChangeLog()}. On H2 the modification counter of the table is used,
+     * it's increased by every modification of the table.
+     * <p>
+     * The versions of the change log are taken before the commit, a change with a lower version
+     * could be committed after the change with the returned version.
+     *
+     * @return version of the last change, -1 when the database provides neither the change log nor the counter
+     */
+    long getChangeVersion();
+
+    /**
+     * Value of the write counter of the table. The counter is a single row of a side table which is increased
+     * in the same transaction as every insert and delete made by this tool, the counter read after the commit
+     * covers all the committed writes of the tool. Writes made by other applications do not increase it.
+     * The counter table is created together with the marker table, or with the next write to an existing table.
+     *
+     * @return value of the write counter, -1 when the counter table or its row does not exist
+     */
+    long getWriteCounter();
+
+    /**
+     * Creating the change log of the table maintained by triggers, the existing one is kept.
+     * The changes older than one hour are deleted from the log.
+     *
+     * @return true if the change log exists, false if the database does not support it or it cannot be created
+     */
+    boolean createChangeLog();
+
+    /**
+     * Verifies if table name exists in the database.
+     *
+     * @param tableName  table name to be found
+     * @return true if found, false otherwise
+     */
+    boolean tableExists(String tableName);
+
+    /**
+     * Creating the table of the recovery markers together with the index on the recovery pod name,
+     * it does nothing when the table already exists.
+     *
+     * @return true if the table exists, false otherwise
+     */
+    boolean createTable();
+
+    /**
+     * Creating the index on the recovery pod name at the existing table of the recovery markers.
+     *
+     * @return true if the index exists, false otherwise
+     */
+    boolean createIndex();
+
+    /**
+     * Starting a transaction which the following operations join
+     * until it's finished by {@link #commitTransaction()} or {@link #rollbackTransaction()}.
+     */
+    void beginTransaction();
+
+    /**
+     * Committing the transaction started by {@link #beginTransaction()}.
+     */
+    void commitTransaction();
+
+    /**
+     * Rolling back the transaction started by {@link #beginTransaction()}.
+     * It does nothing when no transaction is active.
+     */
+    void rollbackTransaction();
+
+    /**
+     * Releasing the database connection of the DAO.
+     */
+    @Override
+    void close();
+
+    /**
+     * Receiving the changes of the records found by {@link RecoveryMarkerDAO#watch(long, long, MarkerChangeListener)}.
+     */
+    interface MarkerChangeListener {
+        /**
+         * @param applicationPodName  app pod name of the changed record
+         * @param recoveryPodName  recovery pod name of the changed record
+         * @param isAdded  true if the record was added, false if it was removed
+         */
+        void onChange(String applicationPodName, String recoveryPodName, boolean isAdded);
+
+        /**
+         * The poll of the changes is finished, called after the current records are reported
+         * and after every poll which found a change.
+         */
+        void onPollFinished();
+
+        /**
+         * All the changes up to the version were reported. The version is the version of the change log,
+         * or the modification counter of the table when the database keeps it (see {@link #getChangeVersion()}).
+         * It's not called when the database provides none of them.
+         *
+         * @param version  version of the last reported change
+         */
+        default void onVersion(long version) {
+            // the version is not needed by default
+        }
+
+        /**
+         * All the current records read by a poll when the database does not support the change log.
+         * The listener either takes the records as its new state, or the differences against the records
+         * of the previous poll are reported by {@link #onChange(String, String, boolean)}.
+         *
+         * @param records  all the records of the table
+         * @return true if the listener took the records, false to receive the changes
+         */
+        default boolean onSnapshot(Collection<ApplicationRecoveryPod> records) {
+            return false;
+        }
+    }
+}
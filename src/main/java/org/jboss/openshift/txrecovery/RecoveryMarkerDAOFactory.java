@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+import org.jboss.openshift.txrecovery.types.EngineType;
+
+/**
+ * Factory of the {@link RecoveryMarkerDAO} keeping the resources which are expensive to set up
+ * and which could be shared among several DAOs.
+ */
+public interface RecoveryMarkerDAOFactory extends AutoCloseable {
+
+    /**
+     * Opening a new DAO with its own database connection.
+     *
+     * @return DAO, it has to be closed by the caller
+     */
+    RecoveryMarkerDAO openDAO();
+
+    /**
+     * Releasing resources of the factory.
+     */
+    @Override
+    void close();
+
+    /**
+     * Creating factory for the engine defined by the arguments.
+     *
+     * @param parsedArguments  arguments defining the engine and the database connection
+     * @return  factory for the engine
+     */
+    static RecoveryMarkerDAOFactory create(ParsedArguments parsedArguments) {
+        switch(parsedArguments.getEngine()) {
+            case HIBERNATE:
+                return new HibernateDAOFactory(parsedArguments);
+            case JDBC:
+                return new JdbcDAOFactory(parsedArguments);
+            default:
+                throw new IllegalArgumentException("Unknown engine '" + parsedArguments.getEngine() + "'");
+        }
+    }
+
+    /**
+     * Creating factory for the engine defined by the arguments which is shared by the commands
+     * of the long-running server. The jdbc connections are pooled and their prepared statements are cached,
+     * see {@link MarkerConnectionPool}.
+     *
+     * @param parsedArguments  arguments defining the engine, the database connection and the pool
+     * @return  factory for the engine
+     */
+    static RecoveryMarkerDAOFactory createShared(ParsedArguments parsedArguments) {
+        if(parsedArguments.getEngine() == EngineType.JDBC) return new JdbcDAOFactory(parsedArguments, true);
+        return create(parsedArguments);
+    }
+}
@@ -22,15 +22,20 @@
 
 package org.jboss.openshift.txrecovery.cliargs;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Parses arguments from command line and joining the knowledge
- * with the permitted options.
+ * with the permitted options.<br>
+ * The option values are kept by the parser instance as the {@link Options}
+ * are shared by all the parsers, possibly running concurrently.
  */
 class ArgumentParser {
     private Set<Options.OptionsData> optionsDeclared = new HashSet<Options.OptionsData>();
+    private Map<Options.OptionsData, String> optionValues = new HashMap<Options.OptionsData, String>();
 
     ArgumentParser() {
         // package private
@@ -51,7 +56,7 @@ class ArgumentParser {
                 if(data.withArgument) currentOptionData = data;
             } else {
                 // data read
-                currentOptionData.setValue(arg);
+                optionValues.put(currentOptionData, arg);
                 currentOptionData = null;
             }
         }
@@ -67,7 +72,7 @@ class ArgumentParser {
     String getOptionValue(String name) {
         for(Options.OptionsData option: optionsDeclared) {
             if(option.getLongName().equals(name) || option.getShortName().equals(name)) {
-                return option.getValue();
+                return optionValues.get(option);
             }
         }
         return null;
@@ -38,7 +38,6 @@ class Options {
     static class OptionsData {
         String shortName, longName, description;
         boolean withArgument, isRequired;
-        String value;
 
         static void add(List<OptionsData> listToAddTo, String shortName, String longName, boolean withArgument, String description, boolean isRequired) {
             OptionsData od = new OptionsData(shortName, longName, withArgument, description, isRequired);
@@ -68,12 +67,6 @@ class Options {
         public boolean isRequired() {
             return isRequired;
         }
-        public void setValue(String value) {
-            this.value = value;
-        }
-        public String getValue() {
-            return this.value;
-        }
 
         @Override
         public int hashCode() {
@@ -23,10 +23,16 @@
 package org.jboss.openshift.txrecovery.cliargs;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.jboss.openshift.txrecovery.types.CommandType;
 import org.jboss.openshift.txrecovery.types.DatabaseType;
+import org.jboss.openshift.txrecovery.types.EngineType;
+import org.jboss.openshift.txrecovery.types.IndexConsistencyType;
 import org.jboss.openshift.txrecovery.types.OutputFormatType;
+import org.jboss.openshift.txrecovery.types.ProjectionType;
 
 public final class ParsedArguments {
     public static final String DEFAULT_TABLE_NAME = "JDBC_RECOVERY";
@@ -34,6 +40,14 @@ public final class ParsedArguments {
     public static final String DEFAULT_HOST = "localhost";
     public static final String DEFAULT_PORT = "5432"; // PostgreSQL
     public static final String DEFAULT_COMMAND = CommandType.SELECT_RECOVERY.name();
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_REAPER_INTERVAL = 60;
+    public static final long DEFAULT_LOCK_TIMEOUT = 30;
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+    public static final int DEFAULT_POOL_MIN_SIZE = 1;
+    public static final int DEFAULT_POOL_MAX_SIZE = 8;
+    public static final long DEFAULT_POOL_IDLE_TIMEOUT = 300;
+    public static final long DEFAULT_CACHE_TTL = 60;
 
     private static Options ARGS_OPTIONS = new Options()
         .addOption("y", "type_db", true, "Database type the script will be working with")
@@ -46,16 +60,115 @@ public final class ParsedArguments {
         .addRequiredOption("u","user", true, "Username at the database to connect to")
         .addRequiredOption("s","password", true, "Password for the username at the database to connect to")
         .addOption("t","table_name", true, "Table name to be working with")
+        .addOption("sm","schema", true, "Database schema of the table, the current schema of the connection is used when not defined")
         .addOption("c","command", true, "Command to run in database available options are to create db schema"
             + "to insert a record to delete the record and list recovery pod names")
         .addOption("a","application_pod_name", true, "Application pod name which will be either"
             + " inserted/deleted onto database or by which query will be filtered")
         .addOption("r","recovery_pod_name", true, "Recovery pod name which"
             +  " will be either inserted/deleted onto database or by which query will be filtered")
+        .addOption("mf", "markers_file", true, "Path to file (or '-' for stdin) with markers for the bulk insert and delete,"
+            + " one 'application_pod[:recovery_pod]' per line. Pod names of '-a' and '-r' could be comma separated lists too")
+        .addOption("df", "data_file", true, "Path to csv file (or '-' for stdout/stdin) the markers are written to"
+            + " by command 'export' and read from by command 'import'")
+        .addOption("bs", "batch_size", true, "Number of markers sent to the database in one batch by the bulk insert and delete,"
+            + " default is " + DEFAULT_BATCH_SIZE)
+        .addOption("cs", "chunk_size", true, "Command 'delete' removes the records in chunks of the size, every chunk"
+            + " is committed separately. Command 'claim' claims at most the number of records, default is the batch size")
+        .addOption("cp", "chunk_pause", true, "Pause in milliseconds between the chunks of the chunked delete, default is 0")
+        .addOption("sy", "sync_by", true, "Pod names checked to be live by command 'sync', 'application', 'recovery' or 'both'."
+            + " Default is 'application'")
+        .addOption("us", "upsert", false, "Command 'insert' does nothing when the record already exists"
+            + " and prints 1 if the record was inserted and 0 otherwise. Command 'import' skips the existing records")
+        .addOption("nr", "new_recovery_pod_name", true, "Recovery pod name the records of recovery pod '-r' are moved to"
+            + " by commands 'reassign' and 'claim'")
+        .addOption("hb", "heartbeat", false, "The table has the heartbeat column which is set at the insert"
+            + " and refreshed by command 'touch', command 'create' adds the column to the existing table")
+        .addOption("tl", "ttl", true, "Time to live in seconds since the last heartbeat, command 'expire' deletes"
+            + " the older records. The marker server expires the records periodically when defined")
+        .addOption("ri", "reaper_interval", true, "Interval in seconds of the periodic expiry in the marker server,"
+            + " default is " + DEFAULT_REAPER_INTERVAL)
+        .addOption("wl", "with_lock", false, "The command runs while holding the database lock of the table and the recovery pod"
+            + " (or the application pod when the recovery pod is not defined), the same lock as command 'lock' acquires")
+        .addOption("lt", "lock_timeout", true, "Time in seconds to wait for the database lock, zero means no waiting."
+            + " Default is " + DEFAULT_LOCK_TIMEOUT)
+        .addOption("pi", "poll_interval", true, "Maximal time in milliseconds between two polls of the changes by command 'watch',"
+            + " default is " + DEFAULT_POLL_INTERVAL)
+        .addOption("wd", "watch_duration", true, "Time in seconds command 'watch' runs for, default is 0 meaning until it's stopped")
+        .addOption("jn", "journal", true, "Path to local journal file. Command 'insert' appends the markers to the journal"
+            + " without connecting to the database, other commands and command 'replay' replay the journal to the table first."
+            + " The marker server replays the journal in the background")
         .addOption("f", "format", true, "Output format")
+        .addOption("di", "distinct", false, "Duplicates are removed from the listing of the select commands")
+        .addOption("e", "engine", true, "Database access engine, 'hibernate' or 'jdbc'."
+            + " By default the plain jdbc is used for all commands except the 'create' one")
+        .addOption("sv", "server", false, "Start as long-running server which boots Hibernate once and then processes"
+            + " commands read line by line from stdin or from the local socket when '--server_port' is defined")
+        .addOption("sp", "server_port", true, "Local port of the marker server. When defined without '--server'"
+            + " the command is forwarded to the running server and it's processed locally only when the server is not reachable"
+            + " or when the command reads stdin or writes its data to stdout")
+        .addOption("pm", "pool_min_size", true, "Number of jdbc connections the marker server keeps open when idle,"
+            + " default is " + DEFAULT_POOL_MIN_SIZE)
+        .addOption("px", "pool_max_size", true, "Maximal number of jdbc connections of the marker server, zero disables the pool"
+            + " and every command opens its own connection. Default is " + DEFAULT_POOL_MAX_SIZE)
+        .addOption("pe", "pool_idle_timeout", true, "Time in seconds after which the idle jdbc connection of the marker server"
+            + " above the minimal pool size is closed, default is " + DEFAULT_POOL_IDLE_TIMEOUT)
+        .addOption("gw", "group_commit_window", true, "Time in milliseconds the marker server waits for more single marker"
+            + " inserts and deletes to commit them in one transaction, up to '--batch_size' of them. Not defined means no grouping")
+        .addOption("ix", "index", true, "The marker server keeps the markers in memory to answer 'select_recovery -a' and"
+            + " 'select_application -r'. With 'cached' they're answered from memory which follows the table every '--poll_interval',"
+            + " with 'read_through' only when the change version of the table matches the memory, otherwise from the table")
+        .addOption("sc", "script", true, "Path to file (or '-' for stdin) with commands, one command line per line,"
+            + " which are processed in order with a single database connection")
+        .addOption("st", "script_transaction", false, "All commands of the script are processed in a single transaction."
+            + " The transaction is rolled back and the script finishes at the first failure")
+        .addOption("tm", "timings", true, "Recording duration of the execution phases which are emitted as a single JSON line"
+            + " appended to the file of the provided path or printed to the standard error output when the path is '-'")
+        .addOption("cd", "cache_dir", true, "Directory of the result cache of the select, 'exists' and 'count' commands."
+            + " The cached result is used while the write counter of the table is the same. Not defined means no caching")
+        .addOption("ct", "cache_ttl", true, "Time in seconds the cached result is used for at most, default is " + DEFAULT_CACHE_TTL)
         .addOption("v", "verbose", false, "Enable verbose logging")
         .addOption("h", "help", false, "Printing this help");
 
+    /**
+     * Parsing arguments of a single command which is part of a bigger unit of work
+     * (e.g. a line of a script). The command arguments are merged with the base arguments
+     * and they take precedence. The command has to work with the same database and table
+     * as the base arguments define.
+     *
+     * @param baseArguments  arguments the command arguments are merged with
+     * @param commandLine  cli arguments of the command, see {@link #splitCommandLine(String)}
+     * @return parser with getters containing the parsed values
+     * @throws ArgumentParserException  error happens during error parsing or the command asks for other database
+     */
+    public static ParsedArguments parseCommand(ParsedArguments baseArguments, String commandLine) throws ArgumentParserException {
+        String[] commandArgs = splitCommandLine(commandLine);
+        for(String arg: commandArgs) {
+            if(arg.equals("-h") || arg.equals("--help"))
+                throw new ArgumentParserException("Help is not available for a command line '" + commandLine + "'");
+        }
+        String[] mergedArgs = Arrays.copyOf(baseArguments.args, baseArguments.args.length + commandArgs.length);
+        System.arraycopy(commandArgs, 0, mergedArgs, baseArguments.args.length, commandArgs.length);
+        ParsedArguments commandArguments = new ParsedArguments(mergedArgs);
+        if(commandArguments.isMarkersFromStdin())
+            throw new ArgumentParserException("Markers cannot be read from stdin for a command line '" + commandLine
+                + "', use '--markers_file' with path to file");
+        if("-".equals(commandArguments.getDataFile()))
+            throw new ArgumentParserException("Data file cannot be stdin or stdout for a command line '" + commandLine
+                + "', use '--data_file' with path to file");
+        if(commandArguments.getCommand() == CommandType.WATCH && commandArguments.getWatchDuration() == 0)
+            throw new ArgumentParserException("Watch cannot run until it's stopped for a command line '" + commandLine
+                + "', use '--watch_duration' with number of seconds");
+
+        if(!baseArguments.getJdbcUrl().equals(commandArguments.getJdbcUrl())
+                || !baseArguments.getTableName().equals(commandArguments.getTableName())) {
+            throw new ArgumentParserException("Expected to work with database " + baseArguments.getJdbcUrl()
+                + " and table " + baseArguments.getTableName() + " but command asks for database "
+                + commandArguments.getJdbcUrl() + " and table " + commandArguments.getTableName());
+        }
+        return commandArguments;
+    }
+
     /**
      * Use the static method for getting instance of parsed arguments.
      *
@@ -67,17 +180,42 @@ public final class ParsedArguments {
         return new ParsedArguments(args);
     }
 
+    private final String[] args;
     private DatabaseType typeDb;
     private String hibernateDialect, jdbcDriverClass;
     private String jdbcUrl;
-    private String host, database, user, password, tableName;
+    private String host, database, user, password, tableName, schema;
     private Integer port;
     private CommandType command;
-    private String applicationPodName, recoveryPodName;
+    private String applicationPodName, recoveryPodName, newRecoveryPodName;
     private OutputFormatType format;
+    private boolean isDistinct, isUpsert, isHeartbeat, isWithLock;
+    private String markersFile, dataFile, journal;
+    private ProjectionType syncBy;
+    private int batchSize;
+    private Integer chunkSize;
+    private long chunkPause;
+    private Long ttl;
+    private long reaperInterval;
+    private long lockTimeout;
+    private long pollInterval, watchDuration;
+    private EngineType engine;
     private boolean isVerbose;
+    private boolean isHelp;
+    private boolean isServer;
+    private Integer serverPort;
+    private int poolMinSize, poolMaxSize;
+    private long poolIdleTimeout;
+    private Long groupCommitWindow;
+    private IndexConsistencyType index;
+    private String script;
+    private boolean isScriptTransaction;
+    private String timings;
+    private String cacheDir;
+    private long cacheTtl;
 
     private ParsedArguments(String... args) throws ArgumentParserException {
+        this.args = args == null ? new String[0] : args.clone();
         ArgumentParser parser = new ArgumentParser();
 
         try {
@@ -85,7 +223,8 @@ public final class ParsedArguments {
 
             if(parser.hasOption("help")) {
                 printHelpStdErr();
-                System.exit(2);
+                this.isHelp = true;
+                return;
             }
 
             String value = parser.getOptionValue("type_db", DEFAULT_DB_TYPE);
@@ -107,17 +246,88 @@ public final class ParsedArguments {
             this.user = parser.getOptionValue("user");
             this.password = parser.getOptionValue("password");
             this.tableName = parser.getOptionValue("table_name", DEFAULT_TABLE_NAME);
+            this.schema = parser.getOptionValue("schema");
 
             value = parser.getOptionValue("command", DEFAULT_COMMAND);
             this.command = CommandType.valueOf(value.toUpperCase());
 
             this.applicationPodName = parser.getOptionValue("application_pod_name");
             this.recoveryPodName = parser.getOptionValue("recovery_pod_name");
+            this.newRecoveryPodName = parser.getOptionValue("new_recovery_pod_name");
 
             value = parser.getOptionValue("format", OutputFormatType.LIST_SPACE.name());
             this.format = OutputFormatType.valueOf(value.toUpperCase());
 
+            value = parser.getOptionValue("engine");
+            if(value != null) this.engine = EngineType.valueOf(value.toUpperCase());
+            else this.engine = command == CommandType.CREATE ? EngineType.HIBERNATE : EngineType.JDBC;
+
+            this.isDistinct = parser.hasOption("distinct");
+            this.isUpsert = parser.hasOption("upsert");
+            this.markersFile = parser.getOptionValue("markers_file");
+            this.dataFile = parser.getOptionValue("data_file");
+            value = parser.getOptionValue("sync_by");
+            if(value == null || value.equalsIgnoreCase("application")) this.syncBy = ProjectionType.APPLICATION_POD;
+            else if(value.equalsIgnoreCase("recovery")) this.syncBy = ProjectionType.RECOVERY_POD;
+            else if(value.equalsIgnoreCase("both")) this.syncBy = ProjectionType.PAIRS;
+            else throw new IllegalArgumentException("Unknown value '" + value + "' of sync_by, expected 'application', 'recovery' or 'both'");
+            value = parser.getOptionValue("batch_size");
+            this.batchSize = value == null ? DEFAULT_BATCH_SIZE : Integer.parseInt(value);
+            if(batchSize < 1) throw new IllegalArgumentException("Batch size has to be positive but it's " + batchSize);
+            value = parser.getOptionValue("chunk_size");
+            if(value != null) this.chunkSize = Integer.valueOf(value);
+            if(chunkSize != null && chunkSize < 1) throw new IllegalArgumentException("Chunk size has to be positive but it's " + chunkSize);
+            value = parser.getOptionValue("chunk_pause");
+            this.chunkPause = value == null ? 0 : Long.parseLong(value);
+            this.isHeartbeat = parser.hasOption("heartbeat");
+            value = parser.getOptionValue("ttl");
+            if(value != null) this.ttl = Long.valueOf(value);
+            if(ttl != null && ttl < 0) throw new IllegalArgumentException("Time to live can't be negative but it's " + ttl);
+            value = parser.getOptionValue("reaper_interval");
+            this.reaperInterval = value == null ? DEFAULT_REAPER_INTERVAL : Long.parseLong(value);
+            if(reaperInterval < 1) throw new IllegalArgumentException("Reaper interval has to be positive but it's " + reaperInterval);
+            this.isWithLock = parser.hasOption("with_lock");
+            value = parser.getOptionValue("lock_timeout");
+            this.lockTimeout = value == null ? DEFAULT_LOCK_TIMEOUT : Long.parseLong(value);
+            if(lockTimeout < 0) throw new IllegalArgumentException("Lock timeout can't be negative but it's " + lockTimeout);
+            value = parser.getOptionValue("poll_interval");
+            this.pollInterval = value == null ? DEFAULT_POLL_INTERVAL : Long.parseLong(value);
+            if(pollInterval < 1) throw new IllegalArgumentException("Poll interval has to be positive but it's " + pollInterval);
+            value = parser.getOptionValue("watch_duration");
+            this.watchDuration = value == null ? 0 : Long.parseLong(value);
+            if(watchDuration < 0) throw new IllegalArgumentException("Watch duration can't be negative but it's " + watchDuration);
             this.isVerbose = parser.hasOption("verbose");
+
+            this.isServer = parser.hasOption("server");
+            value = parser.getOptionValue("server_port");
+            if(value != null) this.serverPort = Integer.valueOf(value);
+            value = parser.getOptionValue("pool_min_size");
+            this.poolMinSize = value == null ? DEFAULT_POOL_MIN_SIZE : Integer.parseInt(value);
+            value = parser.getOptionValue("pool_max_size");
+            this.poolMaxSize = value == null ? DEFAULT_POOL_MAX_SIZE : Integer.parseInt(value);
+            if(poolMinSize < 0 || poolMaxSize < 0 || (poolMaxSize > 0 && poolMinSize > poolMaxSize))
+                throw new IllegalArgumentException("Pool sizes have to be 0 <= min <= max but they are min " + poolMinSize
+                    + " and max " + poolMaxSize);
+            value = parser.getOptionValue("pool_idle_timeout");
+            this.poolIdleTimeout = value == null ? DEFAULT_POOL_IDLE_TIMEOUT : Long.parseLong(value);
+            if(poolIdleTimeout < 0) throw new IllegalArgumentException("Pool idle timeout can't be negative but it's " + poolIdleTimeout);
+            value = parser.getOptionValue("group_commit_window");
+            if(value != null) this.groupCommitWindow = Long.valueOf(value);
+            if(groupCommitWindow != null && groupCommitWindow < 0)
+                throw new IllegalArgumentException("Group commit window can't be negative but it's " + groupCommitWindow);
+            value = parser.getOptionValue("index");
+            if(value != null) this.index = IndexConsistencyType.valueOf(value.toUpperCase());
+
+            this.script = parser.getOptionValue("script");
+            this.isScriptTransaction = parser.hasOption("script_transaction");
+            this.journal = parser.getOptionValue("journal");
+            if(journal != null && isScriptTransaction)
+                throw new IllegalArgumentException("Journal is replayed in own transactions, it can't be used with the script transaction");
+            this.timings = parser.getOptionValue("timings");
+            this.cacheDir = parser.getOptionValue("cache_dir");
+            value = parser.getOptionValue("cache_ttl");
+            this.cacheTtl = value == null ? DEFAULT_CACHE_TTL : Long.parseLong(value);
+            if(cacheTtl < 0) throw new IllegalArgumentException("Cache time to live can't be negative but it's " + cacheTtl);
         } catch(Exception pe) {
             System.err.println(pe.getMessage());
             printHelpStdErr();
@@ -130,6 +340,13 @@ public final class ParsedArguments {
         ARGS_OPTIONS.printHelpToStdErr();
     }
 
+    /**
+     * @return true if the help was asked for and printed, no other argument is parsed then
+     */
+    public boolean isHelp() {
+        return isHelp;
+    }
+
     public static Options getARGS_OPTIONS() {
         return ARGS_OPTIONS;
     }
@@ -162,6 +379,10 @@ public final class ParsedArguments {
         return tableName;
     }
 
+    public String getSchema() {
+        return schema;
+    }
+
     public Integer getPort() {
         return port;
     }
@@ -174,6 +395,10 @@ public final class ParsedArguments {
         return applicationPodName;
     }
 
+    public String getNewRecoveryPodName() {
+        return newRecoveryPodName;
+    }
+
     public String getRecoveryPodName() {
         return recoveryPodName;
     }
@@ -182,10 +407,194 @@ public final class ParsedArguments {
         return format;
     }
 
+    public EngineType getEngine() {
+        return engine;
+    }
+
+    public boolean isDistinct() {
+        return isDistinct;
+    }
+
+    public boolean isUpsert() {
+        return isUpsert;
+    }
+
+    public String getMarkersFile() {
+        return markersFile;
+    }
+
+    /**
+     * @return true if the command reads the markers from stdin, with '--markers_file -' or by the sync without markers file
+     */
+    public boolean isMarkersFromStdin() {
+        return "-".equals(markersFile) || (command == CommandType.SYNC && markersFile == null);
+    }
+
+    /**
+     * @return true if the command reads its input from stdin or writes its data to stdout,
+     *   the standard streams of the process can't be forwarded to the server
+     */
+    public boolean isStandardStreamData() {
+        return isMarkersFromStdin() || "-".equals(dataFile);
+    }
+
+    /**
+     * @return path to the local journal of the inserted markers or null if the markers are inserted directly
+     */
+    public String getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return path to the csv file of the export and import, '-' means stdout or stdin
+     */
+    public String getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * @return pod names checked to be live by the sync command, {@link ProjectionType#PAIRS} means both of them
+     */
+    public ProjectionType getSyncBy() {
+        return syncBy;
+    }
+
+    /**
+     * @return size of the chunks of the delete command, null when the delete is not chunked
+     */
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getChunkPause() {
+        return chunkPause;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return true if the table has the heartbeat column
+     */
+    public boolean isHeartbeat() {
+        return isHeartbeat;
+    }
+
+    /**
+     * @return time to live of the records in seconds since the last heartbeat, null when the records do not expire
+     */
+    public Long getTtl() {
+        return ttl;
+    }
+
+    public long getReaperInterval() {
+        return reaperInterval;
+    }
+
+    /**
+     * @return maximal time in milliseconds between two polls of the changes
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * @return time in seconds the watch runs for, zero for no limit
+     */
+    public long getWatchDuration() {
+        return watchDuration;
+    }
+
+    public boolean isWithLock() {
+        return isWithLock;
+    }
+
+    /**
+     * @return time in seconds to wait for the database lock
+     */
+    public long getLockTimeout() {
+        return lockTimeout;
+    }
+
+    /**
+     * @return pod name the database lock is specific for, the recovery pod name or the application pod name
+     *   when the recovery pod name is not defined
+     */
+    public String getLockPodName() {
+        return recoveryPodName == null || recoveryPodName.isEmpty() ? applicationPodName : recoveryPodName;
+    }
+
     public boolean isVerbose() {
         return isVerbose;
     }
 
+    public boolean isServer() {
+        return isServer;
+    }
+
+    public Integer getServerPort() {
+        return serverPort;
+    }
+
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    /**
+     * @return maximal number of the pooled jdbc connections of the marker server, zero if the pool is disabled
+     */
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    /**
+     * @return idle timeout of the pooled jdbc connections in seconds
+     */
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    /**
+     * @return time in milliseconds the marker server groups the single marker updates for, null if they are not grouped
+     */
+    public Long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * @return consistency of the in-memory index of the marker server, null if the server does not keep the index
+     */
+    public IndexConsistencyType getIndex() {
+        return index;
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public boolean isScriptTransaction() {
+        return isScriptTransaction;
+    }
+
+    public String getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return directory of the result cache, null if the results are not cached
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @return maximal age of the cached result in seconds
+     */
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
     public String getJdbcDriverClass() {
         return jdbcDriverClass;
     }
@@ -194,4 +603,51 @@ public final class ParsedArguments {
         if(jdbcUrl != null) return jdbcUrl;
         return MessageFormat.format(typeDb.jdbcUrlPattern(), host, port.intValue(), database);
     }
+
+    /**
+     * Splitting a single line of text to the cli arguments.
+     * Arguments are separated by whitespaces, an argument containing whitespaces
+     * could be enclosed in double quotes.
+     *
+     * @param line  line to be split, e.g. <code>-c insert -a "app pod"</code>
+     * @return  arguments parsed from the line, never null
+     */
+    public static String[] splitCommandLine(String line) {
+        List<String> args = new ArrayList<String>();
+        if(line == null) return new String[0];
+
+        StringBuilder currentArg = null;
+        boolean inQuotes = false;
+        for(char ch: line.toCharArray()) {
+            if(ch == '"') {
+                inQuotes = !inQuotes;
+                if(currentArg == null) currentArg = new StringBuilder();
+            } else if(Character.isWhitespace(ch) && !inQuotes) {
+                if(currentArg != null) args.add(currentArg.toString());
+                currentArg = null;
+            } else {
+                if(currentArg == null) currentArg = new StringBuilder();
+                currentArg.append(ch);
+            }
+        }
+        if(currentArg != null) args.add(currentArg.toString());
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Reverse operation to {@link #splitCommandLine(String)}, joining the arguments
+     * to a single line while quoting the arguments containing whitespaces.
+     *
+     * @param args  arguments to join
+     * @return  line which could be split back to the arguments
+     */
+    public static String joinCommandLine(String... args) {
+        StringBuilder sb = new StringBuilder();
+        for(String arg: args) {
+            if(sb.length() > 0) sb.append(' ');
+            if(arg.isEmpty() || arg.matches(".*\\s.*")) sb.append('"').append(arg).append('"');
+            else sb.append(arg);
+        }
+        return sb.toString();
+    }
 }
@@ -24,8 +24,26 @@ package org.jboss.openshift.txrecovery.types;
 
 public enum CommandType {
     CREATE,
+    CREATE_INDEX,
+    CREATE_CHANGE_LOG,
     INSERT,
     DELETE,
+    SYNC,
+    REASSIGN,
+    CLAIM,
+    LOCK,
+    UNLOCK,
+    WATCH,
+    EXPORT,
+    IMPORT,
+    REPLAY,
+    TOUCH,
+    EXPIRE,
     SELECT_RECOVERY,
-    SELECT_APPLICATION
+    SELECT_APPLICATION,
+    SELECT_PAIRS,
+    EXISTS,
+    COUNT,
+    COUNT_BY_RECOVERY,
+    COUNT_BY_APPLICATION
 }
@@ -22,9 +22,17 @@
 
 package org.jboss.openshift.txrecovery;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
 import org.jboss.openshift.txrecovery.types.CommandType;
 import org.jboss.openshift.txrecovery.types.DatabaseType;
+import org.jboss.openshift.txrecovery.types.EngineType;
 import org.jboss.openshift.txrecovery.types.OutputFormatType;
 import org.jboss.openshift.txrecovery.cliargs.ArgumentParserException;
 import org.junit.Assert;
@@ -76,6 +84,7 @@ public class ArgumentParserTest {
         Assert.assertEquals("name_of_app_pod", ap.getApplicationPodName());
         Assert.assertEquals("name_of_recovery_pod", ap.getRecoveryPodName());
         Assert.assertEquals(OutputFormatType.RAW, ap.getFormat());
+        Assert.assertEquals(EngineType.HIBERNATE, ap.getEngine());
     }
 
     @Test
@@ -106,6 +115,7 @@ public class ArgumentParserTest {
         Assert.assertEquals(CommandType.DELETE, ap.getCommand());
         Assert.assertEquals("eap-app-1-lzxnf", ap.getApplicationPodName());
         Assert.assertEquals("eap-app-migration-1-gxfn6", ap.getRecoveryPodName());
+        Assert.assertEquals(EngineType.JDBC, ap.getEngine());
     }
 
     @Test
@@ -188,4 +198,35 @@ public class ArgumentParserTest {
         Assert.assertEquals("", ap.getPassword());
         Assert.assertEquals(DBH2Connector.DB_TABLE_NAME, ap.getTableName());
     }
+
+    @Test
+    public void concurrentCommandsKeepTheirValues() throws Exception {
+        final ParsedArguments baseArguments = ParsedArguments.parse(H2_CONNECTION_ARGS);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for(int i = 0; i < 8; i++) {
+                final int thread = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for(int j = 0; j < 500; j++) {
+                            String suffix = thread + "-" + j;
+                            ParsedArguments ap = ParsedArguments.parseCommand(baseArguments,
+                                "-c insert -a app-" + suffix + " -r rec-" + suffix);
+                            if(!("app-" + suffix).equals(ap.getApplicationPodName())
+                                    || !("rec-" + suffix).equals(ap.getRecoveryPodName()))
+                                return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for(Future<Boolean> result: results) {
+                Assert.assertTrue("Parsed values of concurrent commands are mixed", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -23,6 +23,7 @@
 package org.jboss.openshift.txrecovery;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -79,6 +80,8 @@ public class DBH2Connector {
         try {
             conn = this.ds.getConnection();
             conn.createStatement().executeUpdate("DROP TABLE " + DB_TABLE_NAME);
+            conn.createStatement().executeUpdate("DROP TABLE IF EXISTS " + DB_TABLE_NAME + "_WRITES");
+            ApplicationRecoveryPodJdbcDAO.clearExistingTablesCache();
         } catch (SQLException sqle) {
             throw new IllegalStateException("Cannot drop table " + DB_TABLE_NAME + " from ds '" + ds + "'", sqle);
         } finally {
@@ -89,4 +92,136 @@ public class DBH2Connector {
             }
         }
     }
-}
\ No newline at end of file
+
+    public boolean tableExists() {
+        Connection conn = null;
+        try {
+            conn = this.ds.getConnection();
+            return conn.getMetaData().getTables(null, null, DB_TABLE_NAME, null).next();
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot search table " + DB_TABLE_NAME + " at ds '" + ds + "'", sqle);
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot close connection to ds '" + ds + "'", e);
+            }
+        }
+    }
+
+    public boolean indexExists(String indexName) {
+        Connection conn = null;
+        try {
+            conn = this.ds.getConnection();
+            PreparedStatement stmt = conn.prepareStatement(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = ? AND INDEX_NAME = ?");
+            stmt.setString(1, DB_TABLE_NAME);
+            stmt.setString(2, indexName.toUpperCase());
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() && rs.getInt(1) > 0;
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot verify index " + indexName + " at ds '" + ds + "'", sqle);
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot close connection to ds '" + ds + "'", e);
+            }
+        }
+    }
+
+    public void dropIndex(String indexName) {
+        Connection conn = null;
+        try {
+            conn = this.ds.getConnection();
+            conn.createStatement().executeUpdate("DROP INDEX " + indexName);
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot drop index " + indexName + " from ds '" + ds + "'", sqle);
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot close connection to ds '" + ds + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Filling the existing table with records where application pod is named <code>app-pod-&lt;i&gt;</code>
+     * and every ten consecutive application pods belong to the recovery pod <code>recovery-pod-&lt;i/10&gt;</code>.
+     *
+     * @param numberOfRecords  number of records to insert
+     */
+    public void ageHeartbeats(int seconds) {
+        Connection conn = null;
+        try {
+            conn = this.ds.getConnection();
+            conn.createStatement().executeUpdate("UPDATE " + DB_TABLE_NAME
+                + " SET heartbeat = DATEADD('SECOND', -" + seconds + ", heartbeat)");
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot age heartbeats at table " + DB_TABLE_NAME + " at ds '" + ds + "'", sqle);
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot close connection to ds '" + ds + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Reading the csv file by the H2 function, the result has the same format as {@link #selectAll()}.
+     */
+    public String csvRead(String path) {
+        Connection conn = null;
+        try {
+            conn = this.ds.getConnection();
+            // the table function is evaluated at prepare time, the path can't be a parameter
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT * FROM CSVREAD('" + path.replace("'", "''") + "', NULL, 'charset=UTF-8')");
+
+            StringBuffer sb = new StringBuffer();
+            while (rs.next()) {
+                sb.append(rs.getString(1))
+                    .append(",")
+                    .append(rs.getString(2))
+                    .append(";");
+            }
+            return sb.toString();
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot read csv file " + path + " at ds '" + ds + "'", sqle);
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot close connection to ds '" + ds + "'", e);
+            }
+        }
+    }
+
+    public void populate(int numberOfRecords) {
+        Connection conn = null;
+        try {
+            conn = this.ds.getConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + DB_TABLE_NAME
+                + " (applicationPodName, recoveryPodName) VALUES (?, ?)");
+            for(int i = 0; i < numberOfRecords; i++) {
+                stmt.setString(1, "app-pod-" + i);
+                stmt.setString(2, "recovery-pod-" + (i / 10));
+                stmt.addBatch();
+                if(i % 1000 == 999) stmt.executeBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Cannot populate table " + DB_TABLE_NAME + " at ds '" + ds + "'", sqle);
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot close connection to ds '" + ds + "'", e);
+            }
+        }
+    }
+}
@@ -24,21 +24,41 @@ package org.jboss.openshift.txrecovery;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
 /**
- * Checks for database connections and operations.
+ * Checks for database connections and operations, run with each of the database access engines.
  */
+@RunWith(Parameterized.class)
 public class MainTest {
     private static final Logger log = Logger.getLogger(MainTest.class.getName());
 
     private DBH2Connector h2Connector = new DBH2Connector();
+    private String engine;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Parameters(name = "engine={0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.asList(new Object[][] {{"hibernate"}, {"jdbc"}});
+    }
+
+    public MainTest(String engine) {
+        this.engine = engine;
+    }
 
     @Before
     public void setUp() {
@@ -60,6 +80,33 @@ public class MainTest {
         Assert.assertTrue("Expecting no data was inserted", out.isEmpty());
     }
 
+    @Test
+    public void createExistingTable() {
+        String[] args = enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "create");
+        Main.main(args);
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "goodone", "-r", "badone"));
+
+        // the process cache is cleared to run the create statement against the existing table
+        ApplicationRecoveryPodJdbcDAO.clearExistingTablesCache();
+        Main.main(args);
+
+        Assert.assertEquals("Expecting the existing data are untouched", "goodone,badone;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void createIndex() {
+        String indexName = DBH2Connector.DB_TABLE_NAME + "_REC_IDX";
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "create"));
+        Assert.assertTrue("Expecting the index on recovery pod name is created with the table", h2Connector.indexExists(indexName));
+
+        h2Connector.dropIndex(indexName);
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "create_index"));
+        Assert.assertTrue("Expecting the index is added to the existing table", h2Connector.indexExists(indexName));
+
+        // running against the existing index does nothing
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "create_index"));
+    }
+
     @Test
     public void insertAppPod() {
         String[] args = enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
@@ -74,6 +121,121 @@ public class MainTest {
         Assert.assertEquals("Expecting only one row was added into the database", 1, out.split(";").length);
     }
 
+    @Test
+    public void upsertExistingAppPod() {
+        String[] args = enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
+            "-c", "insert", "-a", "goodone", "-r", "badone", "--upsert");
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(args);
+        Assert.assertEquals("Expecting the record was inserted", "1", systemOut.toString().trim());
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(args);
+        Assert.assertEquals("Expecting the existing record was not inserted again", "0", systemOut.toString().trim());
+
+        Assert.assertEquals("Expecting only one row is in the database", "goodone,badone;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void bulkInsertAndDelete() throws Exception {
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
+            "-c", "insert", "-a", "app1,app2,app3", "-r", "rec1", "--batch_size", "2"));
+        Assert.assertEquals("Expecting all markers were inserted", "app1:rec1=1 app2:rec1=1 app3:rec1=1", systemOut.toString().trim());
+
+        java.io.File markersFile = temporaryFolder.newFile("markers.txt");
+        java.nio.file.Files.write(markersFile.toPath(), Arrays.asList("# markers", "app3:rec1", "app4:rec2"));
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
+            "-c", "insert", "--markers_file", markersFile.getPath(), "--upsert", "--batch_size", "2"));
+        Assert.assertEquals("Expecting only the new marker was inserted", "app3:rec1=0 app4:rec2=1", systemOut.toString().trim());
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "delete", "-a", "app1,app2,app5"));
+        Assert.assertEquals("Expecting deleted rows reported per filter", "app1=1 app2=1 app5=0", systemOut.toString().trim());
+
+        Assert.assertEquals("Expecting the not deleted markers are kept", "app3,rec1;app4,rec2;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void syncWithLivePods() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app3", "-r", "rec2"));
+
+        java.io.InputStream systemIn = System.in;
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        try {
+            System.setIn(new java.io.ByteArrayInputStream("app1\napp3\n".getBytes("UTF-8")));
+            Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "sync"));
+        } finally {
+            System.setIn(systemIn);
+        }
+        Assert.assertEquals("Expecting the marker of not live application pod was removed", "app2:rec1", systemOut.toString().trim());
+
+        java.io.File liveFile = temporaryFolder.newFile("live.txt");
+        java.nio.file.Files.write(liveFile.toPath(), Arrays.asList("rec1"));
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
+            "-c", "sync", "--sync_by", "recovery", "--markers_file", liveFile.getPath()));
+        Assert.assertEquals("Expecting the marker of not live recovery pod was removed", "app3:rec2", systemOut.toString().trim());
+
+        Assert.assertEquals("Expecting the markers of live pods are kept", "app1,rec1;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void syncPairsInMySqlMode() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app3", "-r", "rec2"));
+
+        java.sql.Connection connection = java.sql.DriverManager.getConnection(DBH2Connector.DB_H2_CONNECTION, "", "");
+        try {
+            connection.createStatement().execute("set mode MySQL");
+            List<String> removed = new ArrayList<String>();
+            long numberRemoved = ApplicationRecoveryPodJdbcDAO.deleteNotLive(connection,
+                new MarkerTableDialect(org.jboss.openshift.txrecovery.types.DatabaseType.MYSQL, null, DBH2Connector.DB_TABLE_NAME),
+                Arrays.asList("app1", "app3", "rec1"), org.jboss.openshift.txrecovery.types.ProjectionType.PAIRS, 10,
+                (applicationPodName, recoveryPodName) -> removed.add(applicationPodName + ":" + recoveryPodName));
+            Assert.assertEquals("Expecting the markers with a not live pod were removed", 2, numberRemoved);
+            Assert.assertEquals(Arrays.asList("app2:rec1", "app3:rec2"), removed);
+        } finally {
+            connection.createStatement().execute("set mode Regular");
+            connection.close();
+        }
+        Assert.assertEquals("Expecting the markers of live pods are kept", "app1,rec1;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void deleteInChunks() {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "create"));
+        h2Connector.populate(25);
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "delete", "-r", "recovery-pod-1", "--chunk_size", "3"));
+        Assert.assertEquals("Expecting the ten markers of the recovery pod were deleted", 15, h2Connector.selectAll().split(";").length);
+
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "delete", "--chunk_size", "4", "--chunk_pause", "1"));
+        Assert.assertTrue("Expecting all the markers were deleted", h2Connector.selectAll().isEmpty());
+    }
+
+    @Test
+    public void bulkInsertIsAtomic() {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app2", "-r", "rec1"));
+        try {
+            Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
+                "-c", "insert", "-a", "app1,app2,app3", "-r", "rec1", "--batch_size", "1"));
+            Assert.fail("Expecting the duplicate marker fails the bulk insert");
+        } catch (IllegalStateException expected) {
+            // the duplicate of app2 fails
+        }
+        Assert.assertEquals("Expecting no marker of the failed bulk insert was saved", "app2,rec1;", h2Connector.selectAll());
+    }
+
     @Test
     public void deleteApplicationPod() {
         String[] argsInsert = enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
@@ -156,11 +318,227 @@ public class MainTest {
         Assert.assertFalse("Select should not print name of rec pod", systemOut.toString().contains("badone"));
     }
 
+    @Test
+    public void selectPairsAndDistinct() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app2", "-r", "rec1"));
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "select_pairs", "-f", "list_comma"));
+        String[] pairs = systemOut.toString().trim().split(", ");
+        Assert.assertEquals("Expecting both records were printed", 2, pairs.length);
+        Assert.assertTrue("Expecting pair of the first record", Arrays.asList(pairs).contains("app1:rec1"));
+        Assert.assertTrue("Expecting pair of the second record", Arrays.asList(pairs).contains("app2:rec1"));
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "select_recovery", "--distinct", "-f", "raw"));
+        Assert.assertEquals("Expecting the recovery pod is listed only once", "[rec1]", systemOut.toString().trim());
+    }
+
+    @Test
+    public void existsAndCount() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1", "-r", "rec2"));
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "count", "-a", "app1"));
+        Assert.assertEquals("Expecting markers of the application pod were counted", "2", systemOut.toString().trim());
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "exists", "-a", "app2", "-r", "rec1"));
+        Assert.assertEquals("Expecting the marker exists", "true", systemOut.toString().trim());
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "count_by_recovery", "-f", "list_comma"));
+        List<String> groups = Arrays.asList(systemOut.toString().trim().split(", "));
+        Assert.assertEquals("Expecting two recovery pods, got " + groups, 2, groups.size());
+        Assert.assertTrue(groups.contains("rec1=2"));
+        Assert.assertTrue(groups.contains("rec2=1"));
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "count_by_application", "-r", "rec1", "-f", "list_comma"));
+        groups = Arrays.asList(systemOut.toString().trim().split(", "));
+        Assert.assertEquals("Expecting two application pods, got " + groups, 2, groups.size());
+        Assert.assertTrue(groups.contains("app1=1"));
+        Assert.assertTrue(groups.contains("app2=1"));
+    }
+
+    @Test
+    public void claimMarkers() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2,app3", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1", "-r", "rec2"));
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "claim", "-r", "rec1", "-nr", "rec2", "--chunk_size", "2"));
+        Assert.assertEquals("Expecting two markers were claimed", "app1:rec2 app2:rec2", systemOut.toString().trim());
+
+        Assert.assertEquals("Expecting the unclaimed marker is kept", "app1,rec2;app2,rec2;app3,rec1;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void touchAndExpire() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2,app3", "-r", "rec1"));
+        // heartbeat column is added to the existing table
+        ApplicationRecoveryPodJdbcDAO.clearExistingTablesCache();
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "create", "--heartbeat"));
+        Assert.assertTrue("Expecting the index on heartbeat is created",
+            h2Connector.indexExists(DBH2Connector.DB_TABLE_NAME + "_HB_IDX"));
+        h2Connector.ageHeartbeats(120);
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "touch", "-a", "app1", "--heartbeat"));
+        Assert.assertEquals("Expecting heartbeat of one marker was refreshed", "1", systemOut.toString().trim());
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "expire", "--ttl", "60", "--chunk_size", "1",
+            "--heartbeat"));
+        Assert.assertEquals("Expecting markers with old heartbeat were deleted", "2", systemOut.toString().trim());
+
+        Assert.assertEquals("Expecting the touched marker is kept", "app1,rec1;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void exportAndImport() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app\"3", "-r", "rec2"));
+        String dataFile = new java.io.File(temporaryFolder.getRoot(), "markers.csv").getPath();
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "export", "--data_file", dataFile));
+        Assert.assertEquals("Expecting all markers were exported", "3", systemOut.toString().trim());
+        Assert.assertEquals("Expecting the file is readable as csv", h2Connector.selectAll(), h2Connector.csvRead(dataFile));
+
+        String exported = h2Connector.selectAll();
+        h2Connector.dropTable();
+        ApplicationRecoveryPodJdbcDAO.clearExistingTablesCache();
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "import", "--data_file", dataFile, "--batch_size", "2"));
+        Assert.assertEquals("Expecting all markers were imported", "3", systemOut.toString().trim());
+        Assert.assertEquals("Expecting the imported markers are the exported ones", exported, h2Connector.selectAll());
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "import", "--data_file", dataFile, "--upsert"));
+        Assert.assertEquals("Expecting the existing markers were skipped", "0", systemOut.toString().trim());
+    }
+
+    @Test
+    public void resultCacheIsValidatedByWriteCounter() throws Exception {
+        String cacheDir = temporaryFolder.newFolder("cache").getPath();
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1", "-r", "rec1"));
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "select_recovery", "-a", "app1", "--cache_dir", cacheDir));
+        Assert.assertEquals("rec1", systemOut.toString().trim());
+        java.io.File[] cacheFiles = new java.io.File(cacheDir).listFiles((dir, name) -> name.endsWith(MarkerResultCache.FILE_SUFFIX));
+        Assert.assertEquals("Expecting the result was cached", 1, cacheFiles.length);
+
+        // the cached output is printed while the table is not changed
+        java.nio.file.Path cacheFile = cacheFiles[0].toPath();
+        String cached = new String(java.nio.file.Files.readAllBytes(cacheFile), java.nio.charset.StandardCharsets.UTF_8);
+        java.nio.file.Files.write(cacheFile, cached.replace("rec1", "cached").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "select_recovery", "-a", "app1", "--cache_dir", cacheDir));
+        Assert.assertEquals("cached", systemOut.toString().trim());
+
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "delete", "-a", "app1"));
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "select_recovery", "-a", "app1", "--cache_dir", cacheDir));
+        Assert.assertEquals("Expecting the change of the table invalidates the cached result", "", systemOut.toString().trim());
+    }
+
+    @Test
+    public void journaledInsertIsReplayed() throws Exception {
+        String journal = new java.io.File(temporaryFolder.getRoot(), "markers.journal").getPath();
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1", "-r", "rec1", "--journal", journal));
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app2,app3", "-r", "rec1", "--journal", journal));
+        Assert.assertEquals("Expecting outcome of the journaled markers is not known", "app2:rec1=? app3:rec1=?", systemOut.toString().trim());
+        Assert.assertFalse("Expecting the journaled insert does not touch the database", h2Connector.tableExists());
+
+        // simulating the torn write of the last record, header 32 bytes and records of 20 bytes
+        java.io.RandomAccessFile journalFile = new java.io.RandomAccessFile(journal, "rw");
+        try {
+            journalFile.seek(32 + 3 * 20 - 1);
+            journalFile.write('X');
+        } finally {
+            journalFile.close();
+        }
+
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "replay", "--journal", journal, "--batch_size", "1"));
+        Assert.assertEquals("Expecting the records with valid checksum were replayed", "2", systemOut.toString().trim());
+        Assert.assertEquals("app1,rec1;app2,rec1;", h2Connector.selectAll());
+
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app4", "-r", "rec1", "--journal", journal));
+        systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "count", "--journal", journal));
+        Assert.assertEquals("Expecting the journal is replayed before the command", "3", systemOut.toString().trim());
+    }
+
+    @Test
+    public void reassignRecoveryPod() throws Exception {
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app1,app2,app3", "-r", "rec1"));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "insert", "-a", "app2", "-r", "rec2"));
+
+        java.io.ByteArrayOutputStream systemOut = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(systemOut));
+        Main.main(enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS, "-c", "reassign", "-r", "rec1", "-nr", "rec2"));
+        Assert.assertEquals("Expecting markers without conflict were moved", "2", systemOut.toString().trim());
+
+        Assert.assertEquals("Expecting all the markers belong to the new recovery pod", "app1,rec2;app2,rec2;app3,rec2;",
+            h2Connector.selectAll());
+    }
+
+    @Test
+    public void timingsAreWrittenToFile() throws Exception {
+        java.io.File timingsFile = new java.io.File(temporaryFolder.getRoot(), "timings.json");
+        String[] argsInsert = enrichArray(ArgumentParserTest.H2_CONNECTION_ARGS,
+                "-c", "insert", "-a", "goodone", "-r", "badone", "--timings", timingsFile.getPath());
+        Main.main(argsInsert);
+        try {
+            Main.main(argsInsert);
+            Assert.fail("Second insert of the same marker is expected to fail");
+        } catch (IllegalStateException expected) {
+            // timings are written even for the failed command
+        }
+
+        List<String> lines = java.nio.file.Files.readAllLines(timingsFile.toPath());
+        Assert.assertEquals("Expecting one json line per command", 2, lines.size());
+        Assert.assertTrue(lines.get(0), lines.get(0).startsWith("{\"started_at\":"));
+        Assert.assertTrue(lines.get(0), lines.get(0).contains("\"command\":\"INSERT\""));
+        Assert.assertTrue(lines.get(0), lines.get(0).contains("\"success\":\"true\""));
+        Assert.assertTrue(lines.get(0), lines.get(0).contains("\"rows\":1"));
+        Assert.assertTrue(lines.get(0), lines.get(0).contains("\"parse_arguments\":"));
+        Assert.assertTrue(lines.get(0), lines.get(0).contains("\"query\":"));
+        Assert.assertTrue("Second insert of the same marker fails", lines.get(1).contains("\"success\":\"false\""));
+    }
+
     private String[] enrichArray(String[] baseArray, String... argumentsToAdd) {
         List<String> args = new ArrayList<String>(Arrays.asList(baseArray));
         for(String str: argumentsToAdd) {
             args.add(str);
         }
+        args.add("-e");
+        args.add(engine);
         return args.toArray(new String[] {});
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks for processing a script of commands.
+ */
+public class MarkerScriptTest {
+    private static final Logger log = Logger.getLogger(MarkerScriptTest.class.getName());
+
+    private DBH2Connector h2Connector = new DBH2Connector();
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() {
+        try {
+            h2Connector.dropTable();
+        } catch (Exception ignore) {
+            log.log(Level.FINE, "Error on dropping h2 testing table", ignore);
+        }
+    }
+
+    @Test
+    public void failuresAreReportedPerLine() throws Exception {
+        String script = "-c create\n"
+            + "# comment line\n"
+            + "-c insert -a goodone -r badone\n"
+            + "-c insert -a goodone -r badone\n"
+            + "-c insert -a secondone -r badone\n"
+            + "-c select_application -r badone -f list_comma\n";
+
+        int exitCode = runScript(script);
+
+        Assert.assertEquals("Duplicate insert has to be reported", 1, exitCode);
+        Assert.assertTrue("Failure has to name the line: " + err, err.toString().contains("Line 4 "));
+        Assert.assertTrue("Select has to print all app pods: " + out, out.toString().contains("goodone, secondone"));
+        Assert.assertEquals("Expecting two rows in the database", 2, h2Connector.selectAll().split(";").length);
+    }
+
+    @Test
+    public void transactionIsRolledBack() throws Exception {
+        runScript("-c create");
+        String script = "-c insert -a goodone -r badone\n"
+            + "-c insert -a goodone -r badone\n"
+            + "-c insert -a secondone -r badone\n";
+
+        int exitCode = runScript(script, "-st");
+
+        Assert.assertEquals(1, exitCode);
+        Assert.assertTrue("Nothing is expected to be saved", h2Connector.selectAll().isEmpty());
+    }
+
+    @Test
+    public void transactionIsCommitted() throws Exception {
+        runScript("-c create");
+        String script = "-c insert -a goodone -r badone\n"
+            + "-c insert -a secondone -r badone\n"
+            + "-c delete -a goodone\n";
+
+        int exitCode = runScript(script, "-st", "-e", "hibernate");
+
+        Assert.assertEquals("Script failed with: " + err, 0, exitCode);
+        Assert.assertEquals("secondone,badone;", h2Connector.selectAll());
+    }
+
+    private int runScript(String script, String... additionalArgs) throws Exception {
+        String[] base = ArgumentParserTest.H2_CONNECTION_ARGS;
+        String[] args = new String[base.length + additionalArgs.length + 2];
+        System.arraycopy(base, 0, args, 0, base.length);
+        System.arraycopy(additionalArgs, 0, args, base.length, additionalArgs.length);
+        args[args.length - 2] = "--script";
+        args[args.length - 1] = "-";
+        return MarkerScript.run(ParsedArguments.parse(args), new BufferedReader(new StringReader(script)),
+            new PrintStream(out), new PrintStream(err));
+    }
+}
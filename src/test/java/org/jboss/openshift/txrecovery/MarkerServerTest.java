@@ -0,0 +1,652 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.openshift.txrecovery.cliargs.ParsedArguments;
+import org.jboss.openshift.txrecovery.types.IndexConsistencyType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks for the long-running server mode.
+ */
+public class MarkerServerTest {
+    private static final Logger log = Logger.getLogger(MarkerServerTest.class.getName());
+
+    private DBH2Connector h2Connector = new DBH2Connector();
+    private MarkerServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        try {
+            h2Connector.dropTable();
+        } catch (Exception ignore) {
+            log.log(Level.FINE, "Error on dropping h2 testing table", ignore);
+        }
+        server = new MarkerServer(ParsedArguments.parse(ArgumentParserTest.H2_CONNECTION_ARGS));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void lineProtocol() throws Exception {
+        String requests = "-c insert -a goodone -r badone\n"
+            + "\n"
+            + "-c select_recovery -a goodone\n"
+            + "-c insert\n";
+        StringWriter response = new StringWriter();
+        server.serve(new BufferedReader(new StringReader(requests)), new PrintWriter(response));
+
+        String[] lines = response.toString().split("\\r?\\n");
+        log.info("Server responded: " + response);
+        Assert.assertEquals("OUT ", lines[0]);
+        Assert.assertEquals("EXIT 0", lines[1]);
+        Assert.assertEquals("OUT badone", lines[2]);
+        Assert.assertEquals("EXIT 0", lines[3]);
+        Assert.assertTrue("Insert without pod names has to fail", lines[4].startsWith("ERR "));
+        Assert.assertEquals("EXIT 1", lines[5]);
+        Assert.assertEquals("Expecting only one row was added into the database", 1, h2Connector.selectAll().split(";").length);
+    }
+
+    @Test
+    public void existsSignalsByExitCode() {
+        server.process("-c insert -a goodone -r badone", new PrintWriter(new StringWriter()));
+
+        StringWriter response = new StringWriter();
+        Assert.assertEquals(0, server.process("-c exists -a goodone", new PrintWriter(response)));
+        Assert.assertTrue(response.toString().startsWith("OUT true"));
+
+        response = new StringWriter();
+        Assert.assertEquals(Main.EXIT_CODE_NOT_FOUND, server.process("-c exists -r otherone", new PrintWriter(response)));
+        Assert.assertTrue(response.toString().startsWith("OUT false"));
+    }
+
+    @Test
+    public void reaperExpiresMarkers() throws Exception {
+        MarkerServer reapingServer = new MarkerServer(ParsedArguments.parse(
+            enrichArray("--heartbeat", "--ttl", "60", "--reaper_interval", "3600")));
+        try {
+            reapingServer.process("-c create", new PrintWriter(new StringWriter()));
+            reapingServer.process("-c insert -a app1,app2 -r rec1", new PrintWriter(new StringWriter()));
+            Assert.assertEquals("Expecting fresh markers are not expired", 0, reapingServer.expire());
+
+            h2Connector.ageHeartbeats(120);
+            Assert.assertEquals("Expecting markers with old heartbeat were expired", 2, reapingServer.expire());
+            Assert.assertTrue(h2Connector.selectAll().isEmpty());
+        } finally {
+            reapingServer.close();
+        }
+    }
+
+    @Test
+    public void journalIsReplayedInBackground() throws Exception {
+        java.io.File journal = java.io.File.createTempFile("markers", ".journal");
+        journal.delete();
+        journal.deleteOnExit();
+        MarkerServer journalingServer = new MarkerServer(ParsedArguments.parse(enrichArray("--journal", journal.getPath())));
+        try {
+            StringWriter response = new StringWriter();
+            Assert.assertEquals(0, journalingServer.process("-c insert -a app1,app2 -r rec1", new PrintWriter(response)));
+            Assert.assertTrue("Expecting the journaled insert succeeds, response: " + response, response.toString().contains("EXIT 0"));
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while(!"app1,rec1;app2,rec1;".equals(selectAllOrEmpty()) && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("Expecting the journal was replayed to the table", "app1,rec1;app2,rec1;", selectAllOrEmpty());
+            Assert.assertEquals("Expecting nothing is left in the journal", 0, journalingServer.replayJournal());
+
+            response = new StringWriter();
+            Assert.assertEquals("Expecting other journal than the one of the server is rejected", 1,
+                journalingServer.process("-c insert -a app3 -r rec1 --journal " + journal.getPath() + ".other", new PrintWriter(response)));
+            Assert.assertFalse(new java.io.File(journal.getPath() + ".other").exists());
+        } finally {
+            journalingServer.close();
+        }
+    }
+
+    @Test
+    public void pooledConnectionsAndStatementsAreReused() throws Exception {
+        final java.util.concurrent.atomic.AtomicInteger numberOfOpened = new java.util.concurrent.atomic.AtomicInteger();
+        MarkerConnectionPool pool = new MarkerConnectionPool(() -> {
+            numberOfOpened.incrementAndGet();
+            try {
+                return java.sql.DriverManager.getConnection(DBH2Connector.DB_H2_CONNECTION, "", "");
+            } catch (java.sql.SQLException sqle) {
+                throw new IllegalStateException(sqle);
+            }
+        }, sql -> sql.startsWith("select 2"), 0, 2, 60000);
+        try {
+            String[] statements = new String[2];
+            for(int i = 0; i < 2; i++) {
+                java.sql.Connection connection = pool.borrow();
+                java.sql.PreparedStatement statement = connection.prepareStatement("select 1");
+                statements[i] = statement.toString();
+                Assert.assertTrue(statement.executeQuery().next());
+                statement.close();
+                connection.close();
+                Assert.assertTrue(connection.isClosed());
+            }
+            Assert.assertEquals("Expecting the connection is reused", 1, numberOfOpened.get());
+            Assert.assertEquals("Expecting the prepared statement is reused", statements[0], statements[1]);
+
+            // the settings of the statement don't leak to the next borrower of the cached statement
+            java.sql.Connection limiting = pool.borrow();
+            java.sql.PreparedStatement limited = limiting.prepareStatement("select x from system_range(1, 10)");
+            limited.setMaxRows(1);
+            limited.setFetchSize(1);
+            limited.close();
+            limiting.close();
+            java.sql.Connection unlimited = pool.borrow();
+            java.sql.PreparedStatement reused = unlimited.prepareStatement("select x from system_range(1, 10)");
+            Assert.assertEquals("Expecting the max rows of the cached statement was restored", 0, reused.getMaxRows());
+            java.sql.ResultSet rs = reused.executeQuery();
+            int numberOfRows = 0;
+            while(rs.next()) numberOfRows++;
+            Assert.assertEquals(10, numberOfRows);
+            reused.close();
+            unlimited.close();
+
+            // the driver specific api (e.g. the PostgreSQL notifications of the watch) is reached by unwrapping
+            java.sql.Connection unwrapping = pool.borrow();
+            Assert.assertTrue(unwrapping.isWrapperFor(org.h2.jdbc.JdbcConnection.class));
+            Assert.assertNotNull("Expecting the pooled connection unwraps to the driver connection",
+                unwrapping.unwrap(org.h2.jdbc.JdbcConnection.class));
+            unwrapping.close();
+
+            java.sql.Connection locking = pool.borrow();
+            locking.prepareStatement("select 2").close();
+            locking.close();
+            Assert.assertEquals("Expecting the connection holding a session lock is closed", 0, pool.size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void idleConnectionsAreEvictedWithoutRequests() throws Exception {
+        MarkerConnectionPool pool = new MarkerConnectionPool(() -> {
+            try {
+                return java.sql.DriverManager.getConnection(DBH2Connector.DB_H2_CONNECTION, "", "");
+            } catch (java.sql.SQLException sqle) {
+                throw new IllegalStateException(sqle);
+            }
+        }, sql -> false, 0, 2, 0);
+        try {
+            java.sql.Connection first = pool.borrow(), second = pool.borrow();
+            first.close();
+            second.close();
+            long deadline = System.currentTimeMillis() + 5 * MarkerConnectionPool.MIN_EVICTION_INTERVAL_MILLIS;
+            while(pool.size() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("Expecting the idle connections were closed by the evictor", 0, pool.size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void groupCommitIsolatesFailures() throws Exception {
+        final MarkerServer groupingServer = new MarkerServer(ParsedArguments.parse(enrichArray("--group_commit_window", "500")));
+        try {
+            Assert.assertEquals(0, groupingServer.process("-c insert -a dup -r rec0", new PrintWriter(new StringWriter())));
+
+            final List<String> requests = new ArrayList<String>();
+            for(int i = 0; i < 10; i++) requests.add("-c insert -a app" + i + " -r rec0");
+            requests.add("-c insert -a dup -r rec0");
+            requests.add("-c insert -a dup -r rec0 --upsert");
+            requests.add("-c delete -a dup -r rec1");
+            final String[] responses = new String[requests.size()];
+            final int[] exitCodes = new int[requests.size()];
+            List<Thread> clients = new ArrayList<Thread>();
+            for(int i = 0; i < requests.size(); i++) {
+                final int index = i;
+                clients.add(new Thread(() -> {
+                    StringWriter response = new StringWriter();
+                    exitCodes[index] = groupingServer.process(requests.get(index), new PrintWriter(response));
+                    responses[index] = response.toString();
+                }));
+            }
+            for(Thread client: clients) client.start();
+            for(Thread client: clients) client.join();
+
+            for(int i = 0; i < 10; i++) Assert.assertEquals("Unexpected response " + responses[i], 0, exitCodes[i]);
+            Assert.assertEquals("Expecting the insert of existing marker fails, response " + responses[10], 1, exitCodes[10]);
+            Assert.assertTrue(responses[11], responses[11].startsWith("OUT 0"));
+            Assert.assertEquals("Unexpected response " + responses[12], 0, exitCodes[12]);
+            Assert.assertEquals("Expecting the failure of one marker does not fail the others",
+                11, h2Connector.selectAll().split(";").length);
+        } finally {
+            groupingServer.close();
+        }
+    }
+
+    @Test
+    public void groupedUpsertWithoutUpdateCounts() throws Exception {
+        final ParsedArguments serverArguments = ParsedArguments.parse(ArgumentParserTest.H2_CONNECTION_ARGS);
+        final RecoveryMarkerDAOFactory daoFactory = RecoveryMarkerDAOFactory.create(serverArguments);
+        // driver which does not report the update counts of the batch
+        RecoveryMarkerDAOFactory noInfoDaoFactory = new RecoveryMarkerDAOFactory() {
+            @Override
+            public RecoveryMarkerDAO openDAO() {
+                final RecoveryMarkerDAO dao = daoFactory.openDAO();
+                return (RecoveryMarkerDAO) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {RecoveryMarkerDAO.class},
+                    (proxy, method, args) -> {
+                        Object result;
+                        try {
+                            result = method.invoke(dao, args);
+                        } catch (InvocationTargetException ite) {
+                            throw ite.getCause();
+                        }
+                        if(method.getName().equals("saveRecords")) Arrays.fill((int[]) result, Statement.SUCCESS_NO_INFO);
+                        return result;
+                    });
+            }
+
+            @Override
+            public void close() {
+                daoFactory.close();
+            }
+        };
+        final MarkerGroupCommit groupCommit = new MarkerGroupCommit(noInfoDaoFactory, 500, 100);
+        try {
+            ParsedArguments insert = ParsedArguments.parseCommand(serverArguments, "-c insert -a dup -r rec0");
+            Assert.assertEquals(0, groupCommit.process(insert, new OutputPrinter(new StringBuilder(), insert.getFormat())));
+
+            // the first group falls back to the single upserts, the second one is not grouped
+            for(final String newPod: Arrays.asList("new1", "new2")) {
+                final List<String> requests = Arrays.asList("-c insert -a dup -r rec0 --upsert", "-c insert -a " + newPod + " -r rec0 --upsert");
+                final String[] outputs = new String[requests.size()];
+                List<Thread> clients = new ArrayList<Thread>();
+                for(int i = 0; i < requests.size(); i++) {
+                    final int index = i;
+                    clients.add(new Thread(() -> {
+                        try {
+                            ParsedArguments upsert = ParsedArguments.parseCommand(serverArguments, requests.get(index));
+                            StringBuilder output = new StringBuilder();
+                            OutputPrinter printer = new OutputPrinter(output, upsert.getFormat());
+                            groupCommit.process(upsert, printer);
+                            printer.finish();
+                            outputs[index] = output.toString().trim();
+                        } catch (Exception e) {
+                            log.log(Level.SEVERE, "Upsert failed", e);
+                        }
+                    }));
+                }
+                for(Thread client: clients) client.start();
+                for(Thread client: clients) client.join();
+
+                Assert.assertEquals("Expecting the existing marker is not inserted", "0", outputs[0]);
+                Assert.assertEquals("Expecting the new marker is inserted", "1", outputs[1]);
+            }
+            Assert.assertEquals(3, h2Connector.selectAll().split(";").length);
+        } finally {
+            groupCommit.close();
+            noInfoDaoFactory.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void groupCommitFailsRequestsWhenCommitterStops() throws Exception {
+        final ParsedArguments serverArguments = ParsedArguments.parse(ArgumentParserTest.H2_CONNECTION_ARGS);
+        RecoveryMarkerDAOFactory failingDaoFactory = new RecoveryMarkerDAOFactory() {
+            @Override
+            public RecoveryMarkerDAO openDAO() {
+                throw new AssertionError("committer stops");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        MarkerGroupCommit groupCommit = new MarkerGroupCommit(failingDaoFactory, 0, 100);
+        try {
+            for(int i = 0; i < 2; i++) {
+                ParsedArguments insert = ParsedArguments.parseCommand(serverArguments, "-c insert -a app" + i + " -r rec0");
+                try {
+                    groupCommit.process(insert, new OutputPrinter(new StringBuilder(), insert.getFormat()));
+                    Assert.fail("Expecting the request fails when the committer stopped");
+                } catch (IllegalStateException expected) {
+                    log.log(Level.FINE, "Expected failure of the request", expected);
+                }
+            }
+        } finally {
+            groupCommit.close();
+        }
+    }
+
+    @Test
+    public void indexAnswersSelectsByConsistency() throws Exception {
+        ParsedArguments serverArguments = ParsedArguments.parse(ArgumentParserTest.H2_CONNECTION_ARGS);
+        RecoveryMarkerDAOFactory daoFactory = RecoveryMarkerDAOFactory.create(serverArguments);
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        // no poll of the changes during the test
+        MarkerIndex cachedIndex = new MarkerIndex(daoFactory, IndexConsistencyType.CACHED, 3600000);
+        MarkerIndex readThroughIndex = new MarkerIndex(daoFactory, IndexConsistencyType.READ_THROUGH, 3600000);
+        try {
+            ParsedArguments select = ParsedArguments.parseCommand(serverArguments, "-c select_recovery -a app1");
+            long deadline = System.currentTimeMillis() + 10000;
+            while((indexSelect(cachedIndex, select) == null || indexSelect(readThroughIndex, select) == null)
+                && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("", indexSelect(cachedIndex, select));
+            Assert.assertEquals("Expecting the read through index answers at the version of the table", "", indexSelect(readThroughIndex, select));
+
+            dao.saveRecord("app1", "rec1");
+            Assert.assertEquals("Expecting the cached index does not see the change before the poll", "", indexSelect(cachedIndex, select));
+            Assert.assertNull("Expecting the read through index sends the select to the table", indexSelect(readThroughIndex, select));
+        } finally {
+            cachedIndex.close();
+            readThroughIndex.close();
+            dao.close();
+            daoFactory.close();
+        }
+    }
+
+    @Test
+    public void indexFollowsChangesOfOtherProcesses() throws Exception {
+        ParsedArguments serverArguments = ParsedArguments.parse(ArgumentParserTest.H2_CONNECTION_ARGS);
+        RecoveryMarkerDAOFactory daoFactory = RecoveryMarkerDAOFactory.create(serverArguments);
+        RecoveryMarkerDAO dao = daoFactory.openDAO();
+        MarkerIndex index = new MarkerIndex(daoFactory, IndexConsistencyType.READ_THROUGH, 50);
+        try {
+            ParsedArguments select = ParsedArguments.parseCommand(serverArguments, "-c select_recovery -a app1");
+            long deadline = System.currentTimeMillis() + 10000;
+            while(indexSelect(index, select) == null && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("", indexSelect(index, select));
+
+            dao.saveRecord("app1", "rec1");
+            while(!"rec1".equals(indexSelect(index, select)) && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("Expecting the marker inserted by other process is added", "rec1", indexSelect(index, select));
+            dao.delete("app1", "rec1");
+            while(!"".equals(indexSelect(index, select)) && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("Expecting the marker deleted by other process is removed", "", indexSelect(index, select));
+
+            dao.saveRecord("app1", "rec2");
+            while(!"rec2".equals(indexSelect(index, select)) && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Assert.assertEquals("Expecting the marker inserted by other process is kept", "rec2", indexSelect(index, select));
+            Assert.assertEquals(1, index.size());
+        } finally {
+            index.close();
+            dao.close();
+            daoFactory.close();
+        }
+    }
+
+    @Test
+    public void serverChangesAreNotAppliedAheadOfTheTable() throws Exception {
+        server.close();
+        // no poll of the changes during the test
+        server = new MarkerServer(ParsedArguments.parse(enrichArray("--index", "read_through", "--poll_interval", "3600000")));
+        Assert.assertEquals(0, server.process("-c insert -a app1 -r rec1", new PrintWriter(new StringWriter())));
+        Assert.assertEquals(0, server.process("-c reassign -a app1 -r rec1 -nr rec2", new PrintWriter(new StringWriter())));
+
+        StringWriter response = new StringWriter();
+        Assert.assertEquals(0, server.process("-c select_recovery -a app1", new PrintWriter(response)));
+        Assert.assertEquals("Expecting the reassigned marker is read from the table", "OUT rec2", response.toString().split("\\R")[0]);
+    }
+
+    @Test
+    public void concurrentClaimsSplitMarkers() throws Exception {
+        StringBuilder appPods = new StringBuilder();
+        for(int i = 0; i < 60; i++) appPods.append(i == 0 ? "" : ",").append("app").append(i);
+        server.process("-c insert -r orphaned -a " + appPods, new PrintWriter(new StringWriter()));
+
+        final List<String> claimed = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> claimers = new ArrayList<Thread>();
+        for(int i = 0; i < 4; i++) {
+            final String recoveryPod = "rec" + i;
+            claimers.add(new Thread(() -> {
+                while(true) {
+                    StringWriter response = new StringWriter();
+                    if(server.process("-c claim -r orphaned -nr " + recoveryPod + " --chunk_size 7", new PrintWriter(response)) != 0)
+                        throw new IllegalStateException("Claim failed: " + response);
+                    String out = response.toString().split("\\r?\\n")[0].substring(MarkerServer.OUT_PREFIX.length()).trim();
+                    if(out.isEmpty()) return;
+                    claimed.addAll(Arrays.asList(out.split(" ")));
+                }
+            }));
+        }
+        for(Thread claimer: claimers) claimer.start();
+        for(Thread claimer: claimers) claimer.join();
+
+        Set<String> claimedAppPods = new HashSet<String>();
+        for(String marker: claimed) claimedAppPods.add(marker.split(":")[0]);
+        Assert.assertEquals("Expecting every marker was claimed exactly once, claimed " + claimed, 60, claimed.size());
+        Assert.assertEquals(60, claimedAppPods.size());
+        Assert.assertFalse("Expecting no marker is left for the orphaned pod", h2Connector.selectAll().contains("orphaned"));
+    }
+
+    @Test
+    public void lockIsExclusive() {
+        StringWriter response = new StringWriter();
+        Assert.assertEquals(0, server.process("-c lock -r rec1 --lock_timeout 0", new PrintWriter(response)));
+        Assert.assertTrue(response.toString().startsWith("OUT true"));
+        try {
+            response = new StringWriter();
+            Assert.assertEquals("Expecting the held lock is not acquired twice",
+                Main.EXIT_CODE_NOT_LOCKED, server.process("-c lock -r rec1 --lock_timeout 1", new PrintWriter(response)));
+            Assert.assertTrue(response.toString().startsWith("OUT false"));
+
+            response = new StringWriter();
+            Assert.assertEquals("Expecting the command fails when the lock is held", 1,
+                server.process("-c insert -a app1 -r rec1 --with_lock --lock_timeout 0", new PrintWriter(response)));
+            Assert.assertEquals("Expecting the lock of other pod is free", 0,
+                server.process("-c insert -a app1 -r rec2 --with_lock", new PrintWriter(new StringWriter())));
+        } finally {
+            response = new StringWriter();
+            server.process("-c unlock -r rec1", new PrintWriter(response));
+            Assert.assertTrue(response.toString().startsWith("OUT true"));
+        }
+        Assert.assertEquals(0, server.process("-c insert -a app1 -r rec1 --with_lock", new PrintWriter(new StringWriter())));
+        Assert.assertEquals("app1,rec1;app1,rec2;", h2Connector.selectAll());
+    }
+
+    @Test
+    public void watchReportsChanges() throws Exception {
+        server.process("-c insert -a app0 -r rec0", new PrintWriter(new StringWriter()));
+
+        final StringWriter response = new StringWriter();
+        Thread watcher = new Thread(() -> server.process("-c watch --poll_interval 50 --watch_duration 2", new PrintWriter(response)));
+        watcher.start();
+        Thread.sleep(500);
+        server.process("-c insert -a app1 -r rec1", new PrintWriter(new StringWriter()));
+        server.process("-c delete -a app0", new PrintWriter(new StringWriter()));
+        watcher.join();
+
+        List<String> lines = Arrays.asList(response.toString().split("\\r?\\n"));
+        log.info("Watch responded: " + lines);
+        Assert.assertEquals("Expecting the current marker is reported first", "OUT +app0:rec0", lines.get(0));
+        String changes = String.join(" ", lines.subList(1, lines.size() - 2));
+        Assert.assertTrue("Expecting the added marker is reported: " + changes, changes.contains("+app1:rec1"));
+        Assert.assertTrue("Expecting the removed marker is reported: " + changes, changes.contains("-app0:rec0"));
+        Assert.assertEquals("EXIT 0", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void watchWithoutDurationIsRejected() {
+        StringWriter response = new StringWriter();
+        int exitCode = server.process("-c watch", new PrintWriter(response));
+
+        Assert.assertEquals(1, exitCode);
+        Assert.assertTrue(response.toString(), response.toString().contains("--watch_duration"));
+    }
+
+    @Test
+    public void differentTableIsRejected() {
+        StringWriter response = new StringWriter();
+        int exitCode = server.process("-c select_recovery -t other_table", new PrintWriter(response));
+
+        Assert.assertEquals(1, exitCode);
+        Assert.assertTrue(response.toString().contains("other_table"));
+    }
+
+    @Test
+    public void forwardBySocket() throws Exception {
+        int port = server.bind(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.acceptConnections();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Server failed", e);
+            }
+        });
+        acceptor.start();
+
+        String[] insertArgs = enrichArray("-c", "insert", "-a", "goodone", "-r", "badone");
+        Assert.assertEquals((Integer) 0, MarkerServerClient.forward(port, insertArgs, System.out, System.err));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String[] selectArgs = enrichArray("-c", "select_application", "-r", "badone");
+        Assert.assertEquals((Integer) 0, MarkerServerClient.forward(port, selectArgs, new PrintStream(out), System.err));
+        Assert.assertEquals("goodone", out.toString().trim());
+
+        server.close();
+        acceptor.join(5000);
+        Assert.assertNull("Closed server is not reachable", MarkerServerClient.forward(port, selectArgs, System.out, System.err));
+    }
+
+    @Test
+    public void connectionsAboveMinimalWorkersAreServed() throws Exception {
+        server.close();
+        server = new MarkerServer(ParsedArguments.parse(enrichArray("--pool_max_size", "8")));
+        Assert.assertEquals(8, server.getWorkerThreads());
+        int port = server.bind(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.acceptConnections();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Server failed", e);
+            }
+        });
+        acceptor.start();
+
+        // idle clients keep their connections open, each one occupies a worker
+        List<Socket> idleClients = new ArrayList<Socket>();
+        try {
+            for(int i = 0; i < MarkerServer.MIN_WORKER_THREADS; i++) {
+                idleClients.add(new Socket(InetAddress.getLoopbackAddress(), port));
+            }
+            final Integer[] exitCode = new Integer[1];
+            Thread client = new Thread(() -> exitCode[0] = MarkerServerClient.forward(port,
+                enrichArray("-c", "insert", "-a", "app1", "-r", "rec1"), System.out, System.err));
+            client.start();
+            client.join(10000);
+            Assert.assertEquals("Expecting the request is served beside the idle connections", (Integer) 0, exitCode[0]);
+        } finally {
+            for(Socket idleClient: idleClients) {
+                idleClient.close();
+            }
+        }
+
+        server.close();
+        acceptor.join(5000);
+    }
+
+    @Test
+    public void stdinCommandIsProcessedLocally() throws Exception {
+        int port = server.bind(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.acceptConnections();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Server failed", e);
+            }
+        });
+        acceptor.start();
+
+        InputStream systemIn = System.in;
+        try {
+            System.setIn(new ByteArrayInputStream("app1:rec1\napp2:rec1\n".getBytes("UTF-8")));
+            Main.main(enrichArray("-c", "insert", "--markers_file", "-", "--server_port", String.valueOf(port)));
+        } finally {
+            System.setIn(systemIn);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String[] selectArgs = enrichArray("-c", "select_application", "-r", "rec1");
+        Assert.assertEquals((Integer) 0, MarkerServerClient.forward(port, selectArgs, new PrintStream(out), System.err));
+        Assert.assertEquals("Expecting markers read from stdin were inserted",
+            new HashSet<String>(Arrays.asList("app1", "app2")), new HashSet<String>(Arrays.asList(out.toString().trim().split("\\s+"))));
+
+        server.close();
+        acceptor.join(5000);
+    }
+
+    @Test
+    public void commandLineSplitting() {
+        String[] args = new String[] {"-c", "insert", "-s", "", "-a", "my pod"};
+        Assert.assertArrayEquals(args, ParsedArguments.splitCommandLine(ParsedArguments.joinCommandLine(args)));
+    }
+
+    /**
+     * @return output of the select answered by the index, null if the index does not answer it
+     */
+    private String indexSelect(MarkerIndex index, ParsedArguments select) {
+        StringBuilder output = new StringBuilder();
+        OutputPrinter printer = new OutputPrinter(output, select.getFormat());
+        if(!index.select(select, printer)) return null;
+        printer.finish();
+        return output.toString().trim();
+    }
+
+        private String[] enrichArray(String... argumentsToAdd) {
+        String[] base = ArgumentParserTest.H2_CONNECTION_ARGS;
+        String[] args = new String[base.length + argumentsToAdd.length];
+        System.arraycopy(base, 0, args, 0, base.length);
+        System.arraycopy(argumentsToAdd, 0, args, base.length, argumentsToAdd.length);
+        return args;
+    }
+
+    private String selectAllOrEmpty() {
+        try {
+            return h2Connector.selectAll();
+        } catch (IllegalStateException e) {
+            // table does not exist yet
+            return "";
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.openshift.txrecovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.jboss.openshift.txrecovery.types.DatabaseType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks for the library API embedded in the application.
+ */
+public class RecoveryMarkerClientTest {
+    private static final Logger log = Logger.getLogger(RecoveryMarkerClientTest.class.getName());
+
+    private DBH2Connector h2Connector = new DBH2Connector();
+    private RecoveryMarkerClient client;
+
+    @Before
+    public void setUp() {
+        try {
+            h2Connector.dropTable();
+        } catch (Exception ignore) {
+            log.log(Level.FINE, "Error on dropping h2 testing table", ignore);
+        }
+        ApplicationRecoveryPodJdbcDAO.clearExistingTablesCache();
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl(DBH2Connector.DB_H2_CONNECTION);
+        client = new RecoveryMarkerClient(dataSource,
+            new MarkerTableDialect(DatabaseType.H2, null, DBH2Connector.DB_TABLE_NAME), RecoveryMarkerClient.DEFAULT_THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+    }
+
+    @Test
+    public void concurrentOperations() throws Exception {
+        Assert.assertTrue(client.createTable().join());
+
+        List<CompletableFuture<Void>> inserts = new ArrayList<CompletableFuture<Void>>();
+        for(int i = 0; i < 20; i++) inserts.add(client.insert("app" + i, "rec" + (i % 2)));
+        CompletableFuture.allOf(inserts.toArray(new CompletableFuture[0])).join();
+
+        Assert.assertEquals(Long.valueOf(10), client.count(null, "rec1").join());
+        Assert.assertTrue(client.exists("app3", "rec1").join());
+        Assert.assertFalse(client.insertIfNotExists("app3", "rec1").join());
+        Assert.assertEquals(Integer.valueOf(10), client.delete(null, "rec0").join());
+        Assert.assertEquals(10, client.select(null, null).join().size());
+
+        int[] deleted = client.deleteAll(Arrays.asList(new ApplicationRecoveryPod("app1", null), new ApplicationRecoveryPod("app2", null))).join();
+        Assert.assertArrayEquals(new int[] {1, 0}, deleted);
+        int[] inserted = client.insertAll(Arrays.asList(new ApplicationRecoveryPod("app1", "rec1"),
+            new ApplicationRecoveryPod("app3", "rec1")), true).join();
+        Assert.assertArrayEquals(new int[] {1, 0}, inserted);
+    }
+
+    @Test
+    public void failureCompletesFuture() {
+        client.createTable().join();
+        client.insert("app1", "rec1").join();
+        CompletableFuture<Void> duplicate = client.insert("app1", "rec1");
+        try {
+            duplicate.join();
+            Assert.fail("Insert of existing marker is expected to fail");
+        } catch (RuntimeException expected) {
+            Assert.assertTrue(duplicate.isCompletedExceptionally());
+            Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+}